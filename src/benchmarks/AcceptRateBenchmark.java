@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import server.Server;
+import configuration.ServerOptions;
+
+/**
+ * Measures how many connections per second the server accepts during a storm
+ * of short-lived connections, for a growing number of acceptor threads.
+ *
+ * Every client connects and closes right away, so the rate is bounded by the
+ * accept path (blacklist bookkeeping, admission, handing the connection off)
+ * rather than by request evaluation. Runs against a temporary copy of the
+ * configuration folder, since the storm gets localhost blacklisted.
+ *
+ * Usage: AcceptRateBenchmark confFolder [port] [seconds] [clientThreads]
+ * [acceptorCounts...]
+ */
+public class AcceptRateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String confFolder = args.length > 0 ? args[0] : "conf";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 18080;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int clients = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		List<Integer> acceptorCounts = new ArrayList<Integer>();
+		for (int i = 4; i < args.length; i++) {
+			acceptorCounts.add(Integer.parseInt(args[i]));
+		}
+		if (acceptorCounts.isEmpty()) {
+			acceptorCounts.add(1);
+			acceptorCounts.add(2);
+			acceptorCounts.add(4);
+		}
+
+		for (int acceptors : acceptorCounts) {
+			File scratch = copyConfiguration(new File(confFolder));
+			Server server = new Server("web", scratch.getPath(), port, null);
+			server.getConfiguration().setConfigurationOption(
+					ServerOptions.AcceptorThreads, Integer.toString(acceptors));
+			new Thread(server).start();
+			Thread.sleep(1000);
+
+			long accepted = storm(port, seconds, clients, server);
+			System.out.printf("%2d acceptors: %10.0f accepts/s%n", acceptors,
+					accepted / (double) seconds);
+
+			server.stop();
+			port++; // Don't wait for the old listeners to go away
+		}
+		System.exit(0);
+	}
+
+	private static long storm(final int port, int seconds, int clients,
+			Server server) throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < clients; i++) {
+			Thread client = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						Socket socket = new Socket();
+						try {
+							socket.setSoLinger(true, 0);
+							socket.connect(new InetSocketAddress("localhost",
+									port));
+						} catch (IOException e) {
+							// Backlog full, try again
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+							}
+						}
+					}
+				}
+			});
+			client.start();
+			threads.add(client);
+		}
+
+		long before = server.getAcceptedConnections();
+		Thread.sleep(seconds * 1000L);
+		long accepted = server.getAcceptedConnections() - before;
+
+		running.set(false);
+		for (Thread client : threads) {
+			client.join();
+		}
+		return accepted;
+	}
+
+	private static File copyConfiguration(File confFolder) throws IOException {
+		File scratch = Files.createTempDirectory("sws-bench").toFile();
+		scratch.deleteOnExit();
+		File[] files = confFolder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					Files.copy(file.toPath(),
+							new File(scratch, file.getName()).toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		return scratch;
+	}
+}
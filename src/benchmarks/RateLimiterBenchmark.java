@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.RateLimiter;
+
+/**
+ * Measures what the per-connection rate limit check costs, for the
+ * RateLimiter's count-min sketch and for the map of counters keyed by
+ * InetAddress.toString() it replaced, with clients spread over a growing
+ * number of addresses. The map also reports how many entries it kept, which
+ * the sketch doesn't need.
+ *
+ * Usage: RateLimiterBenchmark [checksPerThread] [threads] [addressCounts...]
+ */
+public class RateLimiterBenchmark {
+	private static final int LIMIT = 100;
+	private static final int WARMUP_ROUNDS = 2;
+
+	public static void main(String[] args) throws Exception {
+		int checks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		List<Integer> addressCounts = new ArrayList<Integer>();
+		for (int i = 2; i < args.length; i++) {
+			addressCounts.add(Integer.parseInt(args[i]));
+		}
+		if (addressCounts.isEmpty()) {
+			addressCounts.add(16);
+			addressCounts.add(100000);
+		}
+
+		for (int count : addressCounts) {
+			InetAddress[] addresses = addresses(count);
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				final RateLimiter limiter = new RateLimiter(1000);
+				double sketch = run(addresses, checks, threads, new Check() {
+					@Override
+					public boolean allowed(InetAddress address) {
+						return limiter.tryAcquire(address, LIMIT);
+					}
+				});
+
+				final ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+				double map = run(addresses, checks, threads, new Check() {
+					@Override
+					public boolean allowed(InetAddress address) {
+						String ip = address.toString();
+						AtomicInteger count = counts.get(ip);
+						if (count == null) {
+							AtomicInteger firstCount = new AtomicInteger();
+							count = counts.putIfAbsent(ip, firstCount);
+							if (count == null) {
+								count = firstCount;
+							}
+						}
+						return count.incrementAndGet() <= LIMIT;
+					}
+				});
+
+				if (round == WARMUP_ROUNDS) {
+					System.out.printf(
+							"%7d addresses: sketch %6.1f ns/check, map %6.1f ns/check (%d entries)%n",
+							count, sketch, map, counts.size());
+				}
+			}
+		}
+	}
+
+	private interface Check {
+		boolean allowed(InetAddress address);
+	}
+
+	/**
+	 * @return wall-clock nanoseconds per check, over all threads together
+	 */
+	private static double run(final InetAddress[] addresses, final int checks,
+			int threads, final Check check) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger allowed = new AtomicInteger();
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * 7919;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int passed = 0;
+					try {
+						start.await();
+						for (int i = 0; i < checks; i++) {
+							if (check.allowed(addresses[(offset + i)
+									% addresses.length])) {
+								passed++;
+							}
+						}
+					} catch (InterruptedException e) {
+						// Counted as done
+					}
+					allowed.addAndGet(passed); // Keeps the checks from being elided
+					done.countDown();
+				}
+			}).start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		return elapsed / ((double) checks * threads);
+	}
+
+	private static InetAddress[] addresses(int count)
+			throws UnknownHostException {
+		InetAddress[] addresses = new InetAddress[count];
+		for (int i = 0; i < count; i++) {
+			addresses[i] = InetAddress.getByAddress(new byte[] { 10,
+					(byte) (i >>> 16), (byte) (i >>> 8), (byte) i });
+		}
+		return addresses;
+	}
+}
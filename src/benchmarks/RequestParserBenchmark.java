@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import request.HTTPRequest;
+import request.HTTPRequestBuffer;
+import request.HTTPRequestFactory;
+
+/**
+ * Measures how fast HTTPRequestFactory turns raw bytes into requests, and how
+ * many bytes it allocates per request, for a typical browser GET and a small
+ * POST. The bytes arrive in small reads, as they do from a client, so
+ * requests split across reads are part of the measurement.
+ *
+ * Allocation is read from the JDK's per-thread counter where it has one.
+ *
+ * Usage: RequestParserBenchmark [requests] [readSize] [rounds]
+ */
+public class RequestParserBenchmark {
+	private static final String BROWSER_GET = "GET /dirops/index.html?user=jane%20doe&page=2 HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+			+ "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "Cookie: session=4f6c2d8e9a\r\n" + "\r\n";
+
+	private static final String SMALL_POST = "POST /tweeter/posts HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "Content-Type: application/x-www-form-urlencoded\r\n"
+			+ "Content-Length: 27\r\n" + "\r\n" + "text=hello+world&user=alice";
+
+	public static void main(String[] args) {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int readSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		for (int round = 0; round < rounds; round++) {
+			run("GET", BROWSER_GET, requests, readSize);
+			run("POST", SMALL_POST, requests, readSize);
+		}
+	}
+
+	private static void run(String name, String request, int requests,
+			int readSize) {
+		// Pipelined back to back, the way a busy keep-alive client sends them
+		byte[] one = request.getBytes(Charset.forName("US-ASCII"));
+		int perBatch = Math.max(1, 64 * 1024 / one.length);
+		byte[] batch = new byte[one.length * perBatch];
+		for (int i = 0; i < perBatch; i++) {
+			System.arraycopy(one, 0, batch, i * one.length, one.length);
+		}
+
+		HTTPRequestFactory factory = new HTTPRequestFactory();
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		Socket socket = new Socket();
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		int parsed = 0;
+		int checksum = 0;
+		while (parsed < requests) {
+			for (int offset = 0; offset < batch.length; offset += readSize) {
+				buffer.append(batch, offset,
+						Math.min(readSize, batch.length - offset));
+				List<HTTPRequest> created = factory.createRequests(socket,
+						buffer);
+				for (HTTPRequest parsedRequest : created) {
+					checksum += parsedRequest.getPath().length();
+				}
+				parsed += created.size();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		System.out.printf(
+				"%-4s %10.0f requests/s %8s bytes/request (checksum %d)%n",
+				name, parsed / (elapsed / 1e9),
+				allocatedBefore < 0 ? "n/a" : Long.toString(allocated
+						/ parsed), checksum);
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, -1 if the JDK can't tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory
+				.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import interfaces.IResourceRoute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import configuration.ResourceStrategyRoute;
+import configuration.RouteTrie;
+
+/**
+ * Compares finding a request's route by scanning every route in order, the
+ * way ResourceStrategyConfiguration used to, with a RouteTrie, for 10, 100
+ * and 1,000 routes. The routes are spread over plugins with several servlets
+ * each, like those routes.xml sets up, and the requests are spread evenly
+ * over them, with a share of paths no route matches.
+ *
+ * Usage: RouteLookupBenchmark [lookups] [rounds]
+ */
+public class RouteLookupBenchmark {
+	private static final int SERVLETS_PER_PLUGIN = 10;
+	private static final int[] ROUTE_COUNTS = { 10, 100, 1000 };
+
+	// Keeps the lookups from being optimised away
+	private static int checksum = 0;
+
+	public static void main(String[] args) {
+		int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		for (int round = 0; round < rounds; round++) {
+			for (int count : ROUTE_COUNTS) {
+				List<ResourceStrategyRoute> routes = createRoutes(count);
+				String[] paths = createPaths(count);
+				RouteTrie trie = new RouteTrie(routes);
+
+				long linear = time(routes, null, paths, lookups);
+				long indexed = time(null, trie, paths, lookups);
+				System.out.printf(
+						"%5d routes  linear %12.0f lookups/s  trie %12.0f lookups/s%n",
+						count, lookups / (linear / 1e9), lookups
+								/ (indexed / 1e9));
+			}
+		}
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	private static long time(List<ResourceStrategyRoute> routes,
+			RouteTrie trie, String[] paths, int lookups) {
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			String path = paths[i % paths.length];
+			String method = (i & 1) == 0 ? "GET" : "POST";
+			IResourceRoute route = trie != null ? trie.find(path, method)
+					: scan(routes, path, method);
+			checksum += route.getRouteMatch() == null ? 0 : 1;
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static IResourceRoute scan(List<ResourceStrategyRoute> routes,
+			String path, String method) {
+		for (IResourceRoute route : routes) {
+			String match = route.getRouteMatch();
+			if (match != null && path.startsWith(match)
+					&& route.respondsToMethod(method)) {
+				return route;
+			}
+		}
+		return ResourceStrategyRoute.None;
+	}
+
+	private static List<ResourceStrategyRoute> createRoutes(int count) {
+		List<ResourceStrategyRoute> routes = new ArrayList<ResourceStrategyRoute>();
+		for (int i = 0; i < count; i++) {
+			// Every other servlet only takes GET, as reads usually outnumber
+			// writes
+			List<String> methods = i % 2 == 0 ? Arrays.asList("GET", "POST",
+					"PUT", "DELETE") : Arrays.asList("GET");
+			routes.add(new ResourceStrategyRoute(Object.class, String.format(
+					"/plugin%d/servlet%d/", i / SERVLETS_PER_PLUGIN, i
+							% SERVLETS_PER_PLUGIN), methods,
+					new HashMap<String, String>()));
+		}
+		return routes;
+	}
+
+	private static String[] createPaths(int count) {
+		String[] paths = new String[count + count / 10];
+		for (int i = 0; i < count; i++) {
+			paths[i] = String.format("/plugin%d/servlet%d/items/%d?page=2", i
+					/ SERVLETS_PER_PLUGIN, i % SERVLETS_PER_PLUGIN, i);
+		}
+		for (int i = count; i < paths.length; i++) {
+			paths[i] = "/missing/" + i;
+		}
+		return paths;
+	}
+}
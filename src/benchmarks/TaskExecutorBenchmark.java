@@ -0,0 +1,125 @@
+package benchmarks;
+
+import interfaces.IRequestTask;
+import interfaces.IRequestTask.IRequestTaskCompletionListener;
+import interfaces.RequestTaskBase;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import strategy.CancellableThreadPoolExecutor;
+import strategy.IRequestTaskExecutor;
+import strategy.VirtualThreadTaskExecutor;
+import strategy.VirtualThreads;
+
+/**
+ * Compares the ResponseHandler's thread pool with the virtual thread executor
+ * on tasks that block, like a plugin waiting on its database. Reports
+ * throughput and the 50th/99th percentile time from submission to
+ * completion.
+ *
+ * Usage: TaskExecutorBenchmark [tasks] [blockMillis] [rounds]
+ */
+public class TaskExecutorBenchmark {
+	private static final int POOL_CORE_THREADS = 3;
+	private static final int POOL_MAX_THREADS = 5;
+
+	public static void main(String[] args) throws InterruptedException {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int blockMillis = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		System.out.printf("%d tasks blocking %d ms, virtual threads %s%n",
+				tasks, blockMillis, VirtualThreads.isSupported() ? "available"
+						: "unavailable (platform thread fallback)");
+
+		for (int round = 0; round < rounds; round++) {
+			CancellableThreadPoolExecutor pool = new CancellableThreadPoolExecutor(
+					POOL_CORE_THREADS, POOL_MAX_THREADS, 10,
+					TimeUnit.MILLISECONDS,
+					new PriorityBlockingQueue<Runnable>(), null);
+			report("pool", run(pool, tasks, blockMillis));
+			pool.shutdown();
+
+			VirtualThreadTaskExecutor virtual = new VirtualThreadTaskExecutor(
+					null);
+			report("virtual", run(virtual, tasks, blockMillis));
+			virtual.shutdown();
+		}
+	}
+
+	private static Result run(IRequestTaskExecutor executor, int tasks,
+			int blockMillis) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(tasks);
+		final long[] latencies = new long[tasks];
+		final AtomicInteger finished = new AtomicInteger();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < tasks; i++) {
+			final long submitted = System.nanoTime();
+			BlockingTask task = new BlockingTask(blockMillis);
+			task.registerCompletionListener(new IRequestTaskCompletionListener() {
+				@Override
+				public void taskComplete(IRequestTask completed) {
+					latencies[finished.getAndIncrement()] = System.nanoTime()
+							- submitted;
+					done.countDown();
+				}
+			});
+			executor.submit(task);
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		return new Result(tasks, elapsed, latencies);
+	}
+
+	private static void report(String name, Result result) {
+		System.out.printf(
+				"%-8s %8.0f tasks/s   p50 %7.2f ms   p99 %7.2f ms%n",
+				name,
+				result.tasks / (result.elapsedNanos / 1e9),
+				result.percentile(0.50) / 1e6, result.percentile(0.99) / 1e6);
+	}
+
+	private static class Result {
+		int tasks;
+		long elapsedNanos;
+		long[] sortedLatencies;
+
+		Result(int tasks, long elapsedNanos, long[] sortedLatencies) {
+			this.tasks = tasks;
+			this.elapsedNanos = elapsedNanos;
+			this.sortedLatencies = sortedLatencies;
+		}
+
+		long percentile(double p) {
+			int index = (int) Math.ceil(p * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, index)];
+		}
+	}
+
+	private static class BlockingTask extends RequestTaskBase {
+		private int blockMillis;
+
+		BlockingTask(int blockMillis) {
+			super(null);
+			this.blockMillis = blockMillis;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Thread.sleep(blockMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			completed = true;
+			super.run();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package configuration;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A route match with parameters in it, such as
+ * <code>/rhitter/users/{id}/snippets/</code>. Like any route match it is a
+ * prefix of the paths it matches; each parameter stands for one whole,
+ * non-empty path segment, and captures it.
+ *
+ * Compiled once into the literal text around the parameters. Since a
+ * parameter always runs to the next '/', matching is a single pass over the
+ * path that never has to back up.
+ */
+public final class PathTemplate {
+	private static final char OPEN = '{';
+	private static final char CLOSE = '}';
+
+	private final String template;
+	// One more literal than there are parameters, any of them may be empty
+	private final String[] literals;
+	private final String[] names;
+
+	private PathTemplate(String template, String[] literals, String[] names) {
+		this.template = template;
+		this.literals = literals;
+		this.names = names;
+	}
+
+	/**
+	 * @param routeMatch
+	 * @return the compiled template, null if the route match has no
+	 *         parameters
+	 * @throws IllegalArgumentException
+	 *             if a parameter isn't a whole path segment, or has no name
+	 */
+	public static PathTemplate compile(String routeMatch) {
+		if (routeMatch == null || routeMatch.indexOf(OPEN) < 0) {
+			return null;
+		}
+
+		List<String> literals = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		int position = 0;
+		while (true) {
+			int open = routeMatch.indexOf(OPEN, position);
+			if (open < 0) {
+				literals.add(routeMatch.substring(position));
+				break;
+			}
+			int close = routeMatch.indexOf(CLOSE, open);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed parameter in "
+						+ routeMatch);
+			}
+			String name = routeMatch.substring(open + 1, close).trim();
+			boolean wholeSegment = open > 0
+					&& routeMatch.charAt(open - 1) == '/'
+					&& (close + 1 == routeMatch.length() || routeMatch
+							.charAt(close + 1) == '/');
+			if (name.isEmpty() || !wholeSegment || names.contains(name)) {
+				throw new IllegalArgumentException("Parameter {" + name
+						+ "} in " + routeMatch
+						+ " must be a whole path segment with a unique name");
+			}
+			literals.add(routeMatch.substring(position, open));
+			names.add(name);
+			position = close + 1;
+		}
+
+		return new PathTemplate(routeMatch,
+				literals.toArray(new String[literals.size()]),
+				names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * @return the template as configured
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return the text before the first parameter
+	 */
+	public String getLiteralPrefix() {
+		return literals[0];
+	}
+
+	public List<String> getParameterNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * @param path
+	 * @param from
+	 *            where the literal prefix ends in the path; the prefix itself
+	 *            isn't checked again
+	 * @return where the match ends in the path, -1 if it doesn't match
+	 */
+	public int match(String path, int from) {
+		return walk(path, from, null);
+	}
+
+	/**
+	 * @param path
+	 * @return the segments the parameters stand for in the path,
+	 *         percent-decoded, by name. Null if the path doesn't match.
+	 */
+	public Map<String, String> extract(String path) {
+		if (!path.startsWith(literals[0])) {
+			return null;
+		}
+		Map<String, String> parameters = new HashMap<String, String>();
+		return walk(path, literals[0].length(), parameters) < 0 ? null
+				: parameters;
+	}
+
+	private int walk(String path, int from, Map<String, String> parameters) {
+		int position = from;
+		for (int i = 0; i < names.length; i++) {
+			int end = path.indexOf('/', position);
+			if (end < 0) {
+				end = path.length();
+			}
+			if (end == position) {
+				return -1;
+			}
+			if (parameters != null) {
+				parameters.put(names[i], decode(path.substring(position, end)));
+			}
+			position = end;
+
+			String literal = literals[i + 1];
+			if (!path.startsWith(literal, position)) {
+				return -1;
+			}
+			position += literal.length();
+		}
+		return position;
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+	private static String decode(String segment) {
+		if (segment.indexOf('%') < 0) {
+			return segment;
+		}
+		try {
+			// A '+' in a path is just a '+'
+			return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return segment;
+		} catch (IllegalArgumentException e) {
+			// Malformed escapes are left as they came
+			return segment;
+		}
+	}
+}
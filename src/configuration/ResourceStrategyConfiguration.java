@@ -30,8 +30,8 @@ package configuration;
 
 import interfaces.IResourceRoute;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Designed to receive a parsed configuration for all possible ResourceStrategy
@@ -44,43 +44,75 @@ import java.util.List;
  * @author Chandan R. Rupakheti (rupakhcr@clarkson.edu)
  */
 public class ResourceStrategyConfiguration {
-	protected List<ResourceStrategyRoute> activeRoutes;
+	// Swapped whole, never changed in place, so lookups need no lock
+	private final AtomicReference<RoutingTable> routingTable;
 
 	public ResourceStrategyConfiguration() {
-		activeRoutes = new ArrayList<ResourceStrategyRoute>();
+		routingTable = new AtomicReference<RoutingTable>(RoutingTable.EMPTY);
 	}
 
 	public ResourceStrategyConfiguration(List<ResourceStrategyRoute> routes) {
-		activeRoutes = routes;
+		routingTable = new AtomicReference<RoutingTable>(
+				RoutingTable.EMPTY.withRoutes(routes));
 	}
 
 	protected void setNewRoutes(List<ResourceStrategyRoute> routes) {
-		activeRoutes = routes;
+		while (true) {
+			RoutingTable current = routingTable.get();
+			if (routingTable.compareAndSet(current, current.withRoutes(routes))) {
+				return;
+			}
+		}
 	}
 
 	public void addRoute(ResourceStrategyRoute route) {
-		activeRoutes.add(route);
+		while (true) {
+			RoutingTable current = routingTable.get();
+			if (routingTable.compareAndSet(current, current.withRoute(route))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the routes as they are now. Hold on to it to route a request
+	 *         the same way throughout, whatever reloads happen meanwhile.
+	 */
+	public RoutingTable getRoutingTable() {
+		return routingTable.get();
+	}
+
+	/**
+	 * @param path
+	 * @return the route with the longest match for the path whatever its
+	 *         methods, None if there is no route for it at all
+	 */
+	public IResourceRoute findRouteForResourcePath(String path) {
+		return routingTable.get().find(path);
 	}
 
+	/**
+	 * @param path
+	 * @param method
+	 * @return the route with the longest match for the path that takes the
+	 *         method, None if there is none
+	 */
 	public IResourceRoute findRouteForResourcePath(String path,
 			String method) {
-		if (path == null) {
-			return ResourceStrategyRoute.INVALID;
-		}
-
-		try {
-			for (IResourceRoute resourceStrategyRoute : activeRoutes) {
-				String routeRegex = resourceStrategyRoute.getRouteMatch();
-				if (routeRegex != null && path.startsWith(routeRegex)) {
-					if (resourceStrategyRoute.respondsToMethod(method)) {
-						return resourceStrategyRoute;
-					}
-				}
-			}
-		} catch (Exception e) {
-			// Pass
-		}
+		return routingTable.get().find(path, method);
+	}
 
-		return ResourceStrategyRoute.None;
+	/**
+	 * @param host
+	 *            value of the request's Host header, null if it has none
+	 * @param path
+	 * @param method
+	 *            null for any
+	 * @return the route for the host with the longest match for the path
+	 *         that takes the method, None if there is none
+	 */
+	public IResourceRoute findRouteForResourcePath(String host, String path,
+			String method) {
+		return routingTable.get().find(host, path, method);
 	}
 }
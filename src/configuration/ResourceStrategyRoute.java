@@ -29,6 +29,7 @@
 package configuration;
 
 import interfaces.IResourceRoute;
+import interfaces.IResourceStrategy;
 
 import java.util.List;
 import java.util.Map;
@@ -47,16 +48,83 @@ public class ResourceStrategyRoute implements IResourceRoute {
 	public static final IResourceRoute INVALID = new ResourceStrategyRouteInvalid();
 
 	private Class<?> strategyClass;
+	private IResourceStrategy strategy;
 	private String routeMatch;
+	private PathTemplate pathTemplate;
 	private List<String> methods;
 	private Map<String, String> strategyOptions;
+	private List<String> hosts;
 
 	public ResourceStrategyRoute(Class<?> strategy, String route,
 			List<String> methods, Map<String, String> options) {
-		strategyClass = strategy;
+		this(strategy, null, route, methods, options);
+	}
+
+	/**
+	 * @param strategyClass
+	 * @param strategy
+	 *            instance of strategyClass that serves the route
+	 * @param route
+	 *            may have parameters, see PathTemplate
+	 * @param methods
+	 * @param options
+	 * @throws IllegalArgumentException
+	 *             if the route's parameters aren't valid
+	 */
+	public ResourceStrategyRoute(Class<?> strategyClass,
+			IResourceStrategy strategy, String route, List<String> methods,
+			Map<String, String> options) {
+		this(strategyClass, strategy, route, methods, options, null);
+	}
+
+	/**
+	 * @param strategyClass
+	 * @param strategy
+	 *            instance of strategyClass that serves the route
+	 * @param route
+	 *            may have parameters, see PathTemplate
+	 * @param methods
+	 * @param options
+	 * @param hosts
+	 *            the route serves, each a host name or *.domain for any host
+	 *            under the domain; null or empty for every host
+	 * @throws IllegalArgumentException
+	 *             if the route's parameters aren't valid
+	 */
+	public ResourceStrategyRoute(Class<?> strategyClass,
+			IResourceStrategy strategy, String route, List<String> methods,
+			Map<String, String> options, List<String> hosts) {
+		this.strategyClass = strategyClass;
+		this.strategy = strategy;
 		routeMatch = route;
+		pathTemplate = PathTemplate.compile(route);
 		this.methods = methods;
 		strategyOptions = options;
+		this.hosts = hosts;
+	}
+
+	/**
+	 * @return the hosts the route serves, null or empty for every host
+	 */
+	public List<String> getHosts() {
+		return hosts;
+	}
+
+	/**
+	 * Routes on different hosts may share a match, so state kept per route
+	 * (its bulkhead, its rate limit) is known by this instead.
+	 * 
+	 * @param route
+	 * @return the route's match, after its hosts if it has any
+	 */
+	public static String scopeOf(IResourceRoute route) {
+		if (route instanceof ResourceStrategyRoute) {
+			List<String> hosts = ((ResourceStrategyRoute) route).getHosts();
+			if (hosts != null && !hosts.isEmpty()) {
+				return hosts + route.getRouteMatch();
+			}
+		}
+		return route.getRouteMatch();
 	}
 
 	/* (non-Javadoc)
@@ -67,6 +135,14 @@ public class ResourceStrategyRoute implements IResourceRoute {
 		return strategyClass;
 	}
 
+	/* (non-Javadoc)
+	 * @see interfaces.IResourceRoute#getStrategy()
+	 */
+	@Override
+	public IResourceStrategy getStrategy() {
+		return strategy;
+	}
+
 	/* (non-Javadoc)
 	 * @see configuration.IResourceRoute#getRouteMatch()
 	 */
@@ -75,11 +151,22 @@ public class ResourceStrategyRoute implements IResourceRoute {
 		return routeMatch;
 	}
 
+	/* (non-Javadoc)
+	 * @see interfaces.IResourceRoute#getPathTemplate()
+	 */
+	@Override
+	public PathTemplate getPathTemplate() {
+		return pathTemplate;
+	}
+
 	/* (non-Javadoc)
 	 * @see configuration.IResourceRoute#getStrategyOption(java.lang.String)
 	 */
 	@Override
 	public String getStrategyOption(String option) {
+		if (strategyOptions == null) {
+			return null;
+		}
 		return strategyOptions.get(option);
 	}
 
@@ -1,8 +1,10 @@
 package configuration;
 
+import interfaces.IResourceStrategy;
 import strategy.BadRequestStrategy;
 
 public class ResourceStrategyRouteInvalid extends ResourceStrategyRoute {
+	private static final IResourceStrategy STRATEGY = new BadRequestStrategy();
 
 	public ResourceStrategyRouteInvalid() {
 		super(null, null, null, null);
@@ -12,4 +14,9 @@ public class ResourceStrategyRouteInvalid extends ResourceStrategyRoute {
 	public Class<?> getStrategyClass() {
 		return BadRequestStrategy.class;
 	}
+
+	@Override
+	public IResourceStrategy getStrategy() {
+		return STRATEGY;
+	}
 }
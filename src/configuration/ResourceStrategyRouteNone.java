@@ -28,6 +28,7 @@
 
 package configuration;
 
+import interfaces.IResourceStrategy;
 import strategy.NoRouteStrategy;
 
 /**
@@ -35,6 +36,7 @@ import strategy.NoRouteStrategy;
  * @author Chandan R. Rupakheti (rupakhcr@clarkson.edu)
  */
 public class ResourceStrategyRouteNone extends ResourceStrategyRoute {
+	private static final IResourceStrategy STRATEGY = new NoRouteStrategy();
 
 	public ResourceStrategyRouteNone() {
 		super(null, null, null, null);
@@ -55,4 +57,9 @@ public class ResourceStrategyRouteNone extends ResourceStrategyRoute {
 		return NoRouteStrategy.class;
 	}
 
+	@Override
+	public IResourceStrategy getStrategy() {
+		return STRATEGY;
+	}
+
 }
@@ -40,6 +40,46 @@ public class ResourceStrategyRouteOptions {
 	public static final String AllowPersistentConnections = "AllowPersistentConnections";
 	public static final String ServeDirectories = "AllowServeDirectories";
 
+	/**
+	 * Requests per second a single client address may make to the route
+	 * before being answered with 429 Too Many Requests.
+	 */
+	public static final String RateLimit = "RateLimit";
+
+	/**
+	 * Bytes of content a single part of a multipart/form-data body may have.
+	 */
+	public static final String MaxPartSize = "MaxPartSize";
+
+	/**
+	 * Bytes of content all parts of a multipart/form-data body may have
+	 * together.
+	 */
+	public static final String MaxMultipartSize = "MaxMultipartSize";
+
+	/**
+	 * The route's own request size limits, in place of the server's options
+	 * of the same names.
+	 */
+	public static final String MaxHeaderSize = ServerOptions.MaxHeaderSize;
+	public static final String MaxHeaderCount = ServerOptions.MaxHeaderCount;
+	public static final String MaxBodySize = ServerOptions.MaxBodySize;
+	public static final String MaxInflatedBodySize = ServerOptions.MaxInflatedBodySize;
+
+	/**
+	 * Threads the route's request tasks run on, apart from every other
+	 * route's, so a slow route can't hold up the rest. Without it the route
+	 * shares the server's TaskThreads.
+	 */
+	public static final String MaxThreads = "MaxThreads";
+
+	/**
+	 * Request tasks that may wait for the route's own threads before further
+	 * requests for it are answered with 503 Service Unavailable; the
+	 * server's option of the same name if the route doesn't set it.
+	 */
+	public static final String MaxQueuedTasks = ServerOptions.MaxQueuedTasks;
+
 	public static final String PluginDatabaseServerName = "PluginDatabaseServerName";
 	public static final String PluginDatabaseServerPort = "PluginDatabaseServerPort";
 	public static final String PluginDatabaseName = "PluginDatabaseName";
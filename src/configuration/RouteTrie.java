@@ -0,0 +1,265 @@
+package configuration;
+
+import interfaces.IResourceRoute;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The routes of a configuration compiled into a prefix tree on their route
+ * matches, so finding the route for a path takes one walk down the path
+ * however many routes there are. Where several routes are prefixes of the
+ * path the longest one wins; routes with the same prefix are tried in the
+ * order they were configured.
+ *
+ * A route with parameters is filed under the text before its first
+ * parameter, and its PathTemplate matches the rest of the path from there.
+ * Where it matches as much of the path as a route without parameters, the
+ * one without wins.
+ *
+ * Each node keeps the methods its routes take as a bit mask, so a node whose
+ * routes can't take the request's method is passed over without looking at
+ * them. Methods outside the standard few share one bit and are checked by
+ * name.
+ *
+ * Never changes once built; a new configuration builds a new one.
+ */
+public final class RouteTrie {
+	private static final String[] KNOWN_METHODS = { "GET", "HEAD", "POST",
+			"PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT" };
+	private static final long OTHER_METHOD = 1L << KNOWN_METHODS.length;
+	private static final long ANY_METHOD = -1L;
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private static final IResourceRoute[] NO_ROUTES = new IResourceRoute[0];
+
+	private static final class Node {
+		// Characters on the edge from the parent
+		String label;
+		char[] firstChars = new char[0];
+		Node[] children = NO_CHILDREN;
+		// Routes whose match ends here, in configuration order
+		IResourceRoute[] routes = NO_ROUTES;
+		PathTemplate[] templates = new PathTemplate[0];
+		long[] routeMethods = new long[0];
+		long methods = 0;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		Node child(char first) {
+			int index = Arrays.binarySearch(firstChars, first);
+			return index >= 0 ? children[index] : null;
+		}
+
+		void addChild(Node child) {
+			char first = child.label.charAt(0);
+			int index = -Arrays.binarySearch(firstChars, first) - 1;
+			char[] chars = new char[firstChars.length + 1];
+			Node[] nodes = new Node[children.length + 1];
+			System.arraycopy(firstChars, 0, chars, 0, index);
+			System.arraycopy(children, 0, nodes, 0, index);
+			chars[index] = first;
+			nodes[index] = child;
+			System.arraycopy(firstChars, index, chars, index + 1,
+					firstChars.length - index);
+			System.arraycopy(children, index, nodes, index + 1, children.length
+					- index);
+			firstChars = chars;
+			children = nodes;
+		}
+
+		void replaceChild(Node child) {
+			children[Arrays.binarySearch(firstChars, child.label.charAt(0))] = child;
+		}
+
+		void addRoute(IResourceRoute route, long mask) {
+			routes = Arrays.copyOf(routes, routes.length + 1);
+			routes[routes.length - 1] = route;
+			templates = Arrays.copyOf(templates, templates.length + 1);
+			templates[templates.length - 1] = route.getPathTemplate();
+			routeMethods = Arrays.copyOf(routeMethods, routeMethods.length + 1);
+			routeMethods[routeMethods.length - 1] = mask;
+			methods |= mask;
+		}
+	}
+
+	private final Node root;
+	private final int size;
+
+	/**
+	 * @param routes
+	 *            in configuration order; routes without a route match are
+	 *            left out
+	 */
+	public RouteTrie(List<? extends IResourceRoute> routes) {
+		Node top = new Node("");
+		int count = 0;
+		for (IResourceRoute route : routes) {
+			String match = route.getRouteMatch();
+			if (match == null) {
+				continue;
+			}
+			PathTemplate template = route.getPathTemplate();
+			insert(top, template != null ? template.getLiteralPrefix() : match,
+					route, methodsOf(route));
+			count++;
+		}
+		root = top;
+		size = count;
+	}
+
+	/**
+	 * @return number of routes in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param path
+	 * @return the route with the longest match for the path whatever its
+	 *         methods, None if there is none
+	 */
+	public IResourceRoute find(String path) {
+		return find(path, null);
+	}
+
+	/**
+	 * @param path
+	 * @param method
+	 *            matched without regard to case, null for any
+	 * @return the route with the longest match for the path that takes the
+	 *         method, None if there is none
+	 */
+	public IResourceRoute find(String path, String method) {
+		if (path == null) {
+			return ResourceStrategyRoute.INVALID;
+		}
+		long bit = method == null ? ANY_METHOD : methodBit(method);
+
+		Match found = new Match();
+		Node node = root;
+		int position = 0;
+		while (true) {
+			if ((node.methods & bit) != 0) {
+				longestTaking(node, path, position, bit, method, found);
+			}
+			if (position == path.length()) {
+				return found.route;
+			}
+			Node next = node.child(path.charAt(position));
+			if (next == null
+					|| !path.regionMatches(position, next.label, 0,
+							next.label.length())) {
+				return found.route;
+			}
+			position += next.label.length();
+			node = next;
+		}
+	}
+
+	/**
+	 * The best route found so far, and how much of the path it matched.
+	 */
+	private static final class Match {
+		IResourceRoute route = ResourceStrategyRoute.None;
+		int length = -1;
+		boolean templated = false;
+	}
+
+	/**
+	 * Replaces found with the first of the node's routes taking the method
+	 * that matches more of the path.
+	 */
+	private static void longestTaking(Node node, String path, int position,
+			long bit, String method, Match found) {
+		for (int i = 0; i < node.routes.length; i++) {
+			if ((node.routeMethods[i] & bit) == 0) {
+				continue;
+			}
+			if (bit == OTHER_METHOD && !node.routes[i].respondsToMethod(method)) {
+				continue;
+			}
+			PathTemplate template = node.templates[i];
+			int length = template == null ? position : template.match(path,
+					position);
+			if (length < 0) {
+				continue;
+			}
+			if (length > found.length
+					|| (length == found.length && found.templated && template == null)) {
+				found.route = node.routes[i];
+				found.length = length;
+				found.templated = template != null;
+			}
+		}
+	}
+
+	private static void insert(Node root, String match, IResourceRoute route,
+			long mask) {
+		Node node = root;
+		int position = 0;
+		while (position < match.length()) {
+			Node child = node.child(match.charAt(position));
+			if (child == null) {
+				child = new Node(match.substring(position));
+				node.addChild(child);
+				node = child;
+				break;
+			}
+
+			int common = 1;
+			int most = Math.min(child.label.length(), match.length() - position);
+			while (common < most
+					&& child.label.charAt(common) == match.charAt(position
+							+ common)) {
+				common++;
+			}
+			if (common < child.label.length()) {
+				// The new match leaves the edge part way along - split it
+				Node split = new Node(child.label.substring(0, common));
+				child.label = child.label.substring(common);
+				split.addChild(child);
+				node.replaceChild(split);
+				child = split;
+			}
+			node = child;
+			position += common;
+		}
+		node.addRoute(route, mask);
+	}
+
+	private static long methodsOf(IResourceRoute route) {
+		List<String> methods = route.getMethods();
+		if (methods == null) {
+			return 0;
+		}
+		long mask = 0;
+		for (String method : methods) {
+			mask |= methodBit(method);
+		}
+		return mask;
+	}
+
+	/**
+	 * @param method
+	 * @return the method's bit, OTHER_METHOD if it isn't one of the known
+	 *         ones
+	 */
+	static long methodBit(String method) {
+		// Requests carry the same String instances, so this usually does it
+		for (int i = 0; i < KNOWN_METHODS.length; i++) {
+			if (KNOWN_METHODS[i] == method) {
+				return 1L << i;
+			}
+		}
+		for (int i = 0; i < KNOWN_METHODS.length; i++) {
+			if (KNOWN_METHODS[i].equalsIgnoreCase(method)) {
+				return 1L << i;
+			}
+		}
+		return OTHER_METHOD;
+	}
+}
@@ -0,0 +1,238 @@
+package configuration;
+
+import interfaces.IResourceRoute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One version of the server's routes, indexed for lookup. Never changes once
+ * made: a reload makes a new table with the next version number, and a
+ * request that already holds this one finishes routing against it.
+ *
+ * Routes scoped to hosts are indexed once per host, each host's RouteTrie
+ * holding its own routes ahead of those of any *.domain it falls under and
+ * those for every host. A request's Host picks its index with one hash
+ * lookup, so other hosts' routes are never walked; a host with no routes of
+ * its own tries the domains it is under, nearest first, and then the routes
+ * for every host.
+ */
+public final class RoutingTable {
+	public static final RoutingTable EMPTY = new RoutingTable(0,
+			Collections.<ResourceStrategyRoute> emptyList());
+
+	private final long version;
+	private final List<ResourceStrategyRoute> routes;
+	// Routes for every host
+	private final RouteTrie index;
+	// By host name, and by the domain after "*."
+	private final Map<String, RouteTrie> hostIndexes;
+	private final Map<String, RouteTrie> domainIndexes;
+
+	/**
+	 * @param version
+	 * @param routes
+	 *            copied, so later changes to the list don't show up here
+	 */
+	public RoutingTable(long version, List<ResourceStrategyRoute> routes) {
+		this.version = version;
+		this.routes = Collections
+				.unmodifiableList(new ArrayList<ResourceStrategyRoute>(routes));
+
+		List<ResourceStrategyRoute> everyHost = new ArrayList<ResourceStrategyRoute>();
+		Map<String, List<ResourceStrategyRoute>> byHost = new LinkedHashMap<String, List<ResourceStrategyRoute>>();
+		Map<String, List<ResourceStrategyRoute>> byDomain = new LinkedHashMap<String, List<ResourceStrategyRoute>>();
+		for (ResourceStrategyRoute route : this.routes) {
+			List<String> hosts = route.getHosts();
+			if (hosts == null || hosts.isEmpty()) {
+				everyHost.add(route);
+				continue;
+			}
+			for (String host : hosts) {
+				String name = normalizeHost(host);
+				if (name == null || name.isEmpty()) {
+					continue;
+				}
+				if (name.startsWith(WILDCARD)) {
+					add(byDomain, name.substring(WILDCARD.length()), route);
+				} else {
+					add(byHost, name, route);
+				}
+			}
+		}
+
+		index = new RouteTrie(everyHost);
+		domainIndexes = index(byDomain, byDomain, everyHost);
+		hostIndexes = index(byHost, byDomain, everyHost);
+	}
+
+	private static final String WILDCARD = "*.";
+
+	private static void add(Map<String, List<ResourceStrategyRoute>> scoped,
+			String name, ResourceStrategyRoute route) {
+		List<ResourceStrategyRoute> routes = scoped.get(name);
+		if (routes == null) {
+			routes = new ArrayList<ResourceStrategyRoute>();
+			scoped.put(name, routes);
+		}
+		if (!routes.contains(route)) {
+			routes.add(route);
+		}
+	}
+
+	/**
+	 * @param scoped
+	 *            routes by host or domain name
+	 * @param byDomain
+	 *            routes by domain name
+	 * @param everyHost
+	 * @return an index per name of its routes, then those of the domains
+	 *         over it, nearest first, then those for every host. Only
+	 *         domains strictly over a name count, so *.example.com doesn't
+	 *         cover the host example.com.
+	 */
+	private static Map<String, RouteTrie> index(
+			Map<String, List<ResourceStrategyRoute>> scoped,
+			Map<String, List<ResourceStrategyRoute>> byDomain,
+			List<ResourceStrategyRoute> everyHost) {
+		Map<String, RouteTrie> indexes = new HashMap<String, RouteTrie>();
+		for (Map.Entry<String, List<ResourceStrategyRoute>> entry : scoped
+				.entrySet()) {
+			List<ResourceStrategyRoute> routes = new ArrayList<ResourceStrategyRoute>(
+					entry.getValue());
+			String name = entry.getKey();
+			for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf(
+					'.', dot + 1)) {
+				List<ResourceStrategyRoute> over = byDomain.get(name
+						.substring(dot + 1));
+				if (over != null) {
+					routes.addAll(over);
+				}
+			}
+			routes.addAll(everyHost);
+			indexes.put(name, new RouteTrie(routes));
+		}
+		return indexes;
+	}
+
+	/**
+	 * @param newRoutes
+	 * @return a table with the routes in place of these, one version on
+	 */
+	public RoutingTable withRoutes(List<ResourceStrategyRoute> newRoutes) {
+		return new RoutingTable(version + 1, newRoutes);
+	}
+
+	/**
+	 * @param route
+	 * @return a table with the route added after these, one version on
+	 */
+	public RoutingTable withRoute(ResourceStrategyRoute route) {
+		List<ResourceStrategyRoute> added = new ArrayList<ResourceStrategyRoute>(
+				routes);
+		added.add(route);
+		return new RoutingTable(version + 1, added);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the routes in configuration order, unmodifiable
+	 */
+	public List<ResourceStrategyRoute> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * @see RouteTrie#find(String)
+	 */
+	public IResourceRoute find(String path) {
+		return index.find(path);
+	}
+
+	/**
+	 * @see RouteTrie#find(String, String)
+	 */
+	public IResourceRoute find(String path, String method) {
+		return index.find(path, method);
+	}
+
+	/**
+	 * @param host
+	 *            value of the request's Host header, null if it has none
+	 * @param path
+	 * @param method
+	 *            matched without regard to case, null for any
+	 * @return the route for the host with the longest match for the path
+	 *         that takes the method, None if there is none
+	 */
+	public IResourceRoute find(String host, String path, String method) {
+		return indexFor(host).find(path, method);
+	}
+
+	/**
+	 * @return true if some routes only serve some hosts, so the Host header
+	 *         matters to finding a request's route
+	 */
+	public boolean isHostScoped() {
+		return !hostIndexes.isEmpty() || !domainIndexes.isEmpty();
+	}
+
+	private RouteTrie indexFor(String host) {
+		if (host == null || !isHostScoped()) {
+			return index;
+		}
+		String name = normalizeHost(host);
+		RouteTrie found = hostIndexes.get(name);
+		if (found != null) {
+			return found;
+		}
+		if (!domainIndexes.isEmpty()) {
+			for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf(
+					'.', dot + 1)) {
+				found = domainIndexes.get(name.substring(dot + 1));
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @param host
+	 *            as in a Host header, or as configured for a route
+	 * @return the host in lower case without its port or a trailing dot,
+	 *         null if it is null
+	 */
+	public static String normalizeHost(String host) {
+		if (host == null) {
+			return null;
+		}
+		String name = host.trim();
+		int end = name.length();
+		if (name.startsWith("[")) {
+			// An IPv6 literal, which has colons of its own
+			int close = name.indexOf(']');
+			if (close > 0) {
+				end = close + 1;
+			}
+		} else {
+			int colon = name.lastIndexOf(':');
+			if (colon >= 0) {
+				end = colon;
+			}
+		}
+		if (end > 0 && name.charAt(end - 1) == '.') {
+			end--;
+		}
+		return name.substring(0, end).toLowerCase(Locale.ENGLISH);
+	}
+}
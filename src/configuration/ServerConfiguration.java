@@ -79,6 +79,65 @@ public class ServerConfiguration implements IPluginAddedListener,
 		configuration.put(key, value);
 	}
 
+	public String getConfigurationOption(String key) {
+		return configuration.get(key);
+	}
+
+	/**
+	 * Reads a numeric server option, falling back to the given default when
+	 * the option is missing or is not a number.
+	 * 
+	 * @param key
+	 * @param defaultValue
+	 * @return
+	 */
+	public int getIntegerConfigurationOption(String key, int defaultValue) {
+		String value = configuration.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException badNumber) {
+			Logger.getGlobal().log(
+					Level.WARNING,
+					String.format("Server option %s=%s is not a number",
+							key, value));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Loads the server wide options (see {@link ServerOptions}) from an
+	 * XStream serialized map. Options already set are overwritten by the ones
+	 * in the file.
+	 * 
+	 * @param optionsFile
+	 * @throws InvalidConfigurationException
+	 */
+	public void parseServerOptions(File optionsFile)
+			throws InvalidConfigurationException {
+		if (!optionsFile.exists() || !optionsFile.isFile()) {
+			throw new InvalidConfigurationException(
+					"Attempt to request server options parse with nonfile not allowed.");
+		}
+
+		XStream parser = new XStream();
+		parser.alias("server", HashMap.class);
+
+		try {
+			@SuppressWarnings("unchecked")
+			Map<String, String> options = (Map<String, String>) parser
+					.fromXML(optionsFile);
+			configuration.putAll(options);
+		} catch (Exception exp) {
+			throw new InvalidConfigurationException(
+					"Parsing server options failed - appears to be invalid file.",
+					exp);
+		}
+	}
+
 	/**
 	 * @param managedResourceConfiguration
 	 *            the managedResourceConfiguration to set
@@ -169,6 +228,19 @@ public class ServerConfiguration implements IPluginAddedListener,
 						continue;
 					}
 
+					IResourceStrategy strategy = null;
+					try {
+						// Made now, so a request never waits on reflection
+						strategy = (IResourceStrategy) servClass
+								.getConstructor().newInstance();
+					} catch (Exception e) {
+						// The route stays, answering with an internal error
+						warnings.add(new ConfigurationWarning(
+								String.format(
+										"Failed to create an instance of servlet class %s for plugin %s: %s",
+										servClass.getName(), pluginName, e)));
+					}
+
 					String servletRouteMatcher = formatServletRoute(
 							serverRoute.getPath(), servlet.getRelativeUrl());
 
@@ -178,9 +250,19 @@ public class ServerConfiguration implements IPluginAddedListener,
 					// Will override server defaults with route specific
 					options.putAll(serverRoute.getOptions());
 
-					ResourceStrategyRoute servletRoute = new ResourceStrategyRoute(
-							servClass, servletRouteMatcher,
-							servlet.getExpectedMethods(), options);
+					ResourceStrategyRoute servletRoute;
+					try {
+						servletRoute = new ResourceStrategyRoute(servClass,
+								strategy, servletRouteMatcher,
+								servlet.getExpectedMethods(), options,
+								serverRoute.getHosts());
+					} catch (IllegalArgumentException badTemplate) {
+						warnings.add(new ConfigurationWarning(String.format(
+								"Invalid route %s for servlet class %s: %s",
+								servletRouteMatcher, servlet.getClassPath(),
+								badTemplate.getMessage())));
+						continue;
+					}
 					routes.add(servletRoute);
 
 				} catch (ClassNotFoundException e) {
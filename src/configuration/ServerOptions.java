@@ -0,0 +1,189 @@
+package configuration;
+
+/**
+ * Defines a collection of constants that represent keys in the server's own
+ * configuration (conf/server.xml). These are options that apply to the server
+ * as a whole rather than to a single ResourceStrategyRoute.
+ *
+ * The server's options are also the defaults for every route's options, so a
+ * route may override any of these that make sense per route.
+ */
+public class ServerOptions {
+
+	/**
+	 * Selects how accepted connections are read. One of
+	 * {@link #ThreadPerConnectionModel} or {@link #SelectorConnectionModel}.
+	 */
+	public static final String ConnectionModel = "ConnectionModel";
+	public static final String ThreadPerConnectionModel = "ThreadPerConnection";
+	public static final String SelectorConnectionModel = "Selector";
+
+	/**
+	 * Number of reactor threads used by the Selector connection model.
+	 * Defaults to the number of available processors.
+	 */
+	public static final String SelectorThreads = "SelectorThreads";
+
+	/**
+	 * Seconds an idle persistent connection is kept open waiting for the
+	 * client's next request. 0 turns persistent connections off.
+	 */
+	public static final String KeepAliveTimeout = "KeepAliveTimeout";
+
+	/**
+	 * Number of requests served on one persistent connection before the
+	 * server closes it.
+	 */
+	public static final String MaxKeepAliveRequests = "MaxKeepAliveRequests";
+
+	/**
+	 * Seconds a client has to send the request line and headers of a request,
+	 * counted from the first byte (or from accepting the connection). Guards
+	 * against clients that trickle a request in to hold a connection. 0 turns
+	 * the deadline off.
+	 */
+	public static final String HeaderTimeout = "HeaderTimeout";
+
+	/**
+	 * Seconds a client has to send a request's body once its headers are in.
+	 * 0 turns the deadline off.
+	 */
+	public static final String BodyTimeout = "BodyTimeout";
+
+	/**
+	 * Seconds a response write may go without progress because the client is
+	 * not reading, before the connection is closed. 0 turns the deadline off.
+	 */
+	public static final String WriteTimeout = "WriteTimeout";
+
+	/**
+	 * Selects what ConnectionHandlers and request tasks run on. One of
+	 * {@link #PlatformThreadModel} (a small thread pool for tasks) or
+	 * {@link #VirtualThreadModel} (one virtual thread each). Virtual threads
+	 * need JDK 21; older JDKs fall back to platform threads.
+	 */
+	public static final String ThreadModel = "ThreadModel";
+	public static final String PlatformThreadModel = "Platform";
+	public static final String VirtualThreadModel = "Virtual";
+
+	/**
+	 * Threads kept for request tasks of routes without a MaxThreads of their
+	 * own, and the most there may be, with the platform thread model.
+	 */
+	public static final String TaskThreads = "TaskThreads";
+	public static final String MaxTaskThreads = "MaxTaskThreads";
+
+	/**
+	 * Number of threads accepting connections. With more than one, each gets
+	 * its own listening socket bound with SO_REUSEPORT where the JDK and OS
+	 * support it, otherwise they share a single listener.
+	 */
+	public static final String AcceptorThreads = "AcceptorThreads";
+
+	/**
+	 * "false" makes multiple acceptors share one listening socket even where
+	 * SO_REUSEPORT is available.
+	 */
+	public static final String ReusePort = "ReusePort";
+
+	/**
+	 * Number of client connections open at once. 0 or less is unlimited.
+	 */
+	public static final String MaxConnections = "MaxConnections";
+
+	/**
+	 * Number of connections a single client address may have open at once.
+	 * 0 or less is unlimited.
+	 */
+	public static final String MaxConnectionsPerAddress = "MaxConnectionsPerAddress";
+
+	/**
+	 * Number of connections the clients of a single subnet may have open at
+	 * once. 0 or less is unlimited.
+	 */
+	public static final String MaxConnectionsPerSubnet = "MaxConnectionsPerSubnet";
+
+	/**
+	 * Leading bits of a client's address that make up its subnet, for
+	 * {@link #MaxConnectionsPerSubnet}.
+	 */
+	public static final String IPv4SubnetPrefix = "IPv4SubnetPrefix";
+	public static final String IPv6SubnetPrefix = "IPv6SubnetPrefix";
+
+	/**
+	 * Number of request tasks waiting for a thread before further requests
+	 * are answered with 503 Service Unavailable. 0 or less is unlimited.
+	 */
+	public static final String MaxQueuedTasks = "MaxQueuedTasks";
+
+	/**
+	 * What happens to a new connection while the server is at one of its
+	 * limits. {@link #RejectOverloadPolicy} answers it right away with 503
+	 * Service Unavailable; {@link #PauseOverloadPolicy} stops accepting until
+	 * there is room again, leaving clients in the kernel's accept backlog.
+	 */
+	public static final String OverloadPolicy = "OverloadPolicy";
+	public static final String RejectOverloadPolicy = "Reject";
+	public static final String PauseOverloadPolicy = "Pause";
+
+	/**
+	 * Seconds a client is told to wait (Retry-After) when turned away with 503
+	 * Service Unavailable.
+	 */
+	public static final String RetryAfter = "RetryAfter";
+
+	/**
+	 * Seconds a stopping server keeps writing the responses it still owes
+	 * before closing the remaining connections anyway.
+	 */
+	public static final String ShutdownGracePeriod = "ShutdownGracePeriod";
+
+	/**
+	 * Connections a single client address may open per second before it is
+	 * blacklisted. 0 or less is unlimited.
+	 */
+	public static final String ConnectionRateLimit = "ConnectionRateLimit";
+
+	/**
+	 * Seconds a client that goes over the ConnectionRateLimit stays
+	 * blacklisted. 0 or less blacklists it for good.
+	 */
+	public static final String BlacklistDuration = "BlacklistDuration";
+
+	/**
+	 * Bytes of a request body kept in memory. Larger bodies are written to a
+	 * temporary file as they arrive, which is deleted once the response is
+	 * written.
+	 */
+	public static final String BodySpillThreshold = "BodySpillThreshold";
+
+	/**
+	 * Bytes a request line and its headers may take up together. Larger
+	 * requests are answered with 431 Request Header Fields Too Large (414 URI
+	 * Too Long if the request line alone is too long). Routes can set their
+	 * own. 0 or less is unlimited.
+	 */
+	public static final String MaxHeaderSize = "MaxHeaderSize";
+
+	/**
+	 * Number of headers a request may have before it is answered with 431
+	 * Request Header Fields Too Large. Routes can set their own. 0 or less is
+	 * unlimited.
+	 */
+	public static final String MaxHeaderCount = "MaxHeaderCount";
+
+	/**
+	 * Bytes a request body may have before the request is answered with 413
+	 * Payload Too Large, checked against the Content-Length before any of the
+	 * body is read. Routes can set their own. 0 or less is unlimited.
+	 */
+	public static final String MaxBodySize = "MaxBodySize";
+
+	/**
+	 * Bytes a body sent with Content-Encoding gzip or deflate may inflate to
+	 * before the request is answered with 413 Payload Too Large. Routes can
+	 * set their own. 0 or less is unlimited.
+	 */
+	public static final String MaxInflatedBodySize = "MaxInflatedBodySize";
+
+}
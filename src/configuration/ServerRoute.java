@@ -28,6 +28,7 @@
 
 package configuration;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -38,6 +39,8 @@ public class ServerRoute {
 	protected String plugin;
 	protected String path;
 	protected Map<String, String> options;
+	// Host names, or *.domain for any host under it; null for every host
+	protected List<String> hosts;
 
 	/**
 	 * Default Ctor for Xstream
@@ -51,6 +54,12 @@ public class ServerRoute {
 		this.options = options;
 	}
 
+	public ServerRoute(String plugin, String path, Map<String, String> options,
+			List<String> hosts) {
+		this(plugin, path, options);
+		this.hosts = hosts;
+	}
+
 	/**
 	 * @return the plugin
 	 */
@@ -96,4 +105,19 @@ public class ServerRoute {
 		this.options = options;
 	}
 
+	/**
+	 * @return the hosts the route serves, null or empty for every host
+	 */
+	public List<String> getHosts() {
+		return hosts;
+	}
+
+	/**
+	 * @param hosts
+	 *            the hosts to set
+	 */
+	public void setHosts(List<String> hosts) {
+		this.hosts = hosts;
+	}
+
 }
@@ -167,7 +167,7 @@ public class ServletMonitor implements Runnable {
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} catch (InterruptedException ie) {
-			ie.printStackTrace();
+			// The server is stopping
 		}
 
 	}
@@ -25,7 +25,8 @@ public abstract class HttpResponseBase implements IHttpResponse {
 			Map<String, String> headers) {
 		super();
 		this.version = version;
-		this.headers = headers;
+		this.headers = headers != null ? headers
+				: new HashMap<String, String>();
 		this.status = status;
 	}
 
@@ -82,8 +83,9 @@ public abstract class HttpResponseBase implements IHttpResponse {
 	 */
 	@Override
 	public final void write(OutputStream outStream) throws IOException {
-		BufferedOutputStream out = new BufferedOutputStream(outStream,
-				Protocol.CHUNK_LENGTH);
+		// Don't buffer twice if the caller is already buffering
+		BufferedOutputStream out = outStream instanceof BufferedOutputStream ? (BufferedOutputStream) outStream
+				: new BufferedOutputStream(outStream, Protocol.CHUNK_LENGTH);
 
 		if (!hasPopulatedServerHeaders) {
 			populateServerDefaultHeaders();
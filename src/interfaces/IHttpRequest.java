@@ -28,6 +28,9 @@
 
 package interfaces;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 /**
@@ -42,8 +45,36 @@ public interface IHttpRequest {
 	
 	public String getQueryString(String key);
 
+	/**
+	 * Decodes the whole body into a String with the platform charset. Only
+	 * for small text bodies; anything else should be read with
+	 * {@link #getBody()}.
+	 */
 	public String getContent();
 
+	/**
+	 * @return a new stream over the raw bytes of the body, empty if there is
+	 *         none. The body may be in a temporary file, so close the stream
+	 *         when done.
+	 * @throws IOException
+	 */
+	public InputStream getBody() throws IOException;
+
+	/**
+	 * Stores the body as a file without reading it through the heap. The
+	 * file appears all at once, with the whole body, replacing any file
+	 * already there.
+	 * 
+	 * @param target
+	 * @throws IOException
+	 */
+	public void saveBody(File target) throws IOException;
+
+	/**
+	 * @return number of bytes in the body
+	 */
+	public int getBodyLength();
+
 	public void readHeadersAndBody() throws Exception;
 
 	public void checkRequest() throws Exception;
@@ -51,4 +82,23 @@ public interface IHttpRequest {
 	public String getMethod();
 
 	public String getPath();
+
+	/**
+	 * @return the template of the route the request was routed by, such as
+	 *         /rhitter/users/{id}/, null if the route has no parameters
+	 */
+	public String getRouteTemplate();
+
+	/**
+	 * @return the path segments the route's parameters stand for, by
+	 *         parameter name. Empty if the route has none.
+	 */
+	public Map<String, String> getPathParameters();
+
+	/**
+	 * @param name
+	 * @return the path segment the route parameter stands for, null if there
+	 *         is no such parameter
+	 */
+	public String getPathParameter(String name);
 }
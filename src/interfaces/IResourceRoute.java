@@ -2,12 +2,25 @@ package interfaces;
 
 import java.util.List;
 
+import configuration.PathTemplate;
+
 public interface IResourceRoute {
 
 	public abstract Class<?> getStrategyClass();
 
+	/**
+	 * @return the instance of the strategy class that serves the route, made
+	 *         when the route was configured. Null if it wasn't given one.
+	 */
+	public abstract IResourceStrategy getStrategy();
+
 	public abstract String getRouteMatch();
 
+	/**
+	 * @return the route match compiled, null if it has no parameters
+	 */
+	public abstract PathTemplate getPathTemplate();
+
 	public abstract String getStrategyOption(String option);
 
 	public abstract List<String> getMethods();
@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import protocol.Protocol;
 import server.Server;
 
 /**
@@ -53,6 +54,12 @@ public abstract class RequestTaskBase implements IRequestTask {
 
 	protected long startTimestamp;
 
+	/**
+	 * Keep-Alive header parameters if the client's connection stays open
+	 * after this response, null if it is closed.
+	 */
+	private String keepAliveParameters;
+
 	protected HttpResponseBase response;
 
 	private Date receivedTimeStamp = new Date();
@@ -130,6 +137,19 @@ public abstract class RequestTaskBase implements IRequestTask {
 	@Override
 	public final void writeResponse(OutputStream out) throws IOException {
 		IHttpResponse response = getResponse();
+
+		// Without a length the client can only find the end of the response
+		// by the connection closing
+		if (response.getHeader(Protocol.CONTENT_LENGTH) == null) {
+			keepAliveParameters = null;
+		}
+		if (isPersistentConnection()) {
+			response.putHeader(Protocol.CONNECTION, Protocol.OPEN);
+			response.putHeader(Protocol.KEEP_ALIVE, keepAliveParameters);
+		} else {
+			response.putHeader(Protocol.CONNECTION, Protocol.CLOSE);
+		}
+
 		response.write(out);
 
 		if (response.getStatusCode() < 400) {
@@ -148,6 +168,18 @@ public abstract class RequestTaskBase implements IRequestTask {
 		this.client = client;
 	}
 
+	public void setKeepAlive(String keepAliveParameters) {
+		this.keepAliveParameters = keepAliveParameters;
+	}
+
+	/**
+	 * @return true if the client's connection stays open after this task's
+	 *         response has been written
+	 */
+	public boolean isPersistentConnection() {
+		return keepAliveParameters != null;
+	}
+
 	@Override
 	public long getStartTime() {
 		return startTimestamp;
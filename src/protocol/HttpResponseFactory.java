@@ -36,15 +36,23 @@ public class HttpResponseFactory {
 
 	public static HttpResponseBase createGenericErrorResponse(
 			HttpStatusCode code, String connectionStyle) {
-		HttpResponseBase response = new DefaultHttpResponse(Protocol.VERSION,
-				code, new HashMap<String, String>());
-		return response;
+		return createEmptyResponse(code, connectionStyle);
 	}
 
 	public static HttpResponseBase createGenericSuccessfulResponse(
 			HttpStatusCode code, String connectionStyle) {
+		return createEmptyResponse(code, connectionStyle);
+	}
+
+	private static HttpResponseBase createEmptyResponse(HttpStatusCode code,
+			String connectionStyle) {
+		HashMap<String, String> headers = new HashMap<String, String>();
+		// Lets the connection stay open after the response
+		headers.put(Protocol.CONTENT_LENGTH, "0");
+		headers.put(Protocol.CONNECTION, connectionStyle);
+
 		HttpResponseBase response = new DefaultHttpResponse(Protocol.VERSION,
-				code, new HashMap<String, String>());
+				code, headers);
 		return response;
 	}
 }
@@ -34,6 +34,9 @@ package protocol;
  */
 public class HttpStatusCode {
 
+	// Informational status codes
+	public static final HttpStatusCode CONTINUE = Create(100, "Continue");
+
 	// Successful status codes
 	public static final HttpStatusCode OK = Create(200, "OK");
 	public static final HttpStatusCode CREATED = Create(201, "Created");
@@ -47,15 +50,29 @@ public class HttpStatusCode {
 	public static final HttpStatusCode NOT_FOUND = Create(404, "Not Found");
 	public static final HttpStatusCode METHOD_NOT_ALLOWED = Create(405,
 			"Method Not Allowed");
+	public static final HttpStatusCode REQUEST_TIMEOUT = Create(408,
+			"Request Timeout");
 	public static final HttpStatusCode LENGTH_REQUIRED = Create(411,
 			"Length Required");
+	public static final HttpStatusCode PAYLOAD_TOO_LARGE = Create(413,
+			"Payload Too Large");
+	public static final HttpStatusCode URI_TOO_LONG = Create(414,
+			"URI Too Long");
+	public static final HttpStatusCode UNSUPPORTED_MEDIA_TYPE = Create(415,
+			"Unsupported Media Type");
 	public static final HttpStatusCode USER_ERROR = Create(445,
 			"The provided content was unacceptable.");
 	public static final HttpStatusCode TEAPOT = Create(418, "I'm a Teapot");
+	public static final HttpStatusCode TOO_MANY_REQUESTS = Create(429,
+			"Too Many Requests");
+	public static final HttpStatusCode REQUEST_HEADER_FIELDS_TOO_LARGE = Create(
+			431, "Request Header Fields Too Large");
 
 	// 5xx indicates internal failure
 	public static final HttpStatusCode INTERNAL_ERROR = Create(500,
 			"Internal Server Error");
+	public static final HttpStatusCode SERVICE_UNAVAILABLE = Create(503,
+			"Service Unavailable");
 
 	private int statusCode;
 	private String codeMessage;
@@ -41,6 +41,8 @@ public class Protocol {
 	// Some useful protocol elements
 	public static final String VERSION = "HTTP/1.1";
 	public static final String GET = "GET";
+	public static final String POST = "POST";
+	public static final String PUT = "PUT";
 
 	public static final String CHARSET = "UTF-8";
 
@@ -63,7 +65,13 @@ public class Protocol {
 	// Some useful header elements in request
 	public static final String HOST = "Host";
 	public static final String CONNECTION = "Connection";
+	public static final String KEEP_ALIVE = "Keep-Alive";
 	public static final String USER_AGENT = "User-Agent";
+	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	public static final String CHUNKED = "chunked";
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+	public static final String EXPECT = "Expect";
+	public static final String CONTINUE_EXPECTATION = "100-continue";
 
 	// Some useful header elements in response
 	public static final String DATE = "Date";
@@ -72,6 +80,8 @@ public class Protocol {
 	public static final String CONTENT_LENGTH = "Content-Length";
 	public static final String CONTENT_TYPE = "Content-Type";
 	public static final String CONDITIONAL_GET = "If-Modified-Since";
+	public static final String RETRY_AFTER = "Retry-After";
+	public static final String ALLOW = "Allow";
 
 	/**
 	 * A chunk size to be used when reading a file and sending it to a socket.
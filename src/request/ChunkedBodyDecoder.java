@@ -0,0 +1,199 @@
+package request;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import protocol.Protocol;
+import protocol.ProtocolException;
+
+/**
+ * Decodes a body sent with Transfer-Encoding: chunked as its bytes arrive.
+ * The data of each chunk goes straight into the RequestBody, so only the
+ * chunk-size lines and trailers are ever buffered here, and those are
+ * bounded. The data of a compressed body goes through a
+ * CompressedBodyDecoder on its way.
+ */
+public class ChunkedBodyDecoder {
+	private static final Charset TRAILER_CHARSET = Charset
+			.forName("ISO-8859-1");
+
+	// Enough hex digits for any chunk a long can count
+	private static final int MAX_SIZE_DIGITS = 15;
+	private static final int MAX_EXTENSION_LENGTH = 1024;
+	private static final int MAX_TRAILER_LENGTH = 8 * 1024;
+
+	private enum State {
+		SIZE, EXTENSION, DATA, DATA_END, TRAILER, COMPLETE
+	}
+
+	private CompressedBodyDecoder content;
+
+	private State state = State.SIZE;
+	private long chunkSize = 0;
+	private int sizeDigits = 0;
+	private int extensionLength = 0;
+	private long chunkRemaining = 0;
+	private long dataLength = 0;
+
+	private byte[] line = new byte[64];
+	private int lineLength = 0;
+	private int trailerLength = 0;
+	private Map<String, String> trailers = new LinkedHashMap<String, String>();
+
+	public ChunkedBodyDecoder() {
+		this(null);
+	}
+
+	/**
+	 * @param content
+	 *            inflates the data of the chunks, null if they aren't
+	 *            compressed
+	 */
+	public ChunkedBodyDecoder(CompressedBodyDecoder content) {
+		this.content = content;
+	}
+
+	/**
+	 * Consumes bytes until the last chunk and its trailers are in, or the
+	 * bytes run out.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param body
+	 *            receives the data of the chunks
+	 * @return how many of the bytes were consumed. Less than length only if
+	 *         the body is complete.
+	 * @throws ProtocolException
+	 *             if the bytes aren't a valid chunked body
+	 * @throws IOException
+	 *             if the body can't be stored
+	 */
+	public int decode(byte[] data, int offset, int length, RequestBody body)
+			throws ProtocolException, IOException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end && state != State.COMPLETE) {
+			if (state == State.DATA) {
+				int copied = (int) Math.min(end - position, chunkRemaining);
+				if (content != null) {
+					content.decode(data, position, copied, body);
+				} else {
+					body.write(data, position, copied);
+				}
+				chunkRemaining -= copied;
+				dataLength += copied;
+				position += copied;
+				if (chunkRemaining == 0) {
+					state = State.DATA_END;
+				}
+				continue;
+			}
+
+			byte b = data[position++];
+			switch (state) {
+			case SIZE:
+				int digit = Character.digit(b, 16);
+				if (digit >= 0) {
+					if (++sizeDigits > MAX_SIZE_DIGITS) {
+						throw badRequest();
+					}
+					chunkSize = chunkSize * 16 + digit;
+				} else if (b == Protocol.LF) {
+					endSizeLine();
+				} else if (sizeDigits > 0
+						&& (b == ';' || b == Protocol.SPACE || b == '\t' || b == Protocol.CR)) {
+					state = State.EXTENSION;
+				} else {
+					throw badRequest();
+				}
+				break;
+			case EXTENSION:
+				// Chunk extensions mean nothing to the server
+				if (b == Protocol.LF) {
+					endSizeLine();
+				} else if (++extensionLength > MAX_EXTENSION_LENGTH) {
+					throw badRequest();
+				}
+				break;
+			case DATA_END:
+				if (b == Protocol.LF) {
+					state = State.SIZE;
+				} else if (b != Protocol.CR) {
+					throw badRequest();
+				}
+				break;
+			case TRAILER:
+				if (b == Protocol.LF) {
+					endTrailerLine();
+				} else if (b != Protocol.CR) {
+					if (++trailerLength > MAX_TRAILER_LENGTH) {
+						throw badRequest();
+					}
+					if (lineLength == line.length) {
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[lineLength++] = b;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return position - offset;
+	}
+
+	public boolean isComplete() {
+		return state == State.COMPLETE;
+	}
+
+	/**
+	 * @return bytes of chunk data so far, before any inflating
+	 */
+	public long getLength() {
+		return dataLength;
+	}
+
+	/**
+	 * @return header fields sent after the last chunk, under the same
+	 *         spellings the parser uses for headers
+	 */
+	public Map<String, String> getTrailers() {
+		return trailers;
+	}
+
+	private void endSizeLine() throws ProtocolException {
+		if (sizeDigits == 0) {
+			throw badRequest();
+		}
+		chunkRemaining = chunkSize;
+		state = chunkSize == 0 ? State.TRAILER : State.DATA;
+		chunkSize = 0;
+		sizeDigits = 0;
+		extensionLength = 0;
+	}
+
+	private void endTrailerLine() {
+		if (lineLength == 0) {
+			state = State.COMPLETE;
+			return;
+		}
+
+		String field = new String(line, 0, lineLength, TRAILER_CHARSET);
+		lineLength = 0;
+		int separator = field.indexOf(Protocol.SEPERATOR);
+		if (separator > 0) {
+			trailers.put(HTTPRequestParser.canonicalHeaderName(field
+					.substring(0, separator).trim()),
+					field.substring(separator + 1).trim());
+		}
+	}
+
+	private static ProtocolException badRequest() {
+		return new ProtocolException(Protocol.BAD_REQUEST_CODE,
+				Protocol.BAD_REQUEST_TEXT);
+	}
+}
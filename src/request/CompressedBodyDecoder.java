@@ -0,0 +1,319 @@
+package request;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import protocol.ProtocolException;
+
+/**
+ * Inflates a body sent with Content-Encoding gzip or deflate as its bytes
+ * arrive, a buffer at a time, so neither the compressed nor the inflated body
+ * is ever held whole. The inflated bytes go straight into the RequestBody and
+ * are counted against a limit as they come out, so a small body that inflates
+ * to something huge (a zip bomb) is turned away once it passes the limit.
+ *
+ * The gzip header and trailer are read here rather than by a GZIPInputStream,
+ * which would have to block for bytes that haven't arrived. Members of a
+ * gzip body that are simply concatenated are all inflated.
+ */
+public class CompressedBodyDecoder {
+	public static final String GZIP = "gzip";
+	public static final String X_GZIP = "x-gzip";
+	public static final String DEFLATE = "deflate";
+	public static final String IDENTITY = "identity";
+
+	private static final int GZIP_MAGIC_1 = 0x1f;
+	private static final int GZIP_MAGIC_2 = 0x8b;
+	private static final int GZIP_DEFLATED = 8;
+	private static final int GZIP_FIXED_HEADER_LENGTH = 10;
+	private static final int GZIP_TRAILER_LENGTH = 8;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int FRESERVED = 0xe0;
+
+	private enum State {
+		HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, DATA, TRAILER, COMPLETE
+	}
+
+	private boolean gzip;
+	private long maxInflatedSize;
+	private Inflater inflater;
+	private CRC32 crc = new CRC32();
+	private byte[] output = new byte[8 * 1024];
+	private long inflated = 0;
+
+	private State state;
+	// Optional header fields of the current gzip member not yet read
+	private int flags;
+	// Bytes of the current header field or trailer seen so far
+	private byte[] field = new byte[GZIP_FIXED_HEADER_LENGTH];
+	private int fieldLength = 0;
+	private int extraRemaining;
+	// Bytes of the current gzip member inflated so far
+	private long memberSize = 0;
+
+	/**
+	 * @param gzip
+	 *            true for gzip, false for deflate (a zlib stream)
+	 * @param maxInflatedSize
+	 *            bytes the body may inflate to, 0 or less for unlimited
+	 */
+	public CompressedBodyDecoder(boolean gzip, long maxInflatedSize) {
+		this.gzip = gzip;
+		this.maxInflatedSize = maxInflatedSize;
+		inflater = new Inflater(gzip);
+		state = gzip ? State.HEADER : State.DATA;
+	}
+
+	/**
+	 * @param contentEncoding
+	 *            value of the request's Content-Encoding header
+	 * @param maxInflatedSize
+	 *            bytes the body may inflate to, 0 or less for unlimited
+	 * @return a decoder for the coding, or null if the body isn't coded
+	 * @throws ProtocolException
+	 *             with 415 Unsupported Media Type if the coding isn't one
+	 *             the server can undo
+	 */
+	public static CompressedBodyDecoder forEncoding(String contentEncoding,
+			long maxInflatedSize) throws ProtocolException {
+		String coding = contentEncoding.trim();
+		if (coding.isEmpty() || coding.equalsIgnoreCase(IDENTITY)) {
+			return null;
+		}
+		if (coding.equalsIgnoreCase(GZIP) || coding.equalsIgnoreCase(X_GZIP)) {
+			return new CompressedBodyDecoder(true, maxInflatedSize);
+		}
+		if (coding.equalsIgnoreCase(DEFLATE)) {
+			return new CompressedBodyDecoder(false, maxInflatedSize);
+		}
+		// Several codings, or one nobody here knows
+		throw new ProtocolException(
+				HttpStatusCode.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+				HttpStatusCode.UNSUPPORTED_MEDIA_TYPE.getStatusMessage());
+	}
+
+	/**
+	 * Inflates all of the bytes into the body.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param body
+	 *            receives the inflated bytes
+	 * @throws ProtocolException
+	 *             if the bytes aren't validly coded, or inflate past the limit
+	 * @throws IOException
+	 *             if the body can't be stored
+	 */
+	public void decode(byte[] data, int offset, int length, RequestBody body)
+			throws ProtocolException, IOException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end) {
+			if (state == State.DATA) {
+				position = inflate(data, position, end, body);
+				continue;
+			}
+
+			int b = data[position++] & 0xff;
+			switch (state) {
+			case HEADER:
+				field[fieldLength++] = (byte) b;
+				if (fieldLength == 2
+						&& ((field[0] & 0xff) != GZIP_MAGIC_1 || b != GZIP_MAGIC_2)) {
+					throw badRequest();
+				}
+				if (fieldLength == 3 && b != GZIP_DEFLATED) {
+					throw badRequest();
+				}
+				if (fieldLength == 4) {
+					if ((b & FRESERVED) != 0) {
+						throw badRequest();
+					}
+					flags = b;
+				}
+				if (fieldLength == GZIP_FIXED_HEADER_LENGTH) {
+					fieldLength = 0;
+					nextHeaderField();
+				}
+				break;
+			case EXTRA_LENGTH:
+				field[fieldLength++] = (byte) b;
+				if (fieldLength == 2) {
+					fieldLength = 0;
+					extraRemaining = (field[0] & 0xff) | (b << 8);
+					state = State.EXTRA;
+					if (extraRemaining == 0) {
+						nextHeaderField();
+					}
+				}
+				break;
+			case EXTRA:
+				if (--extraRemaining == 0) {
+					nextHeaderField();
+				}
+				break;
+			case NAME:
+			case COMMENT:
+				if (b == 0) {
+					nextHeaderField();
+				}
+				break;
+			case HEADER_CRC:
+				if (++fieldLength == 2) {
+					fieldLength = 0;
+					nextHeaderField();
+				}
+				break;
+			case TRAILER:
+				field[fieldLength++] = (byte) b;
+				if (fieldLength == GZIP_TRAILER_LENGTH) {
+					fieldLength = 0;
+					checkTrailer();
+				}
+				break;
+			case COMPLETE:
+				if (gzip) {
+					// Another member follows
+					state = State.HEADER;
+					position--;
+				} else {
+					throw badRequest();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Called once the last byte of the coded body is in.
+	 *
+	 * @throws ProtocolException
+	 *             if the coded body ended before the stream did
+	 */
+	public void finish() throws ProtocolException {
+		end();
+		if (state != State.COMPLETE) {
+			throw badRequest();
+		}
+	}
+
+	/**
+	 * Frees the inflater. Safe to call more than once.
+	 */
+	public void end() {
+		inflater.end();
+	}
+
+	/**
+	 * @return bytes inflated so far
+	 */
+	public long getInflatedLength() {
+		return inflated;
+	}
+
+	private int inflate(byte[] data, int position, int end, RequestBody body)
+			throws ProtocolException, IOException {
+		inflater.setInput(data, position, end - position);
+		try {
+			while (!inflater.finished()) {
+				int count = inflater.inflate(output);
+				if (count == 0) {
+					if (inflater.finished() || inflater.needsInput()) {
+						break;
+					}
+					// Wants a preset dictionary, which HTTP has no way to send
+					throw badRequest();
+				}
+				inflated += count;
+				memberSize += count;
+				if (maxInflatedSize > 0 && inflated > maxInflatedSize) {
+					throw new ProtocolException(
+							HttpStatusCode.PAYLOAD_TOO_LARGE.getStatusCode(),
+							HttpStatusCode.PAYLOAD_TOO_LARGE.getStatusMessage());
+				}
+				if (gzip) {
+					crc.update(output, 0, count);
+				}
+				body.write(output, 0, count);
+			}
+		} catch (DataFormatException e) {
+			throw badRequest();
+		}
+
+		int remaining = inflater.getRemaining();
+		if (inflater.finished()) {
+			state = gzip ? State.TRAILER : State.COMPLETE;
+			inflater.reset();
+		}
+		return end - remaining;
+	}
+
+	/**
+	 * Moves on from the header field just read to the next one the flags
+	 * say is there, in the order gzip puts them, or to the data.
+	 */
+	private void nextHeaderField() {
+		switch (state) {
+		case EXTRA:
+			flags &= ~FEXTRA;
+			break;
+		case NAME:
+			flags &= ~FNAME;
+			break;
+		case COMMENT:
+			flags &= ~FCOMMENT;
+			break;
+		case HEADER_CRC:
+			flags &= ~FHCRC;
+			break;
+		default:
+			break;
+		}
+
+		if ((flags & FEXTRA) != 0) {
+			state = State.EXTRA_LENGTH;
+		} else if ((flags & FNAME) != 0) {
+			state = State.NAME;
+		} else if ((flags & FCOMMENT) != 0) {
+			state = State.COMMENT;
+		} else if ((flags & FHCRC) != 0) {
+			state = State.HEADER_CRC;
+		} else {
+			state = State.DATA;
+		}
+	}
+
+	private void checkTrailer() throws ProtocolException {
+		long expectedCrc = readLittleEndian(0);
+		long expectedSize = readLittleEndian(4);
+		if (expectedCrc != crc.getValue()
+				|| expectedSize != (memberSize & 0xffffffffL)) {
+			throw badRequest();
+		}
+		crc.reset();
+		memberSize = 0;
+		state = State.COMPLETE;
+	}
+
+	private long readLittleEndian(int from) {
+		return (field[from] & 0xffL) | (field[from + 1] & 0xffL) << 8
+				| (field[from + 2] & 0xffL) << 16
+				| (field[from + 3] & 0xffL) << 24;
+	}
+
+	private static ProtocolException badRequest() {
+		return new ProtocolException(Protocol.BAD_REQUEST_CODE,
+				Protocol.BAD_REQUEST_TEXT);
+	}
+}
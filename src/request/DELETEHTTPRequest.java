@@ -28,7 +28,6 @@
 
 package request;
 
-import java.io.InputStreamReader;
 import java.net.Socket;
 
 /**
@@ -38,11 +37,6 @@ import java.net.Socket;
 // Request that is created for Delete
 public class DELETEHTTPRequest extends HTTPRequest {
 
-	public DELETEHTTPRequest(Socket socket, InputStreamReader reader)
-			throws Exception {
-		super(socket, reader);
-	}
-
 	/**
 	 * @param socket
 	 * @param headerMap
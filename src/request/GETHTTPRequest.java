@@ -28,7 +28,6 @@
 
 package request;
 
-import java.io.InputStreamReader;
 import java.net.Socket;
 
 /**
@@ -38,10 +37,6 @@ import java.net.Socket;
 //Request that is created for GET
 public class GETHTTPRequest extends HTTPRequest {
 
-	public GETHTTPRequest(Socket socket, InputStreamReader reader) throws Exception {
-		super(socket, reader);
-	}
-
 	/**
 	 * @param socket
 	 * @param headerMap
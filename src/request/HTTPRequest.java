@@ -29,15 +29,25 @@
 package request;
 
 import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import protocol.Protocol;
+import configuration.PathTemplate;
+import configuration.RoutingTable;
 
 /**
  * 
@@ -50,23 +60,25 @@ public class HTTPRequest implements IHttpRequest {
 	protected Socket readSocket;
 	protected Socket writeSocket;
 
-	InputStreamReader streamReader;
-
 	String method;
 	String path;
 	String version;
 	Map<String, String> headers;
+	// Decoded from rawQuery the first time it is asked for
+	String rawQuery;
 	Map<String, String> queryString;
+	RequestBody requestBody;
+	// Decoded from requestBody only if someone asks for it as a String
 	String body;
-	Boolean bodyPresent;
+	Boolean bodyPresent = false;
 	int bodyLength;
-
-	public HTTPRequest(Socket socket, InputStreamReader inStreamReader) {
-		headers = new HashMap<String, String>();
-		readSocket = socket;
-		streamReader = inStreamReader;
-		queryString = new HashMap<String, String>();
-	}
+	// The routes as they were when the request line arrived, if known
+	RoutingTable routingTable;
+	// Set once the request is routed
+	IResourceRoute route;
+	PathTemplate pathTemplate;
+	// Captured by pathTemplate the first time they are asked for
+	Map<String, String> pathParameters;
 
 	public HTTPRequest(Socket socket) {
 		headers = new HashMap<String, String>();
@@ -74,11 +86,14 @@ public class HTTPRequest implements IHttpRequest {
 	}
 
 	public Map<String, String> getQueryStrings() {
+		if (queryString == null) {
+			queryString = decodeQuery(rawQuery);
+		}
 		return queryString;
 	}
 
 	public String getQueryString(String key) {
-		return queryString.get(key);
+		return getQueryStrings().get(key);
 	}
 
 	public String getMethod() {
@@ -89,106 +104,179 @@ public class HTTPRequest implements IHttpRequest {
 		return path;
 	}
 
-	public int getBodyLength() {
-		return bodyLength;
+	public String getVersion() {
+		return version;
 	}
 
-	// Read in the headers and their content and place in Map
-	public void readHeadersAndBody() throws Exception {
-		InputStream inStream;
-		String[] requestHeader;
-		String[] queryText;
-
-		BufferedReader reader = null;
-		if (streamReader == null) {
-			inStream = this.readSocket.getInputStream();
-			reader = new BufferedReader(new InputStreamReader(inStream));
-		} else {
-			reader = new BufferedReader(streamReader);
-		}
-
-		String line;
+	/**
+	 * @return the routes this request is routed against, null to use
+	 *         whatever the server has when it is dispatched
+	 */
+	public RoutingTable getRoutingTable() {
+		return routingTable;
+	}
 
-		line = reader.readLine();
-		System.out.println("Request Line: " + line);
-		requestHeader = line.split("\\s+");
+	/**
+	 * Called once the request has been routed, so the route's parameters
+	 * can be read from the path.
+	 * 
+	 * @param route
+	 */
+	public void setRoute(IResourceRoute route) {
+		this.route = route;
+		pathTemplate = route.getPathTemplate();
+		pathParameters = null;
+	}
 
-		queryText = requestHeader[0].split("\\?");
-		path = queryText[0];
-		version = requestHeader[1];
+	/**
+	 * @return the route the request was dispatched to, null until it is
+	 *         routed
+	 */
+	public IResourceRoute getRoute() {
+		return route;
+	}
 
-		if (queryText.length > 1) {
-			for (String pair : queryText[1].split("&")) {
-				int idxOfEqual = pair.indexOf("=");
+	public String getRouteTemplate() {
+		return pathTemplate == null ? null : pathTemplate.getTemplate();
+	}
 
-				if (idxOfEqual < 0) {
-					queryString.put(pair, "");
-				} else {
-					String key = pair.substring(0, idxOfEqual);
-					String value = pair.substring(idxOfEqual + 1);
-					queryString.put(key, value);
-				}
-			}
+	public Map<String, String> getPathParameters() {
+		if (pathParameters == null) {
+			Map<String, String> captured = pathTemplate == null
+					|| path == null ? null : pathTemplate.extract(path);
+			pathParameters = captured == null ? Collections
+					.<String, String> emptyMap() : Collections
+					.unmodifiableMap(captured);
 		}
+		return pathParameters;
+	}
 
-		while ((line = reader.readLine()) != null) {
-			if (line.isEmpty()) {
-				break;
-			}
-			if (line.equals(Protocol.CRLF)) {
-				break;
-			}
+	public String getPathParameter(String name) {
+		return getPathParameters().get(name);
+	}
 
-			if (line.contains(Protocol.SEPERATOR + "")) {
-				String headerKey = line.substring(0, line.indexOf(":"));
-				String headerContent = line.substring(line.indexOf(":") + 2,
-						line.length());
-				this.headers.put(headerKey, headerContent);
-			}
-		}
+	public int getBodyLength() {
+		return bodyLength;
+	}
 
-		// Read the body
-		body = "";
-		if (!this.headers.containsKey("Content-Length")) {
-			bodyPresent = false;
-		} else {
-			String contentLength = this.headers.get("Content-Length");
-			bodyLength = Integer.parseInt(contentLength);
-			int count = 0;
-
-			int read = 0;
-			int remaining = bodyLength - count;
-			StringBuilder bodyBuilder = new StringBuilder();
-			char[] buffer = new char[Protocol.CHUNK_LENGTH];
-
-			while (count < bodyLength
-					&& (read = reader.read(buffer, 0,
-							Math.min(Protocol.CHUNK_LENGTH, remaining))) != -1) {
-				if (count < bodyLength) {
-					bodyBuilder.append(buffer, 0, read);
-					count += read;
-				} else {
-					// Extra content characters.
-					throw new Exception("Body is longer than expected.");
-				}
+	/**
+	 * Reads the rest of the request, after the method, straight off the
+	 * socket. A byte at a time, so nothing of a request pipelined behind it
+	 * is consumed. The server itself parses requests with an
+	 * HTTPRequestParser over whatever it has read.
+	 */
+	public void readHeadersAndBody() throws Exception {
+		HTTPRequestParser parser = new HTTPRequestParser(this);
+		InputStream inStream = this.readSocket.getInputStream();
+		byte[] next = new byte[1];
+		while (!parser.isComplete()) {
+			int read = inStream.read();
+			if (read < 0) {
+				parser.endOfInput();
+				break;
 			}
-			body = bodyBuilder.toString();
-			bodyPresent = count > 0;
+			next[0] = (byte) read;
+			parser.parse(next, 0, 1);
 		}
 	}
 
+	/**
+	 * @param key
+	 *            matched without regard to case for common header names
+	 */
 	public String getHeader(String key) {
-		return headers.get(key);
+		String value = headers.get(key);
+		if (value == null && key != null) {
+			value = headers.get(HTTPRequestParser.canonicalHeaderName(key));
+		}
+		return value;
 	}
 
 	public String getContent() {
+		if (body == null) {
+			try {
+				body = requestBody == null ? "" : requestBody.decode(Charset
+						.defaultCharset());
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.WARNING,
+						"Failed to read spilled request body", e);
+				body = "";
+			}
+		}
 		return body;
 	}
 
+	public InputStream getBody() throws IOException {
+		if (requestBody == null) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		return requestBody.openStream();
+	}
+
+	public void saveBody(File target) throws IOException {
+		if (requestBody == null) {
+			requestBody = new RequestBody(0, 0);
+		}
+		requestBody.moveTo(target);
+	}
+
+	/**
+	 * Frees whatever holds the body (a temporary file for large ones). Called
+	 * once the response to the request has been written.
+	 */
+	public void discardBody() {
+		if (requestBody != null) {
+			requestBody.discard();
+		}
+	}
+
+	/**
+	 * Called by the parser once the whole body is in.
+	 * 
+	 * @param received
+	 *            null if there is no body
+	 */
+	void setBody(RequestBody received) {
+		requestBody = received;
+		bodyLength = received == null ? 0 : (int) Math.min(
+				Integer.MAX_VALUE, received.getLength());
+		bodyPresent = bodyLength > 0;
+		body = null;
+	}
+
 	/**
 	 * @throws Exception
 	 * 
 	 */
 	public void checkRequest() throws Exception {
 	}
+
+	private static Map<String, String> decodeQuery(String rawQuery) {
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> decoded = new HashMap<String, String>();
+		for (String pair : rawQuery.split("&")) {
+			int idxOfEqual = pair.indexOf("=");
+
+			if (idxOfEqual < 0) {
+				decoded.put(decode(pair), "");
+			} else {
+				String key = pair.substring(0, idxOfEqual);
+				String value = pair.substring(idxOfEqual + 1);
+				decoded.put(decode(key), decode(value));
+			}
+		}
+		return decoded;
+	}
+
+	private static String decode(String encoded) {
+		try {
+			return URLDecoder.decode(encoded, Protocol.CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			return encoded; // UTF-8 is always there
+		} catch (IllegalArgumentException badEscape) {
+			return encoded;
+		}
+	}
 }
@@ -0,0 +1,114 @@
+package request;
+
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import protocol.Protocol;
+import protocol.ProtocolException;
+
+/**
+ * Holds raw bytes read from a client until they have been parsed into
+ * requests.
+ *
+ * Used where a request can't be read with a blocking stream, e.g. by a
+ * ConnectionReactor, which only ever sees whatever bytes happened to be
+ * available on the channel. The bytes are fed to an HTTPRequestParser as they
+ * arrive, so a request split across reads is never parsed twice; only bytes
+ * of a request pipelined behind a complete one are kept here.
+ */
+public class HTTPRequestBuffer {
+	private byte[] data = new byte[Protocol.CHUNK_LENGTH];
+	private int start = 0;
+	private int end = 0;
+
+	private HTTPRequestParser parser;
+
+	public void append(ByteBuffer source) {
+		int length = source.remaining();
+		ensureCapacity(length);
+		source.get(data, end, length);
+		end += length;
+	}
+
+	public void append(byte[] source, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(source, offset, data, end, length);
+		end += length;
+	}
+
+	public boolean isEmpty() {
+		return start == end && (parser == null || parser.isIdle());
+	}
+
+	/**
+	 * @return true if the headers of the next request are complete but its
+	 *         body is not. Only meaningful after
+	 *         {@link #nextRequest(Socket, HTTPRequestFactory)} returned
+	 *         null.
+	 */
+	public boolean isReadingBody() {
+		return parser != null && parser.isReadingBody();
+	}
+
+	/**
+	 * @return the request whose client is waiting for 100 Continue before
+	 *         sending the body, once; otherwise null
+	 * @see HTTPRequestParser#takeContinueExpectation()
+	 */
+	public HTTPRequest takeContinueExpectation() {
+		return parser != null ? parser.takeContinueExpectation() : null;
+	}
+
+	/**
+	 * @param socket
+	 *            the requests were read from
+	 * @param factory
+	 *            makes the parser, the first time
+	 * @return the next complete request, or null if more bytes are needed
+	 * @throws ProtocolException
+	 *             if the buffered bytes can never form a valid request
+	 */
+	public HTTPRequest nextRequest(Socket socket, HTTPRequestFactory factory)
+			throws ProtocolException {
+		if (parser == null) {
+			parser = factory.createParser(socket);
+		}
+
+		start += parser.parse(data, start, end - start);
+		if (start == end) {
+			start = 0;
+			end = 0;
+		}
+		return parser.isComplete() ? parser.takeRequest() : null;
+	}
+
+	/**
+	 * Lets go of whatever is buffered, along with anything the body of a
+	 * request being read is held in. Called once the connection is gone.
+	 */
+	public void discard() {
+		if (parser != null) {
+			parser.discard();
+		}
+		start = 0;
+		end = 0;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (end + additional <= data.length) {
+			return;
+		}
+
+		// Reclaim the space of bytes already parsed before growing
+		int buffered = end - start;
+		byte[] target = data;
+		if (buffered + additional > data.length) {
+			target = new byte[Math.max(data.length * 2, buffered + additional)];
+		}
+		System.arraycopy(data, start, target, 0, buffered);
+
+		data = target;
+		start = 0;
+		end = buffered;
+	}
+}
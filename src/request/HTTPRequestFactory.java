@@ -28,70 +28,127 @@
 
 package request;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.reflect.Constructor;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
-;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import protocol.ProtocolException;
+import configuration.ServerConfiguration;
+import configuration.ServerOptions;
 
 /**
  * 
  * @author Nathan Jarvis
  */
 
-// Factory reads in the request verb and then creates through reflection the
-// correct HTTPRequest
+// Factory hands the bytes of a request to an HTTPRequestParser, which creates
+// the correct HTTPRequest for its verb
 public class HTTPRequestFactory {
+	private static final HttpStatusCode[] REJECTIONS = {
+			HttpStatusCode.PAYLOAD_TOO_LARGE, HttpStatusCode.URI_TOO_LONG,
+			HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE,
+			HttpStatusCode.UNSUPPORTED_MEDIA_TYPE };
 
-	public HTTPRequest createRequest(Socket socket) {
-		InputStream inStream = null;
-		String requestVerb = "";
-		InputStreamReader reader;
-		HTTPRequest httpRequestInstance;
+	private int bodySpillThreshold;
+	private RequestLimits limits;
 
-		try {
-			inStream = socket.getInputStream();
+	public HTTPRequestFactory() {
+		this(RequestBody.DEFAULT_SPILL_THRESHOLD, RequestLimits.DEFAULT);
+	}
 
-			reader = new InputStreamReader(inStream);
-			int intChar;
+	/**
+	 * @param bodySpillThreshold
+	 *            bytes of a request body kept in memory, larger bodies are
+	 *            written to a temporary file
+	 * @param limits
+	 *            how large a request may get
+	 */
+	public HTTPRequestFactory(int bodySpillThreshold, RequestLimits limits) {
+		this.bodySpillThreshold = bodySpillThreshold;
+		this.limits = limits;
+	}
 
-			while ((intChar = reader.read()) != -1) {
-				char ch = (char) intChar;
-				if (Character.isWhitespace(ch)) {
-					break;
-				}
-				requestVerb = requestVerb + ch;
-			}
-		} catch (Exception e) {
-			// Log and send back bad request
+	public static HTTPRequestFactory fromConfiguration(
+			ServerConfiguration configuration) {
+		return new HTTPRequestFactory(Math.max(0, configuration
+				.getIntegerConfigurationOption(
+						ServerOptions.BodySpillThreshold,
+						RequestBody.DEFAULT_SPILL_THRESHOLD)),
+				RequestLimits.fromConfiguration(configuration));
+	}
+
+	public HTTPRequestParser createParser(Socket socket) {
+		return new HTTPRequestParser(socket, bodySpillThreshold, limits);
+	}
+
+	public HTTPRequest createRequest(Socket socket) {
+		try {
+			return createRequest(socket, socket.getInputStream());
+		} catch (IOException e) {
 			e.printStackTrace();
 
 			return new MalformedHTTPRequest(socket);
 		}
+	}
 
+	/**
+	 * Creates every request that is completely contained in the buffer, in
+	 * the order the client sent them (HTTP pipelining). If the buffer holds
+	 * something that can never be a valid request a MalformedHTTPRequest ends
+	 * the list.
+	 * 
+	 * @param socket
+	 * @param buffer
+	 * @return the requests, possibly none
+	 */
+	public List<HTTPRequest> createRequests(Socket socket,
+			HTTPRequestBuffer buffer) {
+		List<HTTPRequest> requests = new ArrayList<HTTPRequest>();
 		try {
-			Class<?> requestClass = Class.forName("request."
-					+ requestVerb.toUpperCase() + "HTTPRequest");
-			Constructor<?> constructor = requestClass.getConstructor(
-					Socket.class, InputStreamReader.class);
-			Object instance = constructor.newInstance(socket, reader);
-			httpRequestInstance = (HTTPRequest) instance;
-
-			httpRequestInstance.readHeadersAndBody();
-			httpRequestInstance.checkRequest();
-			httpRequestInstance.method = requestVerb;
-		} catch (Exception e) {
-			httpRequestInstance = new MalformedHTTPRequest(socket);
+			HTTPRequest request;
+			while ((request = buffer.nextRequest(socket, this)) != null) {
+				requests.add(checked(socket, request));
+			}
+		} catch (ProtocolException badRequest) {
+			requests.add(rejected(socket, badRequest));
 		}
+		return requests;
+	}
 
-		if (!isBadRequestPath(httpRequestInstance.path)) {
-			return httpRequestInstance;
-		} else {
+	/**
+	 * Reads the request from the given stream rather than the socket's own
+	 * stream. Used when the bytes of the request have already been read off
+	 * the socket, e.g. by a ConnectionReactor.
+	 * 
+	 * @param socket
+	 * @param inStream
+	 * @return
+	 */
+	public HTTPRequest createRequest(Socket socket, InputStream inStream) {
+		HTTPRequestParser parser = createParser(socket);
+		byte[] chunk = new byte[Protocol.CHUNK_LENGTH];
+
+		try {
+			while (!parser.isComplete()) {
+				int read = inStream.read(chunk);
+				if (read < 0) {
+					parser.endOfInput();
+					break;
+				}
+				parser.parse(chunk, 0, read);
+			}
+		} catch (ProtocolException badRequest) {
+			return rejected(socket, badRequest);
+		} catch (Exception e) {
+			parser.discard();
 			return new MalformedHTTPRequest(socket);
 		}
+
+		return checked(socket, parser.takeRequest());
 	}
 
 	public boolean isBadRequestPath(String path) {
@@ -102,4 +159,34 @@ public class HTTPRequestFactory {
 		}
 
 	}
+
+	private static HTTPRequest rejected(Socket socket,
+			ProtocolException reason) {
+		for (HttpStatusCode status : REJECTIONS) {
+			if (status.getStatusCode() == reason.getStatus()) {
+				return new MalformedHTTPRequest(socket, status);
+			}
+		}
+		return new MalformedHTTPRequest(socket);
+	}
+
+	/**
+	 * A request turned away here is never answered as itself, so its body
+	 * (maybe a temporary file) is let go of right away.
+	 */
+	private HTTPRequest checked(Socket socket, HTTPRequest request) {
+		try {
+			request.checkRequest();
+		} catch (Exception e) {
+			request.discardBody();
+			return new MalformedHTTPRequest(socket);
+		}
+
+		if (!isBadRequestPath(request.path)) {
+			return request;
+		} else {
+			request.discardBody();
+			return new MalformedHTTPRequest(socket);
+		}
+	}
 }
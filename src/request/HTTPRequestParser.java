@@ -0,0 +1,667 @@
+package request;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import protocol.ProtocolException;
+import configuration.RoutingTable;
+
+/**
+ * Parses HTTP/1.1 requests a byte at a time, so it can be handed whatever
+ * bytes happened to arrive and picks up where it left off with the next
+ * ones. Bytes following a complete request are left alone for the next
+ * request (pipelining). A body arrives either with a Content-Length or with
+ * Transfer-Encoding: chunked, which a ChunkedBodyDecoder undoes on the fly.
+ * A body sent with Content-Encoding gzip or deflate is likewise inflated by a
+ * CompressedBodyDecoder as it arrives; strategies only ever see the inflated
+ * bytes.
+ *
+ * RequestLimits are checked as the bytes arrive, so a request that is too
+ * large is turned away before the excess is held anywhere; a body that is
+ * declared too large, before any of it is read.
+ *
+ * The request line and headers go through one reusable scratch array; the
+ * only Strings made are the path, the header names nobody interned and the
+ * values. The request class is looked up in a table of methods rather than
+ * by reflection.
+ */
+public class HTTPRequestParser {
+	private static final Charset HEADER_CHARSET = Charset
+			.forName("ISO-8859-1");
+	private static final Charset TARGET_CHARSET = Charset
+			.forName(Protocol.CHARSET);
+
+	private static final int MAX_METHOD_LENGTH = 16;
+
+	/**
+	 * Creates the request object for one method.
+	 */
+	private interface RequestCreator {
+		HTTPRequest create(Socket socket) throws Exception;
+	}
+
+	private static class Method {
+		String name;
+		byte[] bytes;
+		RequestCreator creator;
+
+		Method(String name, RequestCreator creator) {
+			this.name = name;
+			this.bytes = name.toLowerCase().getBytes(HEADER_CHARSET);
+			this.creator = creator;
+		}
+	}
+
+	private static final Method[] METHODS = {
+			new Method(Protocol.GET, new RequestCreator() {
+				@Override
+				public HTTPRequest create(Socket socket) throws Exception {
+					return new GETHTTPRequest(socket);
+				}
+			}), new Method("POST", new RequestCreator() {
+				@Override
+				public HTTPRequest create(Socket socket) throws Exception {
+					return new POSTHTTPRequest(socket);
+				}
+			}), new Method("PUT", new RequestCreator() {
+				@Override
+				public HTTPRequest create(Socket socket) throws Exception {
+					return new PUTHTTPRequest(socket);
+				}
+			}), new Method("DELETE", new RequestCreator() {
+				@Override
+				public HTTPRequest create(Socket socket) throws Exception {
+					return new DELETEHTTPRequest(socket);
+				}
+			}) };
+
+	/**
+	 * Header names common enough that every request would otherwise make
+	 * its own copy of them. Stored under these spellings whatever case the
+	 * client used.
+	 */
+	private static final String[] COMMON_HEADERS = { Protocol.HOST,
+			Protocol.CONNECTION, Protocol.KEEP_ALIVE, Protocol.USER_AGENT,
+			Protocol.CONTENT_LENGTH, Protocol.CONTENT_TYPE,
+			Protocol.CONDITIONAL_GET, "Accept", "Accept-Charset",
+			"Accept-Encoding", "Accept-Language", "Authorization",
+			"Cache-Control", Protocol.CONTENT_ENCODING, "Cookie", Protocol.EXPECT,
+			"If-None-Match", "Origin", "Pragma", "Range", "Referer",
+			Protocol.TRANSFER_ENCODING, "Upgrade" };
+
+	// Common header names by length, for lookups without a String
+	private static final byte[][][] COMMON_HEADER_BYTES;
+	private static final String[][] COMMON_HEADER_NAMES;
+
+	static {
+		int longest = 0;
+		for (String name : COMMON_HEADERS) {
+			longest = Math.max(longest, name.length());
+		}
+		COMMON_HEADER_BYTES = new byte[longest + 1][][];
+		COMMON_HEADER_NAMES = new String[longest + 1][];
+		for (String name : COMMON_HEADERS) {
+			int length = name.length();
+			String[] names = COMMON_HEADER_NAMES[length] == null ? new String[1]
+					: Arrays.copyOf(COMMON_HEADER_NAMES[length],
+							COMMON_HEADER_NAMES[length].length + 1);
+			names[names.length - 1] = name;
+			COMMON_HEADER_NAMES[length] = names;
+
+			byte[][] bytes = new byte[names.length][];
+			for (int i = 0; i < names.length; i++) {
+				bytes[i] = names[i].toLowerCase().getBytes(HEADER_CHARSET);
+			}
+			COMMON_HEADER_BYTES[length] = bytes;
+		}
+	}
+
+	private enum State {
+		START, METHOD, TARGET, VERSION, HEADER_NAME, HEADER_VALUE, BODY, COMPLETE
+	}
+
+	private Socket socket;
+	private int bodySpillThreshold;
+	private RequestLimits serverLimits;
+	// The server's, until the request line shows which route applies
+	private RequestLimits limits;
+	private int headerBytes = 0;
+	private int headerCount = 0;
+	private State state = State.START;
+
+	private byte[] token = new byte[256];
+	private int tokenLength = 0;
+
+	private HTTPRequest request;
+	private String headerName;
+	private long contentLength = 0;
+	private boolean chunked = false;
+	private boolean continueExpected = false;
+	private ChunkedBodyDecoder chunkedDecoder;
+	private CompressedBodyDecoder compressedDecoder;
+	private RequestBody body;
+	private long bodyReceived = 0;
+
+	public HTTPRequestParser(Socket socket) {
+		this(socket, RequestBody.DEFAULT_SPILL_THRESHOLD, RequestLimits.DEFAULT);
+	}
+
+	/**
+	 * @param socket
+	 * @param bodySpillThreshold
+	 *            bytes of a body kept in memory, larger ones go to a
+	 *            temporary file
+	 * @param limits
+	 *            how large a request may get
+	 */
+	public HTTPRequestParser(Socket socket, int bodySpillThreshold,
+			RequestLimits limits) {
+		this.socket = socket;
+		this.bodySpillThreshold = bodySpillThreshold;
+		this.serverLimits = limits;
+		this.limits = limits;
+	}
+
+	/**
+	 * For a request whose method has already been read by someone else.
+	 *
+	 * @param request
+	 *            to fill in
+	 */
+	HTTPRequestParser(HTTPRequest request) {
+		this.socket = request.readSocket;
+		this.request = request;
+		this.bodySpillThreshold = RequestBody.DEFAULT_SPILL_THRESHOLD;
+		this.serverLimits = RequestLimits.DEFAULT;
+		this.limits = RequestLimits.DEFAULT;
+		this.state = State.TARGET;
+	}
+
+	/**
+	 * Consumes bytes until the request is complete or the bytes run out.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return how many of the bytes were consumed. Less than length only if
+	 *         the request is complete.
+	 * @throws ProtocolException
+	 *             if the bytes can never form a valid request
+	 */
+	public int parse(byte[] data, int offset, int length)
+			throws ProtocolException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end && state != State.COMPLETE) {
+			if (state == State.BODY && chunkedDecoder != null) {
+				position += decodeChunks(data, position, end - position);
+				continue;
+			}
+			if (state == State.BODY) {
+				int copied = (int) Math.min(end - position, contentLength
+						- bodyReceived);
+				writeBody(data, position, copied);
+				bodyReceived += copied;
+				position += copied;
+				if (bodyReceived == contentLength) {
+					finishBody();
+				}
+				continue;
+			}
+
+			byte b = data[position++];
+			if (state != State.START
+					&& limits.isHeaderSizeExceeded(++headerBytes)) {
+				throw rejected(state == State.METHOD || state == State.TARGET ? HttpStatusCode.URI_TOO_LONG
+						: HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE);
+			}
+			switch (state) {
+			case START:
+				if (b == Protocol.CR || b == Protocol.LF) {
+					break; // Some clients send an extra CRLF after a body
+				}
+				state = State.METHOD;
+				append(b);
+				break;
+			case METHOD:
+				if (b == Protocol.SPACE) {
+					startRequest();
+					state = State.TARGET;
+				} else if (tokenLength >= MAX_METHOD_LENGTH
+						|| b == Protocol.LF) {
+					throw badRequest();
+				} else {
+					append(b);
+				}
+				break;
+			case TARGET:
+				if (b == Protocol.SPACE) {
+					if (tokenLength > 0) {
+						setTarget();
+						state = State.VERSION;
+					}
+				} else if (b == Protocol.LF) {
+					throw badRequest(); // No version
+				} else if (b != Protocol.CR) {
+					append(b);
+				}
+				break;
+			case VERSION:
+				if (b == Protocol.LF) {
+					setVersion();
+					state = State.HEADER_NAME;
+				} else if (b != Protocol.CR && b != Protocol.SPACE) {
+					append(b);
+				}
+				break;
+			case HEADER_NAME:
+				if (b == Protocol.SEPERATOR) {
+					headerName = internHeaderName(token, tokenLength);
+					tokenLength = 0;
+					state = State.HEADER_VALUE;
+				} else if (b == Protocol.LF) {
+					if (tokenLength == 0) {
+						endHeaders();
+					} else {
+						tokenLength = 0; // Not a header, ignored
+					}
+				} else if (b != Protocol.CR) {
+					append(b);
+				}
+				break;
+			case HEADER_VALUE:
+				if (b == Protocol.LF) {
+					setHeader();
+					state = State.HEADER_NAME;
+				} else if (b != Protocol.CR
+						&& !(tokenLength == 0 && (b == Protocol.SPACE || b == '\t'))) {
+					append(b);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return position - offset;
+	}
+
+	/**
+	 * The client won't send anything more. Headers that weren't ended by a
+	 * blank line end here; a body that is cut short can't be recovered.
+	 *
+	 * @throws ProtocolException
+	 *             if what was received is no complete request
+	 */
+	public void endOfInput() throws ProtocolException {
+		if (state == State.HEADER_VALUE) {
+			setHeader();
+			state = State.HEADER_NAME;
+		}
+		if (state == State.HEADER_NAME) {
+			endHeaders();
+		}
+		if (state != State.COMPLETE) {
+			throw badRequest();
+		}
+	}
+
+	public boolean isComplete() {
+		return state == State.COMPLETE;
+	}
+
+	/**
+	 * @return true if nothing of the next request has been parsed yet
+	 */
+	public boolean isIdle() {
+		return state == State.START;
+	}
+
+	/**
+	 * @return true if the headers are complete but the body is not
+	 */
+	public boolean isReadingBody() {
+		return state == State.BODY;
+	}
+
+	/**
+	 * Hands out, once, a request whose client sent Expect: 100-continue and
+	 * is waiting to be told to send the body.
+	 *
+	 * @return the request with its headers, null if no client is waiting
+	 */
+	public HTTPRequest takeContinueExpectation() {
+		if (!continueExpected || state != State.BODY) {
+			return null;
+		}
+		continueExpected = false;
+		return request;
+	}
+
+	/**
+	 * @return the complete request. The parser starts over on the next one.
+	 */
+	public HTTPRequest takeRequest() {
+		HTTPRequest complete = request;
+		request = null;
+		headerName = null;
+		limits = serverLimits;
+		headerBytes = 0;
+		headerCount = 0;
+		contentLength = 0;
+		chunked = false;
+		continueExpected = false;
+		chunkedDecoder = null;
+		compressedDecoder = null;
+		body = null;
+		bodyReceived = 0;
+		tokenLength = 0;
+		state = State.START;
+		return complete;
+	}
+
+	/**
+	 * Gives up on the request being parsed, for a connection that will
+	 * never finish sending it. A body partly read is let go of, e.g. its
+	 * temporary file deleted and its inflater ended. The parser starts over.
+	 */
+	public void discard() {
+		if (body != null) {
+			abandonBody();
+		}
+		takeRequest();
+	}
+
+	/**
+	 * @param name
+	 * @return the spelling headers of this name are stored under
+	 */
+	public static String canonicalHeaderName(String name) {
+		byte[] bytes = name.getBytes(HEADER_CHARSET);
+		return internHeaderName(bytes, bytes.length);
+	}
+
+	private void startRequest() throws ProtocolException {
+		for (Method method : METHODS) {
+			if (equalsIgnoreCase(method.bytes, token, tokenLength)) {
+				try {
+					request = method.creator.create(socket);
+				} catch (Exception e) {
+					throw badRequest();
+				}
+				request.method = method.name;
+				tokenLength = 0;
+				return;
+			}
+		}
+		throw badRequest();
+	}
+
+	private void setTarget() {
+		String target = new String(token, 0, tokenLength, TARGET_CHARSET);
+		int query = target.indexOf('?');
+		if (query < 0) {
+			request.path = target;
+		} else {
+			request.path = target.substring(0, query);
+			request.rawQuery = target.substring(query + 1);
+		}
+		tokenLength = 0;
+		RoutingTable routes = limits.getRoutingTable();
+		if (routes != null) {
+			// Routed against the same table from here on, even if the routes
+			// are reloaded before the request is dispatched
+			request.routingTable = routes;
+			// Before the Host is in, only routes for every host can say how
+			// big the headers may be
+			limits = limits.forRoute(routes.find(request.path, request.method));
+		}
+	}
+
+	private void setVersion() throws ProtocolException {
+		if (tokenLength == 0) {
+			throw badRequest();
+		}
+		request.version = matches(Protocol.VERSION) ? Protocol.VERSION
+				: new String(token, 0, tokenLength, HEADER_CHARSET);
+		tokenLength = 0;
+	}
+
+	private void setHeader() throws ProtocolException {
+		int length = tokenLength;
+		while (length > 0
+				&& (token[length - 1] == Protocol.SPACE || token[length - 1] == '\t')) {
+			length--;
+		}
+		String value = new String(token, 0, length, HEADER_CHARSET);
+		tokenLength = 0;
+		if (limits.isHeaderCountExceeded(++headerCount)) {
+			throw rejected(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE);
+		}
+
+		if (headerName == Protocol.CONTENT_LENGTH) {
+			try {
+				contentLength = Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				throw badRequest();
+			}
+			if (contentLength < 0) {
+				throw badRequest();
+			}
+		} else if (headerName == Protocol.TRANSFER_ENCODING) {
+			// Chunked has to be the last coding, or the end of the body
+			// can't be found
+			int lastCoding = value.lastIndexOf(',');
+			if (!value.substring(lastCoding + 1).trim()
+					.equalsIgnoreCase(Protocol.CHUNKED)) {
+				throw badRequest();
+			}
+			chunked = true;
+		}
+		request.headers.put(headerName, value);
+	}
+
+	private void endHeaders() throws ProtocolException {
+		RoutingTable routes = request.routingTable;
+		if (routes != null && routes.isHostScoped()) {
+			// The Host wasn't known at the request line; the body is held to
+			// the limits of the host's route
+			limits = serverLimits.forRoute(routes.find(
+					request.headers.get(Protocol.HOST), request.path,
+					request.method));
+		}
+		if (limits.isBodySizeExceeded(contentLength)) {
+			throw rejected(HttpStatusCode.PAYLOAD_TOO_LARGE);
+		}
+		String expect = request.headers.get(Protocol.EXPECT);
+		continueExpected = expect != null
+				&& expect.equalsIgnoreCase(Protocol.CONTINUE_EXPECTATION)
+				&& Protocol.VERSION.equals(request.version);
+		if (chunked) {
+			if (request.headers.containsKey(Protocol.CONTENT_LENGTH)) {
+				// Two ways to find the end of the body - a smuggling attempt
+				throw badRequest();
+			}
+			compressedDecoder = createCompressedDecoder();
+			body = new RequestBody(-1, bodySpillThreshold);
+			chunkedDecoder = new ChunkedBodyDecoder(compressedDecoder);
+			state = State.BODY;
+		} else if (contentLength > 0) {
+			compressedDecoder = createCompressedDecoder();
+			// No telling what a compressed body inflates to
+			body = new RequestBody(compressedDecoder == null ? contentLength
+					: -1, bodySpillThreshold);
+			state = State.BODY;
+		} else {
+			finishBody();
+		}
+	}
+
+	private void writeBody(byte[] data, int offset, int length)
+			throws ProtocolException {
+		try {
+			if (compressedDecoder != null) {
+				compressedDecoder.decode(data, offset, length, body);
+			} else {
+				body.write(data, offset, length);
+			}
+		} catch (IOException e) {
+			abandonBody();
+			throw new ProtocolException("Failed to store request body", e);
+		} catch (ProtocolException e) {
+			abandonBody();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a decoder for the body's Content-Encoding, null if it has none
+	 */
+	private CompressedBodyDecoder createCompressedDecoder()
+			throws ProtocolException {
+		String encoding = request.headers.get(Protocol.CONTENT_ENCODING);
+		if (encoding == null) {
+			return null;
+		}
+		return CompressedBodyDecoder.forEncoding(encoding,
+				limits.getMaxInflatedBodySize());
+	}
+
+	private void abandonBody() {
+		body.discard();
+		if (compressedDecoder != null) {
+			compressedDecoder.end();
+		}
+	}
+
+	/**
+	 * Once the last chunk is in, the request looks like one that was sent
+	 * with a Content-Length, with any trailers among its headers.
+	 */
+	private int decodeChunks(byte[] data, int offset, int length)
+			throws ProtocolException {
+		int consumed;
+		try {
+			consumed = chunkedDecoder.decode(data, offset, length, body);
+		} catch (IOException e) {
+			abandonBody();
+			throw new ProtocolException("Failed to store request body", e);
+		} catch (ProtocolException e) {
+			abandonBody();
+			throw e;
+		}
+		if (limits.isBodySizeExceeded(chunkedDecoder.getLength())) {
+			abandonBody();
+			throw rejected(HttpStatusCode.PAYLOAD_TOO_LARGE);
+		}
+
+		if (chunkedDecoder.isComplete()) {
+			for (Map.Entry<String, String> trailer : chunkedDecoder
+					.getTrailers().entrySet()) {
+				// Never in place of what the headers said
+				if (!request.headers.containsKey(trailer.getKey())) {
+					request.headers.put(trailer.getKey(), trailer.getValue());
+				}
+			}
+			request.headers.remove(Protocol.TRANSFER_ENCODING);
+			request.headers.put(Protocol.CONTENT_LENGTH,
+					Long.toString(body.getLength()));
+			finishBody();
+		}
+		return consumed;
+	}
+
+	private void finishBody() throws ProtocolException {
+		if (body != null) {
+			try {
+				if (compressedDecoder != null) {
+					compressedDecoder.finish();
+				}
+				body.finish();
+			} catch (IOException e) {
+				abandonBody();
+				throw new ProtocolException("Failed to store request body", e);
+			} catch (ProtocolException e) {
+				abandonBody();
+				throw e;
+			}
+		}
+		if (compressedDecoder != null) {
+			// Looks like it was sent as it is now
+			request.headers.remove(Protocol.CONTENT_ENCODING);
+			request.headers.put(Protocol.CONTENT_LENGTH,
+					Long.toString(body.getLength()));
+		}
+		request.setBody(body);
+		state = State.COMPLETE;
+	}
+
+	private void append(byte b) {
+		if (tokenLength == token.length) {
+			token = Arrays.copyOf(token, token.length * 2);
+		}
+		token[tokenLength++] = b;
+	}
+
+	private boolean matches(String text) {
+		if (text.length() != tokenLength) {
+			return false;
+		}
+		for (int i = 0; i < tokenLength; i++) {
+			if (token[i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String internHeaderName(byte[] name, int length) {
+		if (length < COMMON_HEADER_BYTES.length
+				&& COMMON_HEADER_BYTES[length] != null) {
+			byte[][] candidates = COMMON_HEADER_BYTES[length];
+			for (int i = 0; i < candidates.length; i++) {
+				if (equalsIgnoreCase(candidates[i], name, length)) {
+					return COMMON_HEADER_NAMES[length][i];
+				}
+			}
+		}
+		return new String(name, 0, length, HEADER_CHARSET);
+	}
+
+	/**
+	 * @param lowerCase
+	 *            compared to, all lower case
+	 * @param bytes
+	 * @param length
+	 */
+	private static boolean equalsIgnoreCase(byte[] lowerCase, byte[] bytes,
+			int length) {
+		if (lowerCase.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			byte b = bytes[i];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ProtocolException rejected(HttpStatusCode status) {
+		return new ProtocolException(status.getStatusCode(),
+				status.getStatusMessage());
+	}
+
+	private static ProtocolException badRequest() {
+		return new ProtocolException(Protocol.BAD_REQUEST_CODE,
+				Protocol.BAD_REQUEST_TEXT);
+	}
+}
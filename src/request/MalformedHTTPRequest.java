@@ -30,6 +30,8 @@ package request;
 
 import java.net.Socket;
 
+import protocol.HttpStatusCode;
+
 /**
  * 
  * @author Nathan Jarvis
@@ -37,14 +39,28 @@ import java.net.Socket;
 
 // A bad request that is sent back when the server receives a messed up request.
 public class MalformedHTTPRequest extends HTTPRequest {
+	private HttpStatusCode status;
 
 	/**
 	 * @param socket
 	 */
 
 	public MalformedHTTPRequest(Socket socket) {
+		this(socket, HttpStatusCode.BAD_REQUEST);
+	}
+
+	/**
+	 * @param socket
+	 * @param status
+	 *            what the client is told is wrong with the request
+	 */
+	public MalformedHTTPRequest(Socket socket, HttpStatusCode status) {
 		super(socket);
-		// TODO Auto-generated constructor stub
+		this.status = status;
+	}
+
+	public HttpStatusCode getStatus() {
+		return status;
 	}
 
 	/*
@@ -0,0 +1,487 @@
+package request;
+
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import protocol.Protocol;
+import configuration.ResourceStrategyRouteOptions;
+
+/**
+ * Reads a multipart/form-data body one part at a time. Each part's content
+ * is a stream read straight off the body, which for a large upload is the
+ * temporary file it was spilled to, so a part never has to fit in memory. A
+ * part can also be saved to a file of the plugin's choosing.
+ *
+ * Usage:
+ *
+ * <pre>
+ * MultipartReader parts = MultipartReader.open(request, route);
+ * MultipartReader.Part part;
+ * while ((part = parts.nextPart()) != null) {
+ * 	if (part.getFilename() != null) {
+ * 		part.saveTo(new File(uploads, part.getFilename()));
+ * 	}
+ * }
+ * parts.close();
+ * </pre>
+ *
+ * A part's filename is the client's choice. Only its last path segment is
+ * kept, so it can't name a file outside the directory it is saved in, but it
+ * may still clash with a file already there.
+ */
+public class MultipartReader {
+	public static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+	private static final Charset HEADER_CHARSET = Charset
+			.forName("ISO-8859-1");
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_HEADER_LENGTH = 16 * 1024;
+
+	/**
+	 * A part, or all parts together, went over the size they may have.
+	 */
+	public static class SizeLimitExceededException extends IOException {
+		private static final long serialVersionUID = 4213607735104387951L;
+
+		public SizeLimitExceededException(String message) {
+			super(message);
+		}
+	}
+
+	private InputStream in;
+	private byte[] delimiter;
+	private long maxPartSize;
+	private long maxTotalSize;
+
+	private byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+
+	private long totalSize = 0;
+	private Part current;
+	private boolean finished = false;
+
+	/**
+	 * @param body
+	 * @param boundary
+	 *            from the Content-Type of the request
+	 * @param maxPartSize
+	 *            bytes of content a single part may have, 0 or less for
+	 *            unlimited
+	 * @param maxTotalSize
+	 *            bytes of content all parts together may have, 0 or less for
+	 *            unlimited
+	 */
+	public MultipartReader(InputStream body, String boundary,
+			long maxPartSize, long maxTotalSize) {
+		this.in = body;
+		this.delimiter = (Protocol.CRLF + "--" + boundary)
+				.getBytes(HEADER_CHARSET);
+		this.maxPartSize = maxPartSize;
+		this.maxTotalSize = maxTotalSize;
+		this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+		// The first boundary has no line break before it - pretend it does,
+		// so every boundary looks the same
+		buffer[limit++] = Protocol.CR;
+		buffer[limit++] = Protocol.LF;
+	}
+
+	/**
+	 * Reads a request's multipart/form-data body, limited by the route's
+	 * MaxPartSize and MaxMultipartSize options.
+	 *
+	 * @param request
+	 * @param route
+	 *            may be null for no limits
+	 * @return null if the request has no multipart body
+	 * @throws IOException
+	 */
+	public static MultipartReader open(IHttpRequest request,
+			IResourceRoute route) throws IOException {
+		String boundary = getBoundary(request
+				.getHeader(Protocol.CONTENT_TYPE));
+		if (boundary == null) {
+			return null;
+		}
+		return new MultipartReader(request.getBody(), boundary, sizeOption(
+				route, ResourceStrategyRouteOptions.MaxPartSize), sizeOption(
+				route, ResourceStrategyRouteOptions.MaxMultipartSize));
+	}
+
+	/**
+	 * @param contentType
+	 * @return the boundary of a multipart/form-data content type, null for
+	 *         anything else
+	 */
+	public static String getBoundary(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		String type = parseParameters(contentType, parameters);
+		if (!type.equalsIgnoreCase(MULTIPART_FORM_DATA)) {
+			return null;
+		}
+		String boundary = parameters.get("boundary");
+		return boundary == null || boundary.isEmpty() ? null : boundary;
+	}
+
+	/**
+	 * Skips whatever is left of the current part.
+	 *
+	 * @return the next part, or null after the last one
+	 * @throws IOException
+	 *             if the body isn't valid multipart, or a limit was exceeded
+	 */
+	public Part nextPart() throws IOException {
+		if (finished) {
+			return null;
+		}
+
+		// Up to the next boundary: the rest of the current part, or the
+		// preamble before the first one
+		PartInputStream rest = current != null ? current.content
+				: new PartInputStream(false);
+		rest.skipToEnd();
+		current = null;
+
+		if (!ensureBuffered(2)) {
+			throw malformed();
+		}
+		if (buffer[position] == '-' && buffer[position + 1] == '-') {
+			finished = true; // The closing boundary, the rest is epilogue
+			return null;
+		}
+		readLine(); // Padding after the boundary
+
+		Map<String, String> headers = new TreeMap<String, String>(
+				String.CASE_INSENSITIVE_ORDER);
+		int headerLength = 0;
+		String line;
+		while (!(line = readLine()).isEmpty()) {
+			headerLength += line.length();
+			if (headerLength > MAX_HEADER_LENGTH) {
+				throw new SizeLimitExceededException(
+						"Multipart headers too long");
+			}
+			int separator = line.indexOf(Protocol.SEPERATOR);
+			if (separator > 0) {
+				headers.put(line.substring(0, separator).trim(), line
+						.substring(separator + 1).trim());
+			}
+		}
+
+		current = new Part(headers, new PartInputStream(true));
+		return current;
+	}
+
+	/**
+	 * Closes the body stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * One part of the body.
+	 */
+	public static class Part {
+		private Map<String, String> headers;
+		private Map<String, String> disposition = new LinkedHashMap<String, String>();
+		private PartInputStream content;
+
+		Part(Map<String, String> headers, PartInputStream content) {
+			this.headers = Collections.unmodifiableMap(headers);
+			this.content = content;
+
+			String contentDisposition = headers.get("Content-Disposition");
+			if (contentDisposition != null) {
+				parseParameters(contentDisposition, disposition);
+			}
+		}
+
+		/**
+		 * @return the part's headers, looked up without regard to case
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		public String getHeader(String key) {
+			return headers.get(key);
+		}
+
+		/**
+		 * @return name of the form field
+		 */
+		public String getName() {
+			return disposition.get("name");
+		}
+
+		/**
+		 * The client's name for the uploaded file, without any directories
+		 * it came with (some browsers send the whole path).
+		 *
+		 * @return name of the uploaded file, null if the part isn't a file
+		 *         or its name is left empty, "." or ".."
+		 */
+		public String getFilename() {
+			String filename = disposition.get("filename");
+			if (filename == null) {
+				return null;
+			}
+			filename = filename.substring(Math.max(filename.lastIndexOf('/'),
+					filename.lastIndexOf('\\')) + 1);
+			if (filename.isEmpty() || filename.equals(".")
+					|| filename.equals("..") || filename.indexOf('\0') >= 0) {
+				return null;
+			}
+			return filename;
+		}
+
+		public String getContentType() {
+			return headers.get(Protocol.CONTENT_TYPE);
+		}
+
+		/**
+		 * @return the part's content. Only valid until the next part is
+		 *         asked for.
+		 */
+		public InputStream getInputStream() {
+			return content;
+		}
+
+		/**
+		 * Writes the rest of the part's content to a file.
+		 *
+		 * @param file
+		 * @return bytes written
+		 * @throws IOException
+		 */
+		public long saveTo(File file) throws IOException {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				long written = 0;
+				byte[] chunk = new byte[Protocol.CHUNK_LENGTH];
+				int read;
+				while ((read = content.read(chunk)) >= 0) {
+					out.write(chunk, 0, read);
+					written += read;
+				}
+				return written;
+			} catch (IOException e) {
+				out.close();
+				file.delete();
+				throw e;
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Content up to the next boundary, which it consumes at the end.
+	 */
+	private class PartInputStream extends InputStream {
+		private boolean counted;
+		private long size = 0;
+		private boolean ended = false;
+
+		/**
+		 * @param counted
+		 *            whether the content counts against the size limits
+		 */
+		PartInputStream(boolean counted) {
+			this.counted = counted;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (ended) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+
+			ensureBuffered(delimiter.length);
+			int available = limit - position;
+			if (available < delimiter.length) {
+				throw malformed(); // Ends without a closing boundary
+			}
+
+			// Only where the next len bytes could be cut off by a boundary
+			int searchEnd = Math.min(position + len, limit - delimiter.length
+					+ 1);
+			int boundary = indexOfDelimiter(position, searchEnd);
+			int count;
+			if (boundary == position) {
+				position += delimiter.length;
+				ended = true;
+				return -1;
+			} else if (boundary >= 0) {
+				count = boundary - position;
+			} else {
+				// The last bytes might be the start of a boundary
+				count = Math.min(len, available - delimiter.length + 1);
+			}
+
+			System.arraycopy(buffer, position, b, off, count);
+			position += count;
+			if (counted) {
+				count(count);
+			}
+			return count;
+		}
+
+		void skipToEnd() throws IOException {
+			byte[] skipped = new byte[Protocol.CHUNK_LENGTH];
+			while (read(skipped, 0, skipped.length) >= 0) {
+				// Nobody wanted it
+			}
+		}
+
+		private void count(int count) throws SizeLimitExceededException {
+			size += count;
+			totalSize += count;
+			if (maxPartSize > 0 && size > maxPartSize) {
+				throw new SizeLimitExceededException("Part larger than "
+						+ maxPartSize + " bytes");
+			}
+			if (maxTotalSize > 0 && totalSize > maxTotalSize) {
+				throw new SizeLimitExceededException(
+						"Multipart body larger than " + maxTotalSize
+								+ " bytes");
+			}
+		}
+	}
+
+	/**
+	 * @return start of the first delimiter starting in [from, to), -1 if
+	 *         there is none
+	 */
+	private int indexOfDelimiter(int from, int to) {
+		outer: for (int i = from; i < to; i++) {
+			for (int j = 0; j < delimiter.length; j++) {
+				if (buffer[i + j] != delimiter[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a line of a part's headers, without its line break
+	 */
+	private String readLine() throws IOException {
+		int start = position;
+		while (true) {
+			for (int i = start; i < limit; i++) {
+				if (buffer[i] == Protocol.LF) {
+					int end = i > position && buffer[i - 1] == Protocol.CR ? i - 1
+							: i;
+					String line = new String(buffer, position, end - position,
+							HEADER_CHARSET);
+					position = i + 1;
+					return line;
+				}
+			}
+			int buffered = limit - position;
+			if (buffered >= buffer.length || !ensureBuffered(buffered + 1)) {
+				throw malformed(); // Line too long, or the body ended
+			}
+			start = position + buffered;
+		}
+	}
+
+	/**
+	 * Reads until at least count bytes are buffered, or the body ends.
+	 *
+	 * @return true if count bytes are buffered
+	 */
+	private boolean ensureBuffered(int count) throws IOException {
+		while (limit - position < count && !endOfInput) {
+			if (limit == buffer.length) {
+				System.arraycopy(buffer, position, buffer, 0, limit - position);
+				limit -= position;
+				position = 0;
+			}
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				endOfInput = true;
+			} else {
+				limit += read;
+			}
+		}
+		return limit - position >= count;
+	}
+
+	private static IOException malformed() {
+		return new IOException("Malformed multipart body");
+	}
+
+	/**
+	 * Parses a header value like
+	 * <code>form-data; name="field"; filename="a.txt"</code>.
+	 *
+	 * @param value
+	 * @param parameters
+	 *            receives the parameters, names in lower case
+	 * @return the value before the parameters
+	 */
+	private static String parseParameters(String value,
+			Map<String, String> parameters) {
+		String[] pieces = value.split(";");
+		for (int i = 1; i < pieces.length; i++) {
+			String piece = pieces[i].trim();
+			int equals = piece.indexOf('=');
+			if (equals <= 0) {
+				continue;
+			}
+			String parameter = piece.substring(equals + 1).trim();
+			if (parameter.length() >= 2 && parameter.startsWith("\"")
+					&& parameter.endsWith("\"")) {
+				parameter = parameter.substring(1, parameter.length() - 1);
+			}
+			parameters.put(piece.substring(0, equals).trim().toLowerCase(),
+					parameter);
+		}
+		return pieces[0].trim();
+	}
+
+	private static long sizeOption(IResourceRoute route, String option) {
+		String value = route != null ? route.getStrategyOption(option) : null;
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
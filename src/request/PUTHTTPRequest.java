@@ -28,7 +28,6 @@
 
 package request;
 
-import java.io.InputStreamReader;
 import java.net.Socket;
 
 /**
@@ -38,11 +37,6 @@ import java.net.Socket;
 // Request that is created for Delete
 public class PUTHTTPRequest extends HTTPRequest {
 
-	public PUTHTTPRequest(Socket socket, InputStreamReader reader)
-			throws Exception {
-		super(socket, reader);
-	}
-
 	/**
 	 * @param socket
 	 * @param headerMap
@@ -52,12 +46,4 @@ public class PUTHTTPRequest extends HTTPRequest {
 	public PUTHTTPRequest(Socket socket) throws Exception {
 		super(socket);
 	}
-
-	// Check to see if valid request
-	public void checkRequest() throws Exception {
-		if (this.bodyLength != this.body.length()) {
-			throw new Exception(
-					"Put request body length is not equal to expected content length.");
-		}
-	}
 }
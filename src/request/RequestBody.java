@@ -0,0 +1,243 @@
+package request;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * The body of a request, kept in memory while it is small and spilled to a
+ * temporary file once it grows past a threshold, so a large upload never has
+ * to fit on the heap. Nothing is decoded; strategies read the raw bytes with
+ * {@link #openStream()}.
+ *
+ * The temporary file is deleted by {@link #discard()}, once the response to
+ * the request has been written, unless {@link #moveTo(File)} made it the
+ * file the body was uploaded to.
+ */
+public class RequestBody {
+	public static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024;
+
+	private static final String TEMP_FILE_PREFIX = "sws-body";
+
+	private int spillThreshold;
+	private byte[] bytes;
+	private long length = 0;
+
+	private File file;
+	private OutputStream fileStream;
+	// The file is no longer ours to delete
+	private boolean kept = false;
+
+	/**
+	 * @param expectedLength
+	 *            bytes the client said it would send, -1 if it didn't say
+	 * @param spillThreshold
+	 *            bytes kept in memory before the body moves to a file
+	 */
+	public RequestBody(long expectedLength, int spillThreshold) {
+		this.spillThreshold = spillThreshold;
+		if (expectedLength >= 0 && expectedLength <= spillThreshold) {
+			bytes = new byte[(int) expectedLength];
+		} else {
+			bytes = new byte[Math.min(spillThreshold, 1024)];
+		}
+	}
+
+	/**
+	 * Adds bytes to the end of the body.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param count
+	 * @throws IOException
+	 *             if the body had to spill and the file can't be written
+	 */
+	public void write(byte[] data, int offset, int count) throws IOException {
+		if (file == null && length + count > spillThreshold) {
+			spill();
+		}
+		if (fileStream != null) {
+			fileStream.write(data, offset, count);
+		} else {
+			if (length + count > bytes.length) {
+				bytes = Arrays.copyOf(bytes,
+						(int) Math.min(spillThreshold,
+								Math.max(bytes.length * 2, length + count)));
+			}
+			System.arraycopy(data, offset, bytes, (int) length, count);
+		}
+		length += count;
+	}
+
+	/**
+	 * Called once the last byte is in.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (fileStream != null) {
+			fileStream.close();
+			fileStream = null;
+		}
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * @return a new stream over the whole body, from the first byte
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		if (file == null) {
+			return new ByteArrayInputStream(bytes, 0, (int) length);
+		}
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * Reads the whole body into a String. Only for bodies known to be text,
+	 * and small enough to hold in memory twice.
+	 *
+	 * @param charset
+	 * @throws IOException
+	 */
+	public String decode(Charset charset) throws IOException {
+		if (file == null) {
+			return new String(bytes, 0, (int) length, charset);
+		}
+		byte[] all = new byte[(int) Math.min(Integer.MAX_VALUE, length)];
+		InputStream in = openStream();
+		try {
+			int read = 0;
+			while (read < all.length) {
+				int count = in.read(all, read, all.length - read);
+				if (count < 0) {
+					break;
+				}
+				read += count;
+			}
+			return new String(all, 0, read, charset);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the body as target, which readers see either as it was or with
+	 * the whole body, never in between. A body that spilled is renamed into
+	 * place when the temporary file is on the same file system; otherwise
+	 * the bytes go through a temporary file next to target, copied channel
+	 * to channel, and that is renamed.
+	 *
+	 * @param target
+	 *            replaced if it exists
+	 * @throws IOException
+	 *             if target can't be written; it is left as it was
+	 */
+	public void moveTo(File target) throws IOException {
+		finish();
+		File directory = target.getAbsoluteFile().getParentFile();
+		if (directory != null && !directory.isDirectory()
+				&& !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory);
+		}
+
+		if (file != null && !kept) {
+			try {
+				Files.move(file.toPath(), target.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+				keep(target);
+				return;
+			} catch (AtomicMoveNotSupportedException differentFileSystem) {
+				// Copied below instead
+			}
+		}
+
+		File temp = File.createTempFile(TEMP_FILE_PREFIX, ".tmp", directory);
+		try {
+			FileChannel out = new FileOutputStream(temp).getChannel();
+			try {
+				if (file == null) {
+					ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (int) length);
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+				} else {
+					FileChannel in = new FileInputStream(file).getChannel();
+					try {
+						long position = 0;
+						while (position < length) {
+							long count = out.transferFrom(in, position, length
+									- position);
+							if (count <= 0) {
+								throw new IOException("Body file " + file
+										+ " ended early");
+							}
+							position += count;
+						}
+					} finally {
+						in.close();
+					}
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		if (file != null && !kept) {
+			file.delete();
+			keep(target);
+		}
+	}
+
+	/**
+	 * Deletes the temporary file, if the body spilled to one. Streams still
+	 * open on it keep working where the platform allows it.
+	 */
+	public void discard() {
+		if (fileStream != null) {
+			try {
+				fileStream.close();
+			} catch (IOException e) {
+				// Deleting it anyway
+			}
+			fileStream = null;
+		}
+		if (file != null && !kept) {
+			file.delete();
+		}
+	}
+
+	private void keep(File target) {
+		file = target;
+		kept = true;
+	}
+
+	private void spill() throws IOException {
+		file = File.createTempFile(TEMP_FILE_PREFIX, ".tmp");
+		fileStream = new FileOutputStream(file);
+		fileStream.write(bytes, 0, (int) length);
+		bytes = null;
+	}
+}
@@ -0,0 +1,162 @@
+package request;
+
+import interfaces.IResourceRoute;
+import configuration.ResourceStrategyConfiguration;
+import configuration.ResourceStrategyRouteOptions;
+import configuration.RoutingTable;
+import configuration.ServerConfiguration;
+import configuration.ServerOptions;
+
+/**
+ * How large a request may get before the parser gives up on it: the request
+ * line and headers together, the number of headers, and the body, both as
+ * sent and, for a compressed body, as inflated. A route can
+ * set its own limits with the same option names; they apply once the request
+ * line has shown which route the request is for.
+ */
+public class RequestLimits {
+	public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+	public static final int DEFAULT_MAX_HEADER_COUNT = 100;
+	// Never unlimited unless asked for, since a few KB can inflate to GBs
+	public static final long DEFAULT_MAX_INFLATED_BODY_SIZE = 100L * 1024 * 1024;
+
+	public static final RequestLimits DEFAULT = new RequestLimits(
+			DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_HEADER_COUNT, 0, null);
+
+	private int maxHeaderSize;
+	private int maxHeaderCount;
+	private long maxBodySize;
+	private long maxInflatedBodySize;
+
+	// Where the route limits come from, null if only these apply
+	private ServerConfiguration configuration;
+
+	/**
+	 * @param maxHeaderSize
+	 *            bytes of request line and headers, 0 or less for unlimited
+	 * @param maxHeaderCount
+	 *            0 or less for unlimited
+	 * @param maxBodySize
+	 *            bytes, 0 or less for unlimited
+	 * @param configuration
+	 *            to look up route limits in, null for none
+	 */
+	public RequestLimits(int maxHeaderSize, int maxHeaderCount,
+			long maxBodySize, ServerConfiguration configuration) {
+		this(maxHeaderSize, maxHeaderCount, maxBodySize,
+				DEFAULT_MAX_INFLATED_BODY_SIZE, configuration);
+	}
+
+	/**
+	 * @param maxHeaderSize
+	 *            bytes of request line and headers, 0 or less for unlimited
+	 * @param maxHeaderCount
+	 *            0 or less for unlimited
+	 * @param maxBodySize
+	 *            bytes, 0 or less for unlimited
+	 * @param maxInflatedBodySize
+	 *            bytes a compressed body may inflate to, 0 or less for
+	 *            unlimited
+	 * @param configuration
+	 *            to look up route limits in, null for none
+	 */
+	public RequestLimits(int maxHeaderSize, int maxHeaderCount,
+			long maxBodySize, long maxInflatedBodySize,
+			ServerConfiguration configuration) {
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxHeaderCount = maxHeaderCount;
+		this.maxBodySize = maxBodySize;
+		this.maxInflatedBodySize = maxInflatedBodySize;
+		this.configuration = configuration;
+	}
+
+	public static RequestLimits fromConfiguration(
+			ServerConfiguration configuration) {
+		return new RequestLimits(configuration.getIntegerConfigurationOption(
+				ServerOptions.MaxHeaderSize, DEFAULT_MAX_HEADER_SIZE),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.MaxHeaderCount, DEFAULT_MAX_HEADER_COUNT),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.MaxBodySize, 0), configuration
+						.getIntegerConfigurationOption(
+								ServerOptions.MaxInflatedBodySize,
+								(int) DEFAULT_MAX_INFLATED_BODY_SIZE),
+				configuration);
+	}
+
+	/**
+	 * @return the server's routes as they are now, null if these limits
+	 *         don't come from a server configuration
+	 */
+	public RoutingTable getRoutingTable() {
+		if (configuration == null) {
+			return null;
+		}
+		ResourceStrategyConfiguration routes = configuration
+				.getManagedResourceConfiguration();
+		return routes == null ? null : routes.getRoutingTable();
+	}
+
+	/**
+	 * @param route
+	 *            the request is for
+	 * @return the limits for the route, these if it sets none of its own
+	 */
+	public RequestLimits forRoute(IResourceRoute route) {
+		String headerSize = route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxHeaderSize);
+		String headerCount = route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxHeaderCount);
+		String bodySize = route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxBodySize);
+		String inflatedBodySize = route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxInflatedBodySize);
+		if (headerSize == null && headerCount == null && bodySize == null
+				&& inflatedBodySize == null) {
+			return this;
+		}
+		return new RequestLimits((int) parse(headerSize, maxHeaderSize),
+				(int) parse(headerCount, maxHeaderCount), parse(bodySize,
+						maxBodySize), parse(inflatedBodySize,
+						maxInflatedBodySize), null);
+	}
+
+	public int getMaxHeaderSize() {
+		return maxHeaderSize;
+	}
+
+	public int getMaxHeaderCount() {
+		return maxHeaderCount;
+	}
+
+	public long getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	public long getMaxInflatedBodySize() {
+		return maxInflatedBodySize;
+	}
+
+	public boolean isHeaderSizeExceeded(int size) {
+		return maxHeaderSize > 0 && size > maxHeaderSize;
+	}
+
+	public boolean isHeaderCountExceeded(int count) {
+		return maxHeaderCount > 0 && count > maxHeaderCount;
+	}
+
+	public boolean isBodySizeExceeded(long size) {
+		return maxBodySize > 0 && size > maxBodySize;
+	}
+
+	private static long parse(String value, long fallback) {
+		if (value == null) {
+			return fallback;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+}
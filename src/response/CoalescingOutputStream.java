@@ -0,0 +1,32 @@
+package response;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Lets the ResponseHandler write several responses to a client and send them
+ * with a single flush.
+ *
+ * Every response flushes its stream once it is written; those flushes are
+ * ignored here, so pipelined responses that complete together leave in as few
+ * writes as possible. A response larger than the buffer still streams through
+ * as the buffer fills. Only {@link #flushBatch()} pushes the bytes on.
+ */
+public class CoalescingOutputStream extends BufferedOutputStream {
+
+	public CoalescingOutputStream(OutputStream out, int size) {
+		super(out, size);
+	}
+
+	/**
+	 * Deferred until {@link #flushBatch()}.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+	}
+
+	public synchronized void flushBatch() throws IOException {
+		super.flush();
+	}
+}
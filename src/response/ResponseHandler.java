@@ -28,12 +28,12 @@
 
 package response;
 
+import interfaces.IHttpRequest;
 import interfaces.IRequestTask;
 import interfaces.IRequestTask.IRequestTaskCompletionListener;
 import interfaces.RequestTaskBase;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -43,17 +43,33 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import protocol.Protocol;
+import request.HTTPRequest;
+import server.ClientConnection;
+import server.OverloadGuard;
 import server.Server;
-import strategy.CancellableThreadPoolExecutor;
+import server.SocketConnection;
+import strategy.Bulkhead;
+import strategy.Bulkheads;
 import strategy.FutureRequestTask;
+import strategy.IRequestTaskExecutor;
 import strategy.ITaskEndedObserver;
 import strategy.InternalErrorStrategy;
 import strategy.RequestTaskWatchdog;
+import strategy.ServiceUnavailableStrategy;
+import strategy.VirtualThreadTaskExecutor;
 import configuration.ServerConfiguration;
+import configuration.ServerOptions;
 
 /**
  * Implements handling of IRequestTask instances to serve a collection of
@@ -64,27 +80,36 @@ import configuration.ServerConfiguration;
  * @author Chandan R. Rupakheti (rupakhcr@clarkson.edu)
  */
 public class ResponseHandler implements Runnable,
-		IRequestTaskCompletionListener, ITaskEndedObserver {
+		IRequestTaskCompletionListener, ITaskEndedObserver,
+		ClientConnection.IConnectionClosedListener {
 	private static final int DEFAULT_THREADS_ALLOCATED = 3;
 	private static final int MAXIMUM_THREADS_ALLOCATED = 5;
 
+	private static final String SHARED_BULKHEAD = "shared";
+
 	private static final int THREAD_KEEP_ALIVE = 10;
 
+	/**
+	 * Responses that complete together are gathered up to this many bytes
+	 * before anything is written to the client.
+	 */
+	private static final int COALESCED_WRITE_BUFFER = 4 * Protocol.CHUNK_LENGTH;
+
 	private Server server;
 
 	private RequestTaskWatchdog watchdog = new RequestTaskWatchdog();
+	private Thread watchdogThread;
 
 	/**
 	 * Can be used to get information about the current server's configuration.
 	 * Eventually should contain information such as desired thread pool size.
 	 * 
-	 * Not used at the moment. Available for future extension.
+	 * Selects which IRequestTaskExecutor runs the tasks.
 	 */
-	@SuppressWarnings("unused")
 	private ServerConfiguration serverConfig;
 
 	private List<Socket> clients;
-	private Map<Socket, OutputStream> clientOutStreams;
+	private Map<Socket, ClientConnection> clientConnections;
 
 	/**
 	 * Map a client's socket to that client's specific Queue of IRequestTask
@@ -94,29 +119,54 @@ public class ResponseHandler implements Runnable,
 
 	// Relies on Java's wait/notify, so the actual object class is unimportant.
 	private Object taskCompletionMonitor = new Object();
+	private boolean workPending = false;
 
 	/**
 	 * Handles details of scheduling Runnable tasks to be executed on an
 	 * available Thread. Manages Thread pool size and Thread lifetime. Wakes up
 	 * this Runnable when one is complete, so it can be written back to the
 	 * appropriate client.
+	 * 
+	 * With platform threads, the shared bulkhead: tasks of routes without
+	 * threads of their own.
 	 */
-	private CancellableThreadPoolExecutor activeTaskThreadPool;
+	private IRequestTaskExecutor activeTaskThreadPool;
 
 	/**
-	 * Represents all tasks that the handler still needs to evaluate. None have
-	 * begun evaluation. Each needs to wait for a thread to run on.
+	 * Every route with a MaxThreads option runs its tasks on threads of its
+	 * own, and queues them apart from the rest.
 	 * 
+	 * Null with virtual threads, where no task waits for a thread.
 	 */
-	private BlockingQueue<Runnable> tasksAwaitingExecution;
+	private Bulkheads bulkheads;
+
+	/**
+	 * Write to clients whose writes block, one at a time per client.
+	 */
+	private ExecutorService writers = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ResponseWriter-"
+							+ count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private Set<Socket> writing = Collections
+			.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
 
 	private volatile boolean stopped = false;
 
+	private AtomicLong responsesWritten = new AtomicLong();
+
 	public ResponseHandler(ServerConfiguration configuration, Server server) {
 		serverConfig = configuration;
 		this.server = server;
 		clients = Collections.synchronizedList(new ArrayList<Socket>());
-		clientOutStreams = new HashMap<Socket, OutputStream>();
+		clientConnections = new HashMap<Socket, ClientConnection>();
 		commonInit();
 	}
 
@@ -125,12 +175,12 @@ public class ResponseHandler implements Runnable,
 		serverConfig = configuration;
 		this.server = server;
 		this.clients = new ArrayList<Socket>();
-		clientOutStreams = new HashMap<Socket, OutputStream>();
+		clientConnections = new HashMap<Socket, ClientConnection>();
 		if (clients != null) {
 			this.clients.addAll(Arrays.asList(clients));
 
 			for (Socket socket : clients) {
-				clientOutStreams.put(socket, socket.getOutputStream());
+				clientConnections.put(socket, new SocketConnection(socket));
 			}
 		}
 		commonInit();
@@ -138,11 +188,31 @@ public class ResponseHandler implements Runnable,
 
 	private void commonInit() {
 		watchdog.registerObserver(this);
-		tasksAwaitingExecution = new PriorityBlockingQueue<Runnable>();
-		activeTaskThreadPool = new CancellableThreadPoolExecutor(
-				DEFAULT_THREADS_ALLOCATED, MAXIMUM_THREADS_ALLOCATED,
-				THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
-				tasksAwaitingExecution, watchdog);
+		if (serverConfig != null
+				&& ServerOptions.VirtualThreadModel.equalsIgnoreCase(serverConfig
+						.getConfigurationOption(ServerOptions.ThreadModel))) {
+			activeTaskThreadPool = new VirtualThreadTaskExecutor(watchdog);
+		} else {
+			Bulkhead shared;
+			if (serverConfig != null) {
+				shared = new Bulkhead(SHARED_BULKHEAD,
+						serverConfig.getIntegerConfigurationOption(
+								ServerOptions.TaskThreads,
+								DEFAULT_THREADS_ALLOCATED),
+						serverConfig.getIntegerConfigurationOption(
+								ServerOptions.MaxTaskThreads,
+								MAXIMUM_THREADS_ALLOCATED),
+						serverConfig.getIntegerConfigurationOption(
+								ServerOptions.MaxQueuedTasks, 0),
+						THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, watchdog);
+			} else {
+				shared = new Bulkhead(SHARED_BULKHEAD,
+						DEFAULT_THREADS_ALLOCATED, MAXIMUM_THREADS_ALLOCATED, 0,
+						THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, watchdog);
+			}
+			bulkheads = new Bulkheads(shared, watchdog);
+			activeTaskThreadPool = shared;
+		}
 
 		this.currentlyExecutingRequests = Collections
 				.synchronizedMap(new HashMap<Socket, Queue<FutureRequestTask<RequestTaskBase, Void>>>());
@@ -151,19 +221,33 @@ public class ResponseHandler implements Runnable,
 			this.clients = new ArrayList<Socket>();
 		}
 
-		new Thread(watchdog).start();
+		watchdogThread = new Thread(watchdog, "RequestTaskWatchdog");
+		watchdogThread.start();
 	}
 
-	public void addClientToServed(Socket client, OutputStream clientOut) {
+	public void addClientToServed(ClientConnection connection) {
+		Socket client = connection.getSocket();
 		synchronized (clients) {
 			if (!clients.contains(client)) {
 				clients.add(client);
-				clientOutStreams.put(client, clientOut);
+				clientConnections.put(client, connection);
+				connection.registerClosedListener(this);
 			}
 			// else we already were serving that client, so whatever
 		}
 	}
 
+	/**
+	 * Tells the ResponseHandler no more requests will come from this client.
+	 * It is closed as soon as all responses it is still owed are written.
+	 * 
+	 * @param connection
+	 */
+	public void inputFinished(ClientConnection connection) {
+		connection.shutdownInput();
+		signalWork();
+	}
+
 	/**
 	 * Asks the ResponseHandler to take control/ownership of the Task. It will
 	 * be scheduled, executed, and written to the given client at some time in
@@ -176,6 +260,22 @@ public class ResponseHandler implements Runnable,
 	 *             ResponseHandler. Try calling addClientToServed first.
 	 */
 	public void enqueueRequestTaskForClient(RequestTaskBase task, Socket client) {
+		enqueueRequestTasksForClient(Collections.singletonList(task), client);
+	}
+
+	/**
+	 * Submits a batch of pipelined requests from one client together, so they
+	 * can run in parallel. Responses are still written in the order of the
+	 * list.
+	 * 
+	 * @param tasks
+	 * @param client
+	 * @throws IllegalStateException
+	 *             if the specified client is not already served by
+	 *             ResponseHandler. Try calling addClientToServed first.
+	 */
+	public void enqueueRequestTasksForClient(List<RequestTaskBase> tasks,
+			Socket client) {
 		synchronized (clients) {
 			if (!clients.contains(client)) {
 				// We aren't serving that client, and we don't want to.
@@ -187,6 +287,10 @@ public class ResponseHandler implements Runnable,
 			}
 		}
 
+		OverloadGuard overloadGuard = server != null ? server
+				.getOverloadGuard() : null;
+		List<FutureRequestTask<RequestTaskBase, Void>> rejected = new ArrayList<FutureRequestTask<RequestTaskBase, Void>>();
+
 		synchronized (currentlyExecutingRequests) {
 			Queue<FutureRequestTask<RequestTaskBase, Void>> clientsQueue = currentlyExecutingRequests
 					.get(client);
@@ -195,17 +299,90 @@ public class ResponseHandler implements Runnable,
 				currentlyExecutingRequests.put(client, clientsQueue);
 			}
 
-			task.setRequestingClient(client);
-			task.registerCompletionListener(this);
-			task.setServer(server);
+			for (RequestTaskBase task : tasks) {
+				IRequestTaskExecutor executor = activeTaskThreadPool;
+				boolean turnedAway;
+				if (bulkheads != null) {
+					Bulkhead bulkhead = bulkheads.forTask(task);
+					turnedAway = !bulkhead.tryAdmit();
+					executor = bulkhead;
+				} else {
+					turnedAway = overloadGuard != null
+							&& overloadGuard.isTaskQueueFull(this);
+				}
+				if (turnedAway) {
+					// Too much work already waiting - turn it away right now
+					// instead of letting every client time out
+					task = new ServiceUnavailableStrategy(
+							overloadGuard != null ? overloadGuard
+									.getRetryAfterSeconds()
+									: OverloadGuard.DEFAULT_RETRY_AFTER_SECONDS)
+							.prepareEvaluation(task.getRequest(), null);
+					task.setKeepAlive(null);
+				}
+
+				task.setRequestingClient(client);
+				task.registerCompletionListener(this);
+				task.setServer(server);
+
+				FutureRequestTask<RequestTaskBase, Void> future;
+				if (turnedAway) {
+					future = new FutureRequestTask<RequestTaskBase, Void>(task);
+					rejected.add(future);
+				} else {
+					// ThreadPoolExecutor will handle scheduling and running
+					// the task
+					future = executor.submit(task);
+				}
+				clientsQueue.add(future);
+			}
+		}
 
-			// ThreadPoolExecutor will handle scheduling and running the task
-			FutureRequestTask<RequestTaskBase, Void> future = activeTaskThreadPool
-					.submit(task);
-			clientsQueue.add(future);
+		// Complete without a thread of their own. Not while holding the lock
+		// above, completion needs the taskCompletionMonitor
+		for (FutureRequestTask<RequestTaskBase, Void> future : rejected) {
+			future.run();
 		}
 	}
 
+	/**
+	 * @return number of request tasks of routes without threads of their
+	 *         own waiting to be evaluated
+	 */
+	public int getQueuedTaskCount() {
+		return activeTaskThreadPool.getQueuedTaskCount();
+	}
+
+	/**
+	 * @return the shared bulkhead and those of the routes, for watching how
+	 *         saturated each is. Empty with virtual threads.
+	 */
+	public List<Bulkhead> getBulkheads() {
+		if (bulkheads == null) {
+			return Collections.emptyList();
+		}
+		return bulkheads.getBulkheads();
+	}
+
+	/**
+	 * @return number of responses written to clients so far
+	 */
+	public long getResponsesWritten() {
+		return responsesWritten.get();
+	}
+
+	/**
+	 * Ends the handler's thread along with the task executor and watchdog.
+	 * Tasks already running are left to finish, but nothing more is written;
+	 * clients still owed a response should be closed by the caller.
+	 */
+	public void stop() {
+		stopped = true;
+		signalWork();
+		watchdog.stop();
+		watchdogThread.interrupt();
+	}
+
 	/**
 	 * Blocks on taskCompletion monitor to be notified whenever a IRequestTask
 	 * completes. Prevents busy waiting.
@@ -214,73 +391,177 @@ public class ResponseHandler implements Runnable,
 	 * complete (and writeable) requests, serving all requests possible before
 	 * waiting for another notification.
 	 * 
+	 * Writing happens without holding the monitor or the list of clients, so
+	 * a client that is slow to read can't hold up task completion or the
+	 * arrival of new clients. Writes that can block (to a plain Socket) are
+	 * done on a writer thread of the client's own, so they can't hold up the
+	 * responses of other clients either. A write that stalls for good is
+	 * ended by the connection's write deadline.
 	 */
 	@Override
 	public void run() {
-		synchronized (taskCompletionMonitor) {
-			while (!stopped) {
-				try {
-					taskCompletionMonitor.wait();
+		while (!stopped) {
+			try {
+				synchronized (taskCompletionMonitor) {
+					while (!workPending && !stopped) {
+						taskCompletionMonitor.wait();
+					}
+					workPending = false;
+				}
 
-					synchronized (clients) {
-						for (Socket socket : clients) {
-							Queue<FutureRequestTask<RequestTaskBase, Void>> clientTaskQueue = currentlyExecutingRequests
-									.get(socket);
+				flushAllClients();
+			} catch (InterruptedException e) {
+				// TODO Log this error and learn what it means, someday
+			}
+		}
 
-							if (clientTaskQueue == null) {
-								continue; // Probably shouldn't happen, but
-											// OSTRICH
-											// MODE ENABLED
-							}
+		if (bulkheads != null) {
+			bulkheads.shutdown();
+		} else {
+			activeTaskThreadPool.shutdown();
+		}
+		writers.shutdown();
+	}
+
+	private void flushAllClients() {
+		List<Socket> servedClients;
+		synchronized (clients) {
+			servedClients = new ArrayList<Socket>(clients);
+		}
+
+		for (Socket socket : servedClients) {
+			ClientConnection connection;
+			synchronized (clients) {
+				connection = clientConnections.get(socket);
+			}
+			if (connection == null) {
+				continue;
+			}
 
-							boolean finished = flushAllCompletedRequests(
-									clientOutStreams.get(socket),
-									clientTaskQueue);
-							if (finished) {
-								socket.close();
+			if (!connection.isWriteBlocking()) {
+				flushClient(connection, socket);
+			} else if (hasWorkFor(connection, socket) && writing.add(socket)) {
+				// Blocks until the client reads, so not on this thread
+				final ClientConnection blockingConnection = connection;
+				final Socket blockingSocket = socket;
+				try {
+					writers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								flushClient(blockingConnection, blockingSocket);
+							} finally {
+								writing.remove(blockingSocket);
+								// Catches up on what completed meanwhile
+								signalWork();
 							}
 						}
-					}
-
-				} catch (InterruptedException | IOException e) {
-					// TODO Log this error and learn what it means, someday
+					});
+				} catch (RejectedExecutionException stopping) {
+					writing.remove(socket);
 				}
 			}
 		}
+	}
 
-		activeTaskThreadPool.shutdown();
+	/**
+	 * @param connection
+	 * @param socket
+	 * @return true if a sweep has something to write to the client, or has
+	 *         to let go of it
+	 */
+	private boolean hasWorkFor(ClientConnection connection, Socket socket) {
+		if (connection.isClosed()
+				|| (connection.isInputShutdown() && !connection
+						.hasOutstandingResponses())) {
+			return true;
+		}
+		synchronized (currentlyExecutingRequests) {
+			Queue<FutureRequestTask<RequestTaskBase, Void>> tasks = currentlyExecutingRequests
+					.get(socket);
+			return tasks != null && !tasks.isEmpty()
+					&& tasks.peek().getTask().isComplete();
+		}
+	}
+
+	/**
+	 * Writes whatever the client can be sent, and lets go of it once it is
+	 * owed nothing more.
+	 */
+	private void flushClient(ClientConnection connection, Socket socket) {
+		boolean finished = connection.isClosed();
+		if (!finished) {
+			try {
+				finished = flushAllCompletedRequests(connection, socket);
+			} catch (IOException e) {
+				finished = true;
+			}
+		}
+		if (!finished) {
+			// Persistent connections stay open until the client stops
+			// sending requests
+			finished = connection.isInputShutdown()
+					&& !connection.hasOutstandingResponses();
+		}
+
+		if (finished) {
+			connection.close();
+
+			// Done with this client for good
+			synchronized (clients) {
+				clients.remove(socket);
+				clientConnections.remove(socket);
+			}
+			abandonQueuedTasks(socket);
+			currentlyExecutingRequests.remove(socket);
+		}
 	}
 
 	/**
 	 * Performs a blocking write operation. Always call from a background
 	 * (blockable) thread.
 	 * 
-	 * Given a Socket that represents a HTTP client and a queue of IRequestTask
-	 * associated with that client, writes the finished requests out to that
-	 * client. Only writes completed requests. Stops writing as soon as it
-	 * encounters an incomplete task in order to maintain ordering of
-	 * requests/response.
+	 * Given a Socket that represents a HTTP client, writes the finished
+	 * requests out to that client. Only writes completed requests. Stops
+	 * writing as soon as it encounters an incomplete task in order to
+	 * maintain ordering of requests/response.
 	 * 
+	 * Everything that is ready goes out with a single flush at the end,
+	 * rather than one per response.
+	 * 
+	 * @param connection
 	 * @param client
-	 * @param tasks
+	 * @return true if the client's connection has to be closed now
 	 */
-	private boolean flushAllCompletedRequests(OutputStream outStream,
-			Queue<FutureRequestTask<RequestTaskBase, Void>> tasks) {
+	private boolean flushAllCompletedRequests(ClientConnection connection,
+			Socket client) throws IOException {
+		List<FutureRequestTask<RequestTaskBase, Void>> completed = takeCompletedTasks(client);
+		if (completed.isEmpty()) {
+			return false;
+		}
 
-		while (!tasks.isEmpty()) {
-			FutureRequestTask<RequestTaskBase, Void> future = tasks.peek();
-			RequestTaskBase currentTask = future.getTask();
-			if (!currentTask.isComplete()) {
-				break; // we're done here
-			}
+		CoalescingOutputStream outStream = new CoalescingOutputStream(
+				connection.getOutputStream(), COALESCED_WRITE_BUFFER);
+		boolean closeConnection = false;
 
+		for (FutureRequestTask<RequestTaskBase, Void> future : completed) {
 			watchdog.markTaskComplete(future);
-			tasks.remove(); // grabbed it in peek
+			RequestTaskBase currentTask = future.getTask();
+			if (closeConnection) {
+				requestFinished(currentTask);
+				continue; // Can't be delivered anymore
+			}
 
+			boolean writeFailed = false;
 			try {
 				currentTask.writeResponse(outStream);
 			} catch (IOException exp) {
-				// TODO Log the exception, and close the socket
+				writeFailed = true;
+			}
+			requestFinished(currentTask);
+			connection.responseWritten();
+			if (!writeFailed) {
+				responsesWritten.incrementAndGet();
 			}
 
 			long startedTimeStamp = currentTask.getStartTime();
@@ -290,8 +571,66 @@ public class ResponseHandler implements Runnable,
 					finishedTimeStamp - startedTimeStamp,
 					currentTask.wasSuccessful(), currentTask.getRequest());
 
+			if (writeFailed || !currentTask.isPersistentConnection()) {
+				// Anything queued behind it can't be delivered anymore
+				abandonQueuedTasks(client);
+				closeConnection = true;
+			}
+		}
+
+		try {
+			outStream.flushBatch();
+		} catch (IOException exp) {
+			closeConnection = true;
+		}
+		return closeConnection;
+	}
+
+	/**
+	 * @param client
+	 * @return the completed tasks at the head of the client's queue, removed
+	 *         from it, in order
+	 */
+	private List<FutureRequestTask<RequestTaskBase, Void>> takeCompletedTasks(
+			Socket client) {
+		List<FutureRequestTask<RequestTaskBase, Void>> completed = new ArrayList<FutureRequestTask<RequestTaskBase, Void>>();
+		synchronized (currentlyExecutingRequests) {
+			Queue<FutureRequestTask<RequestTaskBase, Void>> tasks = currentlyExecutingRequests
+					.get(client);
+			while (tasks != null && !tasks.isEmpty()
+					&& tasks.peek().getTask().isComplete()) {
+				completed.add(tasks.remove());
+			}
+		}
+		return completed;
+	}
+
+	private void abandonQueuedTasks(Socket client) {
+		synchronized (currentlyExecutingRequests) {
+			Queue<FutureRequestTask<RequestTaskBase, Void>> tasks = currentlyExecutingRequests
+					.get(client);
+			if (tasks == null) {
+				return;
+			}
+			for (FutureRequestTask<RequestTaskBase, Void> abandoned : tasks) {
+				watchdog.markTaskComplete(abandoned);
+				requestFinished(abandoned.getTask());
+			}
+			tasks.clear();
+		}
+	}
+
+	/**
+	 * Lets go of what the request's body is held in, e.g. a temporary file.
+	 * 
+	 * @param task
+	 *            whose response is written, or never will be
+	 */
+	private static void requestFinished(RequestTaskBase task) {
+		IHttpRequest request = task.getRequest();
+		if (request instanceof HTTPRequest) {
+			((HTTPRequest) request).discardBody();
 		}
-		return tasks.isEmpty();
 	}
 
 	/**
@@ -304,16 +643,31 @@ public class ResponseHandler implements Runnable,
 	 */
 	@Override
 	public void taskComplete(IRequestTask completed) {
-		// TODO Consider finding a way to coalesce multiple incoming completion
-		// requests together to only execute write operation once
+		// Completions arriving while a sweep is writing are handled together
+		// by the next one
+		signalWork();
+	}
+
+	/**
+	 * A client closed by someone else (e.g. for being idle) is let go of.
+	 */
+	@Override
+	public void connectionClosed(ClientConnection connection) {
+		signalWork();
+	}
+
+	private void signalWork() {
 		synchronized (taskCompletionMonitor) {
+			workPending = true;
 			taskCompletionMonitor.notifyAll();
 		}
 	}
 
 	/**
-	 * Since we killed the client's actual request, we will go ahead and queue
-	 * up another request that will just serve them a 500.
+	 * Since we killed the client's actual request, we will go ahead and answer
+	 * it with a 500 instead. The 500 takes the killed request's place in the
+	 * client's queue, so the responses of requests pipelined behind it are
+	 * still written after it, in order.
 	 * 
 	 * The InternalErrorStrategy task executes immediately and will create
 	 * minimal overhead.
@@ -325,14 +679,31 @@ public class ResponseHandler implements Runnable,
 		RequestTaskBase errorTask = new InternalErrorStrategy()
 				.prepareEvaluation(task.getRequest(), null);
 
-		Queue<FutureRequestTask<RequestTaskBase, Void>> clientQueue = this.currentlyExecutingRequests
-				.get(client);
-		if (clientQueue != null) {
-			clientQueue.remove(new FutureRequestTask<RequestTaskBase, Void>(
-					task));
+		// Whatever made the request hang may well hang the next one, so
+		// don't trust the connection after
+		errorTask.setKeepAlive(null);
+		errorTask.setRequestingClient(client);
+		errorTask.registerCompletionListener(this);
+		errorTask.setServer(server);
+		FutureRequestTask<RequestTaskBase, Void> errorFuture = new FutureRequestTask<RequestTaskBase, Void>(
+				errorTask);
+
+		synchronized (currentlyExecutingRequests) {
+			Queue<FutureRequestTask<RequestTaskBase, Void>> clientQueue = this.currentlyExecutingRequests
+					.get(client);
+			if (clientQueue == null || !clientQueue.contains(killed)) {
+				return; // Client is already gone
+			}
+			List<FutureRequestTask<RequestTaskBase, Void>> queued = new ArrayList<FutureRequestTask<RequestTaskBase, Void>>(
+					clientQueue);
+			queued.set(queued.indexOf(killed), errorFuture);
+			clientQueue.clear();
+			clientQueue.addAll(queued);
 		}
 
-		enqueueRequestTaskForClient(errorTask, client);
+		// Not while holding the lock above, completion needs the
+		// taskCompletionMonitor
+		errorFuture.run();
 	}
 
 }
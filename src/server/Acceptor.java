@@ -0,0 +1,46 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Accepts connections from one listening socket and hands them to the Server.
+ * Several may run at once, each with its own listener bound with SO_REUSEPORT
+ * (the kernel spreads new connections across them), or all sharing one.
+ */
+public class Acceptor implements Runnable {
+	private Server server;
+	private ServerSocket listener;
+
+	public Acceptor(Server server, ServerSocket listener) {
+		this.server = server;
+		this.listener = listener;
+	}
+
+	@Override
+	public void run() {
+		while (!server.isStopping()) {
+			Socket connectionSocket;
+			try {
+				// This method block until somebody makes a request
+				connectionSocket = listener.accept();
+			} catch (IOException e) {
+				if (!server.isStopping()) {
+					server.acceptFailed(e);
+				}
+				return; // Listener is closed
+			}
+
+			try {
+				server.serveAcceptedConnection(connectionSocket);
+			} catch (IOException e) {
+				// Only this client is lost
+				try {
+					connectionSocket.close();
+				} catch (IOException closeFailed) {
+				}
+			}
+		}
+	}
+}
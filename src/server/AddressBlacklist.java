@@ -0,0 +1,304 @@
+package server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client addresses the server refuses to serve. Entries are single addresses
+ * or CIDR ranges ("10.0.0.0/8", "2001:db8::/32"), either for good or until
+ * they expire.
+ *
+ * Looking an address up walks a binary trie keyed by the address bits, one
+ * level per bit, so it costs the same however many entries there are and
+ * takes no lock. Adding entries is synchronized; they are rare.
+ *
+ * Entries are kept as text too, the way they are saved in blacklist.xml.
+ * Text that is not an address (a host name, say) is kept so it is saved
+ * again, but never matches.
+ */
+public class AddressBlacklist {
+	/**
+	 * Expiry of an entry that never expires.
+	 */
+	public static final long PERMANENT = Long.MAX_VALUE;
+
+	/**
+	 * Separates an entry from its expiry in the saved text.
+	 */
+	private static final String EXPIRY_SEPARATOR = ";";
+
+	private static class Node {
+		volatile Node zero;
+		volatile Node one;
+		// 0 if no entry ends here
+		volatile long expiresAt;
+	}
+
+	private Node ipv4Root = new Node();
+	private Node ipv6Root = new Node();
+
+	// Canonical entry text to its expiry
+	private Map<String, Long> entries = new ConcurrentHashMap<String, Long>();
+	private List<String> unparsedEntries = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * @param address
+	 * @return true if the address is in a range that has not expired
+	 */
+	public boolean contains(InetAddress address) {
+		return contains(address, System.currentTimeMillis());
+	}
+
+	public boolean contains(InetAddress address, long now) {
+		byte[] bits = address.getAddress();
+		Node node = bits.length == 4 ? ipv4Root : ipv6Root;
+		for (int i = 0; i < bits.length * 8; i++) {
+			if (node.expiresAt > now) {
+				return true; // A shorter prefix covers it
+			}
+			node = bit(bits, i) ? node.one : node.zero;
+			if (node == null) {
+				return false;
+			}
+		}
+		return node.expiresAt > now;
+	}
+
+	/**
+	 * Adds an address or range, or changes when it expires. Text that isn't
+	 * one is kept as it is.
+	 *
+	 * @param entry
+	 *            an address, a CIDR range, or either followed by ";" and the
+	 *            time it expires in epoch milliseconds
+	 * @return true if the entry was new
+	 */
+	public boolean add(String entry) {
+		entry = entry.trim();
+		long expiresAt = PERMANENT;
+		int separator = entry.lastIndexOf(EXPIRY_SEPARATOR);
+		if (separator >= 0) {
+			try {
+				expiresAt = Long.parseLong(entry.substring(separator + 1)
+						.trim());
+				entry = entry.substring(0, separator).trim();
+			} catch (NumberFormatException e) {
+				// Not an expiry then
+			}
+		}
+
+		Range range = Range.parse(entry);
+		if (range == null) {
+			synchronized (unparsedEntries) {
+				if (unparsedEntries.contains(entry)) {
+					return false;
+				}
+				return unparsedEntries.add(entry);
+			}
+		}
+		return add(range.address, range.prefixLength, expiresAt);
+	}
+
+	/**
+	 * @param address
+	 * @param prefixLength
+	 *            leading bits of the address that make up the range
+	 * @param expiresAt
+	 *            epoch milliseconds, {@link #PERMANENT} for never
+	 * @return true if the range was new or expired
+	 */
+	public synchronized boolean add(InetAddress address, int prefixLength,
+			long expiresAt) {
+		byte[] bits = address.getAddress();
+		prefixLength = Math.max(0, Math.min(prefixLength, bits.length * 8));
+
+		Node node = bits.length == 4 ? ipv4Root : ipv6Root;
+		for (int i = 0; i < prefixLength; i++) {
+			if (bit(bits, i)) {
+				if (node.one == null) {
+					node.one = new Node();
+				}
+				node = node.one;
+			} else {
+				if (node.zero == null) {
+					node.zero = new Node();
+				}
+				node = node.zero;
+			}
+		}
+		boolean added = node.expiresAt <= System.currentTimeMillis();
+		node.expiresAt = expiresAt;
+		entries.put(Range.format(bits, prefixLength), expiresAt);
+		return added;
+	}
+
+	/**
+	 * Bans a single address.
+	 *
+	 * @param address
+	 * @param expiresAt
+	 *            epoch milliseconds, {@link #PERMANENT} for never
+	 * @return true if the address was not already banned
+	 */
+	public boolean add(InetAddress address, long expiresAt) {
+		return add(address, address.getAddress().length * 8, expiresAt);
+	}
+
+	/**
+	 * Forgets entries that have expired. Lookups already ignore them.
+	 *
+	 * @param now
+	 */
+	public synchronized void removeExpired(long now) {
+		List<String> expired = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : entries.entrySet()) {
+			if (entry.getValue() <= now) {
+				expired.add(entry.getKey());
+			}
+		}
+		for (String range : expired) {
+			entries.remove(range);
+		}
+	}
+
+	/**
+	 * @return every entry as text that {@link #add(String)} accepts
+	 */
+	public List<String> toEntries() {
+		List<String> saved = new ArrayList<String>();
+		synchronized (unparsedEntries) {
+			saved.addAll(unparsedEntries);
+		}
+		for (Map.Entry<String, Long> entry : entries.entrySet()) {
+			if (entry.getValue() == PERMANENT) {
+				saved.add(entry.getKey());
+			} else {
+				saved.add(entry.getKey() + EXPIRY_SEPARATOR + entry.getValue());
+			}
+		}
+		return saved;
+	}
+
+	public int size() {
+		return entries.size() + unparsedEntries.size();
+	}
+
+	private static boolean bit(byte[] bits, int index) {
+		return (bits[index >> 3] & (0x80 >>> (index & 7))) != 0;
+	}
+
+	/**
+	 * An address and how many of its leading bits a range covers.
+	 */
+	private static class Range {
+		InetAddress address;
+		int prefixLength;
+
+		Range(InetAddress address, int prefixLength) {
+			this.address = address;
+			this.prefixLength = prefixLength;
+		}
+
+		/**
+		 * Takes "1.2.3.4", "1.2.3.0/24", "::1", "2001:db8::/32", and the
+		 * "host/1.2.3.4" or "/1.2.3.4" of InetAddress.toString(). Never
+		 * looks a host name up.
+		 *
+		 * @param text
+		 * @return null if the text is none of those
+		 */
+		static Range parse(String text) {
+			int prefixLength = -1;
+			int slash = text.lastIndexOf('/');
+			if (slash >= 0) {
+				String after = text.substring(slash + 1);
+				if (isDigits(after) && slash > 0) {
+					prefixLength = Integer.parseInt(after);
+					text = text.substring(0, slash);
+				} else {
+					text = after; // InetAddress.toString()
+				}
+			}
+
+			byte[] bits = parseIPv4(text);
+			InetAddress address = null;
+			try {
+				if (bits != null) {
+					address = InetAddress.getByAddress(bits);
+				} else if (text.indexOf(':') >= 0) {
+					// Literal, so there is no lookup
+					address = InetAddress.getByName(text);
+				}
+			} catch (UnknownHostException e) {
+				return null;
+			}
+			if (address == null) {
+				return null;
+			}
+
+			int maximum = address.getAddress().length * 8;
+			if (prefixLength < 0 || prefixLength > maximum) {
+				prefixLength = maximum;
+			}
+			return new Range(address, prefixLength);
+		}
+
+		/**
+		 * @param bits
+		 * @param prefixLength
+		 * @return the range as text, the bare address for a single one
+		 */
+		static String format(byte[] bits, int prefixLength) {
+			byte[] masked = bits.clone();
+			for (int i = prefixLength; i < masked.length * 8; i++) {
+				masked[i >> 3] &= ~(0x80 >>> (i & 7));
+			}
+			String address;
+			try {
+				address = InetAddress.getByAddress(masked).getHostAddress();
+			} catch (UnknownHostException e) {
+				throw new IllegalArgumentException(e); // Length is checked
+			}
+			return prefixLength == masked.length * 8 ? address : address
+					+ "/" + prefixLength;
+		}
+
+		private static byte[] parseIPv4(String text) {
+			String[] parts = text.split("\\.", -1);
+			if (parts.length != 4) {
+				return null;
+			}
+			byte[] bits = new byte[4];
+			for (int i = 0; i < 4; i++) {
+				if (!isDigits(parts[i]) || parts[i].length() > 3) {
+					return null;
+				}
+				int value = Integer.parseInt(parts[i]);
+				if (value > 255) {
+					return null;
+				}
+				bits[i] = (byte) value;
+			}
+			return bits;
+		}
+
+		private static boolean isDigits(String text) {
+			if (text.isEmpty()) {
+				return false;
+			}
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c < '0' || c > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
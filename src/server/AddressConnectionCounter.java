@@ -0,0 +1,176 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the connections each client address, and each subnet, has open, and
+ * refuses one that would go over a cap. Acquiring and releasing are a map
+ * lookup and a compare-and-set; an address's counter is dropped once it has
+ * no connections left, so only clients that are connected take up memory.
+ */
+public class AddressConnectionCounter {
+	public static final int DEFAULT_IPV4_SUBNET_PREFIX = 24;
+	public static final int DEFAULT_IPV6_SUBNET_PREFIX = 64;
+
+	// A counter that reached 0 is retired like this before it is removed, so
+	// nobody counts on one that is no longer in the map
+	private static final int RETIRED = -1;
+
+	private int maxPerAddress;
+	private int maxPerSubnet;
+	private int ipv4SubnetPrefix;
+	private int ipv6SubnetPrefix;
+
+	private ConcurrentHashMap<AddressKey, AtomicInteger> addressCounts = new ConcurrentHashMap<AddressKey, AtomicInteger>();
+	private ConcurrentHashMap<AddressKey, AtomicInteger> subnetCounts = new ConcurrentHashMap<AddressKey, AtomicInteger>();
+
+	/**
+	 * @param maxPerAddress
+	 *            0 or less for unlimited
+	 * @param maxPerSubnet
+	 *            0 or less for unlimited
+	 * @param ipv4SubnetPrefix
+	 *            leading bits that make up an IPv4 client's subnet
+	 * @param ipv6SubnetPrefix
+	 *            leading bits that make up an IPv6 client's subnet
+	 */
+	public AddressConnectionCounter(int maxPerAddress, int maxPerSubnet,
+			int ipv4SubnetPrefix, int ipv6SubnetPrefix) {
+		this.maxPerAddress = maxPerAddress;
+		this.maxPerSubnet = maxPerSubnet;
+		this.ipv4SubnetPrefix = Math.max(0, Math.min(32, ipv4SubnetPrefix));
+		this.ipv6SubnetPrefix = Math.max(0, Math.min(128, ipv6SubnetPrefix));
+	}
+
+	public boolean isEnabled() {
+		return maxPerAddress > 0 || maxPerSubnet > 0;
+	}
+
+	/**
+	 * @param address
+	 * @return true if the address (and its subnet) may open another
+	 *         connection, in which case it is counted until
+	 *         {@link #release(InetAddress)}
+	 */
+	public boolean tryAcquire(InetAddress address) {
+		byte[] bits = address.getAddress();
+		AddressKey addressKey = maxPerAddress > 0 ? new AddressKey(bits) : null;
+		if (addressKey != null
+				&& !acquire(addressCounts, addressKey, maxPerAddress)) {
+			return false;
+		}
+		if (maxPerSubnet > 0
+				&& !acquire(subnetCounts, subnetKey(bits), maxPerSubnet)) {
+			if (addressKey != null) {
+				release(addressCounts, addressKey);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param address
+	 *            of a connection counted by {@link #tryAcquire(InetAddress)}
+	 *            that is now closed
+	 */
+	public void release(InetAddress address) {
+		byte[] bits = address.getAddress();
+		if (maxPerAddress > 0) {
+			release(addressCounts, new AddressKey(bits));
+		}
+		if (maxPerSubnet > 0) {
+			release(subnetCounts, subnetKey(bits));
+		}
+	}
+
+	/**
+	 * @param address
+	 * @return connections the address has open, 0 if it isn't counted
+	 */
+	public int getConnectionCount(InetAddress address) {
+		AtomicInteger count = addressCounts.get(new AddressKey(address
+				.getAddress()));
+		return count == null ? 0 : Math.max(0, count.get());
+	}
+
+	/**
+	 * @return number of addresses with connections open
+	 */
+	public int getTrackedAddressCount() {
+		return addressCounts.size();
+	}
+
+	private static boolean acquire(
+			ConcurrentHashMap<AddressKey, AtomicInteger> counts,
+			AddressKey key, int max) {
+		while (true) {
+			AtomicInteger count = counts.get(key);
+			if (count == null) {
+				if (counts.putIfAbsent(key, new AtomicInteger(1)) == null) {
+					return true;
+				}
+				continue;
+			}
+
+			int current = count.get();
+			if (current == RETIRED) {
+				counts.remove(key, count);
+				continue;
+			}
+			if (current >= max) {
+				return false;
+			}
+			if (count.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private static void release(
+			ConcurrentHashMap<AddressKey, AtomicInteger> counts, AddressKey key) {
+		AtomicInteger count = counts.get(key);
+		if (count == null) {
+			return;
+		}
+		if (count.decrementAndGet() == 0 && count.compareAndSet(0, RETIRED)) {
+			counts.remove(key, count);
+		}
+	}
+
+	private AddressKey subnetKey(byte[] bits) {
+		int prefix = bits.length == 4 ? ipv4SubnetPrefix : ipv6SubnetPrefix;
+		byte[] masked = bits.clone();
+		for (int i = prefix; i < masked.length * 8; i++) {
+			masked[i >> 3] &= ~(0x80 >>> (i & 7));
+		}
+		return new AddressKey(masked);
+	}
+
+	/**
+	 * Address bytes, compared by value.
+	 */
+	private static final class AddressKey {
+		private byte[] bits;
+		private int hash;
+
+		AddressKey(byte[] bits) {
+			this.bits = bits;
+			this.hash = Arrays.hashCode(bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof AddressKey
+					&& Arrays.equals(bits, ((AddressKey) other).bits);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Saves an AddressBlacklist to blacklist.xml on a thread of its own, so the
+ * thread that bans a client never waits on the disk. Changes made close
+ * together are saved in one go, and the file is replaced in one step, so a
+ * crash mid-write can't leave half a blacklist behind.
+ */
+public class BlacklistWriter implements Runnable {
+	/**
+	 * How long to wait for further changes before saving.
+	 */
+	private static final long BATCH_MILLIS = 1000;
+
+	private AddressBlacklist blacklist;
+	private File file;
+
+	private Object changeMonitor = new Object();
+	private boolean changed = false;
+	private volatile boolean stopped = false;
+
+	public BlacklistWriter(AddressBlacklist blacklist, File file) {
+		this.blacklist = blacklist;
+		this.file = file;
+	}
+
+	/**
+	 * Reads the entries saved in the file into a new blacklist.
+	 *
+	 * @param file
+	 * @return an empty blacklist if there is no file
+	 */
+	@SuppressWarnings("unchecked")
+	public static AddressBlacklist load(File file) {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		if (file.exists()) {
+			for (String entry : (List<String>) new XStream().fromXML(file)) {
+				blacklist.add(entry);
+			}
+			blacklist.removeExpired(System.currentTimeMillis());
+		}
+		return blacklist;
+	}
+
+	/**
+	 * The blacklist changed and has to be saved. Returns right away.
+	 */
+	public void changed() {
+		synchronized (changeMonitor) {
+			changed = true;
+			changeMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Saves any change not saved yet, then ends the writer's thread.
+	 */
+	public void stop() {
+		stopped = true;
+		synchronized (changeMonitor) {
+			changeMonitor.notifyAll();
+		}
+		saveIfChanged();
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			try {
+				synchronized (changeMonitor) {
+					while (!changed && !stopped) {
+						changeMonitor.wait();
+					}
+				}
+				// Whatever else changes meanwhile goes into the same write
+				Thread.sleep(BATCH_MILLIS);
+			} catch (InterruptedException e) {
+				stopped = true;
+			}
+			saveIfChanged();
+		}
+	}
+
+	private synchronized void saveIfChanged() {
+		synchronized (changeMonitor) {
+			if (!changed) {
+				return;
+			}
+			changed = false;
+		}
+
+		blacklist.removeExpired(System.currentTimeMillis());
+		File scratch = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(scratch);
+			try {
+				new XStream().toXML(blacklist.toEntries(), out);
+			} finally {
+				out.close();
+			}
+			Files.move(scratch.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,
+					"Failed to save the blacklist to " + file, e);
+		}
+	}
+}
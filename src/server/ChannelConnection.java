@@ -0,0 +1,128 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import request.HTTPRequestBuffer;
+
+/**
+ * ClientConnection for a non-blocking SocketChannel owned by a
+ * ConnectionReactor.
+ *
+ * Nothing here ever touches the channel from outside the reactor's thread.
+ * Responses written through the OutputStream are collected in memory and, on
+ * flush, queued for the reactor to write whenever the channel is writable, so
+ * a slow client never blocks the thread that produced its response.
+ */
+public class ChannelConnection extends ClientConnection {
+	private SocketChannel channel;
+	private ConnectionReactor reactor;
+	private SelectionKey key;
+
+	private HTTPRequestBuffer requestBuffer = new HTTPRequestBuffer();
+	private Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<ByteBuffer>();
+	private OutputStream outStream = new ReactorOutputStream();
+	private volatile boolean aborted = false;
+
+	public ChannelConnection(SocketChannel channel, ConnectionReactor reactor) {
+		super(channel.socket());
+		this.channel = channel;
+		this.reactor = reactor;
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outStream;
+	}
+
+	/**
+	 * Writes only queue the bytes for the reactor.
+	 */
+	@Override
+	public boolean isWriteBlocking() {
+		return false;
+	}
+
+	/**
+	 * The reactor finishes writing whatever is queued before it actually
+	 * closes the channel.
+	 */
+	@Override
+	protected void closeConnection() {
+		reactor.requestWrite(this);
+	}
+
+	/**
+	 * The reactor drops whatever is queued and closes the channel right away.
+	 */
+	@Override
+	public void abort() {
+		aborted = true;
+		close();
+		// A close that was already waiting for the queue to drain
+		reactor.requestWrite(this);
+	}
+
+	boolean isAborted() {
+		return aborted;
+	}
+
+	HTTPRequestBuffer getRequestBuffer() {
+		return requestBuffer;
+	}
+
+	Queue<ByteBuffer> getPendingWrites() {
+		return pendingWrites;
+	}
+
+	SelectionKey getKey() {
+		return key;
+	}
+
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Collects everything written between flushes into one buffer, which is
+	 * then handed to the reactor as a single write.
+	 */
+	private class ReactorOutputStream extends OutputStream {
+		private ByteArrayOutputStream collected = new ByteArrayOutputStream();
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			collected.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len)
+				throws IOException {
+			collected.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (collected.size() == 0) {
+				return;
+			}
+			if (isClosed()) {
+				throw new IOException("Connection already closed");
+			}
+
+			pendingWrites.add(ByteBuffer.wrap(collected.toByteArray()));
+			collected.reset();
+			reactor.requestWrite(ChannelConnection.this);
+		}
+	}
+}
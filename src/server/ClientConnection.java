@@ -0,0 +1,297 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import protocol.HttpResponseFactory;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import request.HTTPRequestBuffer;
+
+/**
+ * Represents a single accepted client. The ResponseHandler writes completed
+ * responses through {@link #getOutputStream()} and closes the connection once
+ * it has nothing left to write. How those bytes actually reach the network is
+ * up to the implementation - a blocking Socket, or a SocketChannel owned by a
+ * ConnectionReactor.
+ *
+ * The Socket is still used to identify the client everywhere else in the
+ * server.
+ *
+ * A connection may carry many requests (see {@link KeepAlivePolicy}). Once
+ * its input is shut down no further requests are read from it, and the
+ * ResponseHandler closes it as soon as the outstanding responses are written.
+ *
+ * It also remembers when the request being read, and the response being
+ * written, got underway, so an IdleConnectionReaper can hold slow clients to
+ * the server's {@link ConnectionDeadlines}.
+ */
+public abstract class ClientConnection {
+
+	public interface IConnectionClosedListener {
+		public void connectionClosed(ClientConnection connection);
+	}
+
+	protected Socket socket;
+
+	private KeepAlivePolicy keepAlivePolicy;
+	private int requestsReceived = 0;
+	private AtomicInteger outstandingResponses = new AtomicInteger();
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	// When the phase currently being read or written started, 0 if it isn't
+	// in progress. The first request's headers are due counting from accept.
+	private volatile long headerReadStarted = lastActivity;
+	private volatile long bodyReadStarted = 0;
+	private volatile long writeStarted = 0;
+	private volatile boolean inputShutdown = false;
+	private volatile boolean closed = false;
+
+	private List<IConnectionClosedListener> closedListeners = new CopyOnWriteArrayList<IConnectionClosedListener>();
+
+	public ClientConnection(Socket socket) {
+		this.socket = socket;
+	}
+
+	public Socket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * Without a policy every connection is closed after its first request.
+	 *
+	 * @param keepAlivePolicy
+	 */
+	public void setKeepAlivePolicy(KeepAlivePolicy keepAlivePolicy) {
+		this.keepAlivePolicy = keepAlivePolicy;
+	}
+
+	public void registerClosedListener(IConnectionClosedListener listener) {
+		closedListeners.add(listener);
+	}
+
+	/**
+	 * Records that a request was read from this connection, and decides
+	 * whether the connection stays open for another one. Only called by the
+	 * thread reading requests off the connection.
+	 *
+	 * @param persistenceRequested
+	 *            whether the client (and route) allow keeping the connection
+	 *            open
+	 * @return true if the connection stays open after this request
+	 */
+	public boolean requestReceived(boolean persistenceRequested) {
+		requestsReceived++;
+		outstandingResponses.incrementAndGet();
+		markActive();
+
+		if (!persistenceRequested || keepAlivePolicy == null
+				|| !keepAlivePolicy.isEnabled()
+				|| requestsReceived >= keepAlivePolicy.getMaxRequests()) {
+			inputShutdown = true;
+			return false;
+		}
+		return true;
+	}
+
+	public void responseWritten() {
+		outstandingResponses.decrementAndGet();
+		markActive();
+	}
+
+	public void markActive() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * Called by the thread reading requests after every read, once all
+	 * complete requests have been taken out of the buffer.
+	 *
+	 * @param requestBuffer
+	 *            holding whatever is left of the next request
+	 */
+	public void readProgress(HTTPRequestBuffer requestBuffer) {
+		long now = System.currentTimeMillis();
+		if (requestBuffer.isReadingBody()) {
+			headerReadStarted = 0;
+			if (bodyReadStarted == 0) {
+				bodyReadStarted = now;
+			}
+		} else if (!requestBuffer.isEmpty()) {
+			bodyReadStarted = 0;
+			if (headerReadStarted == 0) {
+				headerReadStarted = now;
+			}
+		} else {
+			// Between requests - only the keep-alive timeout applies
+			headerReadStarted = 0;
+			bodyReadStarted = 0;
+		}
+	}
+
+	/**
+	 * A write to the client started, or made progress.
+	 */
+	public void writeStarted() {
+		writeStarted = System.currentTimeMillis();
+	}
+
+	/**
+	 * Everything handed to the connection so far has been written.
+	 */
+	public void writeFinished() {
+		writeStarted = 0;
+	}
+
+	public boolean isWriting() {
+		return writeStarted != 0;
+	}
+
+	/**
+	 * @param now
+	 * @param deadlines
+	 * @return true if the client has taken too long to send the request it is
+	 *         sending
+	 */
+	public boolean isReadOverdue(long now, ConnectionDeadlines deadlines) {
+		if (inputShutdown) {
+			return false; // Not reading anymore
+		}
+		long header = headerReadStarted;
+		long body = bodyReadStarted;
+		return (header != 0 && deadlines.getHeaderMillis() > 0 && now - header > deadlines
+				.getHeaderMillis())
+				|| (body != 0 && deadlines.getBodyMillis() > 0 && now - body > deadlines
+						.getBodyMillis());
+	}
+
+	/**
+	 * @param now
+	 * @param deadlines
+	 * @return true if a write has stalled on the client for too long
+	 */
+	public boolean isWriteOverdue(long now, ConnectionDeadlines deadlines) {
+		long started = writeStarted;
+		return started != 0 && deadlines.getWriteMillis() > 0
+				&& now - started > deadlines.getWriteMillis();
+	}
+
+	/**
+	 * Gives up on the request the client is too slow to send. If the client is
+	 * owed nothing else it is told so with 408 Request Timeout, otherwise the
+	 * responses it is owed are still written before the connection closes.
+	 */
+	public void readTimedOut() {
+		if (hasOutstandingResponses() || isWriting()) {
+			stopReading();
+			return;
+		}
+
+		try {
+			OutputStream out = getOutputStream();
+			HttpResponseFactory.createGenericErrorResponse(
+					HttpStatusCode.REQUEST_TIMEOUT, Protocol.CLOSE).write(out);
+			out.flush();
+		} catch (IOException e) {
+			// Closing it anyway
+		}
+		close();
+	}
+
+	/**
+	 * @param cutoff
+	 * @return true if nothing has happened on this connection since cutoff and
+	 *         no response is owed to the client
+	 */
+	public boolean isIdleSince(long cutoff) {
+		return outstandingResponses.get() == 0 && lastActivity < cutoff;
+	}
+
+	public boolean hasOutstandingResponses() {
+		return outstandingResponses.get() > 0;
+	}
+
+	/**
+	 * @return number of requests read whose responses are not written yet
+	 */
+	public int getOutstandingResponses() {
+		return outstandingResponses.get();
+	}
+
+	public KeepAlivePolicy getKeepAlivePolicy() {
+		return keepAlivePolicy;
+	}
+
+	/**
+	 * No further requests will be read from this connection.
+	 */
+	public void shutdownInput() {
+		inputShutdown = true;
+	}
+
+	/**
+	 * Stops reading requests off the socket itself, not just the bookkeeping.
+	 * Whoever is reading sees the end of the stream, so the connection is
+	 * closed once the responses it is still owed are written.
+	 */
+	public void stopReading() {
+		shutdownInput();
+		try {
+			socket.shutdownInput();
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	public boolean isInputShutdown() {
+		return inputShutdown;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection. Anything already handed to the OutputStream is
+	 * still delivered to the client before the connection goes away.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			inputShutdown = true;
+		}
+		closeConnection();
+
+		for (IConnectionClosedListener listener : closedListeners) {
+			listener.connectionClosed(this);
+		}
+	}
+
+	/**
+	 * Closes the connection without delivering what is still waiting to be
+	 * written, for a client that has stopped reading. Also ends a close
+	 * that is already waiting on such a write.
+	 */
+	public void abort() {
+		close();
+	}
+
+	/**
+	 * @return true if a write to the OutputStream blocks until the client
+	 *         reads it, false if it only queues the bytes
+	 */
+	public boolean isWriteBlocking() {
+		return true;
+	}
+
+	public abstract OutputStream getOutputStream() throws IOException;
+
+	protected abstract void closeConnection();
+}
@@ -0,0 +1,76 @@
+package server;
+
+import configuration.ServerConfiguration;
+import configuration.ServerOptions;
+
+/**
+ * How long a client may take to send each part of a request, and how long a
+ * response write may stall on a client that is not reading. Checked by the
+ * IdleConnectionReaper, so no connection needs a thread (or socket timeout)
+ * of its own to enforce them.
+ */
+public class ConnectionDeadlines {
+	public static final int DEFAULT_HEADER_TIMEOUT_SECONDS = 10;
+	public static final int DEFAULT_BODY_TIMEOUT_SECONDS = 30;
+	public static final int DEFAULT_WRITE_TIMEOUT_SECONDS = 30;
+
+	private long headerMillis;
+	private long bodyMillis;
+	private long writeMillis;
+
+	/**
+	 * Each 0 or less to turn that deadline off.
+	 *
+	 * @param headerSeconds
+	 * @param bodySeconds
+	 * @param writeSeconds
+	 */
+	public ConnectionDeadlines(int headerSeconds, int bodySeconds,
+			int writeSeconds) {
+		this.headerMillis = Math.max(0, headerSeconds) * 1000L;
+		this.bodyMillis = Math.max(0, bodySeconds) * 1000L;
+		this.writeMillis = Math.max(0, writeSeconds) * 1000L;
+	}
+
+	public static ConnectionDeadlines fromConfiguration(
+			ServerConfiguration configuration) {
+		return new ConnectionDeadlines(
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.HeaderTimeout,
+						DEFAULT_HEADER_TIMEOUT_SECONDS),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.BodyTimeout, DEFAULT_BODY_TIMEOUT_SECONDS),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.WriteTimeout,
+						DEFAULT_WRITE_TIMEOUT_SECONDS));
+	}
+
+	public boolean isEnabled() {
+		return headerMillis > 0 || bodyMillis > 0 || writeMillis > 0;
+	}
+
+	public long getHeaderMillis() {
+		return headerMillis;
+	}
+
+	public long getBodyMillis() {
+		return bodyMillis;
+	}
+
+	public long getWriteMillis() {
+		return writeMillis;
+	}
+
+	/**
+	 * @return the shortest deadline that is turned on, 0 if none is
+	 */
+	public long getShortestMillis() {
+		long shortest = 0;
+		for (long millis : new long[] { headerMillis, bodyMillis, writeMillis }) {
+			if (millis > 0 && (shortest == 0 || millis < shortest)) {
+				shortest = millis;
+			}
+		}
+		return shortest;
+	}
+}
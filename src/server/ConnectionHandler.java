@@ -21,20 +21,15 @@
 
 package server;
 
-import interfaces.IResourceRoute;
-import interfaces.IResourceStrategy;
-import interfaces.RequestTaskBase;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import protocol.HttpRequest;
+import protocol.Protocol;
 import request.HTTPRequest;
+import request.HTTPRequestBuffer;
 import request.HTTPRequestFactory;
 import response.ResponseHandler;
 import strategy.ResourceStrategyFinder;
@@ -52,9 +47,8 @@ public class ConnectionHandler implements Runnable {
 	private Socket socket;
 	private ResponseHandler responseHandler;
 	private HTTPRequestFactory requestFactory;
-	private ResourceStrategyFinder resourceStrategyMapper;
-
-	private Map<Socket, InputStream> clientInputStreams;
+	private RequestDispatcher dispatcher;
+	private ClientConnection connection;
 
 	private volatile boolean stopped = false;
 
@@ -64,19 +58,17 @@ public class ConnectionHandler implements Runnable {
 		this.setServer(server);
 		this.responseHandler = responseHandler;
 		this.requestFactory = requestFactory;
-		this.resourceStrategyMapper = resourceMapper;
-
-		this.clientInputStreams = Collections
-				.synchronizedMap(new HashMap<Socket, InputStream>());
+		this.dispatcher = new RequestDispatcher(responseHandler,
+				resourceMapper, server != null ? server.getRequestRateLimiter()
+						: null);
 	}
 
 	public void serverClientSocket(Socket client) throws IOException {
 		this.socket = client;
-		InputStream inStream = client.getInputStream();
-		OutputStream outStream = client.getOutputStream();
+		this.connection = new SocketConnection(client);
+		server.connectionOpened(connection);
 
-		this.clientInputStreams.put(client, inStream);
-		this.responseHandler.addClientToServed(client, outStream);
+		this.responseHandler.addClientToServed(connection);
 	}
 
 	/**
@@ -90,10 +82,6 @@ public class ConnectionHandler implements Runnable {
 		stopped = true;
 	}
 
-	private HTTPRequest awaitAndReadHttpRequest() {
-		return requestFactory.createRequest(socket);
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -110,25 +98,49 @@ public class ConnectionHandler implements Runnable {
 					"ConnectionHandler does not currently support serving multiple clients");
 		}
 
-		if (!this.stopped) {
-			HTTPRequest incomingRequest = awaitAndReadHttpRequest();
-			// Start the timer after a request comes in - no point counting dead
-			// time
-
-			long requestStartTimeStamp = System.currentTimeMillis();
-			IResourceRoute requestRoute = resourceStrategyMapper
-					.findRouteForRequest(incomingRequest);
-			IResourceStrategy strategyForRequest = resourceStrategyMapper
-					.getStrategyForResourceRoute(requestRoute);
-
-			RequestTaskBase requestTask = strategyForRequest.prepareEvaluation(
-					incomingRequest, requestRoute);
-			requestTask.setStartTime(requestStartTimeStamp);
-
-			responseHandler.enqueueRequestTaskForClient(requestTask, socket);
-			this.stopped = true;
-
+		HTTPRequestBuffer requestBuffer = new HTTPRequestBuffer();
+		byte[] readBuffer = new byte[Protocol.CHUNK_LENGTH];
+
+		try {
+			InputStream inStream = client.getInputStream();
+
+			// Keep reading requests for as long as the connection is
+			// persistent
+			while (!this.stopped && !connection.isInputShutdown()) {
+				int read = inStream.read(readBuffer);
+				if (read < 0) {
+					break; // Client is done sending requests
+				}
+				connection.markActive();
+				requestBuffer.append(readBuffer, 0, read);
+
+				// Everything the client has pipelined so far is submitted
+				// together
+				List<HTTPRequest> incomingRequests = requestFactory
+						.createRequests(client, requestBuffer);
+				if (!incomingRequests.isEmpty()) {
+					// Start the timer after a request comes in - no point
+					// counting dead time
+					long requestStartTimeStamp = System.currentTimeMillis();
+					dispatcher.dispatch(incomingRequests, connection,
+							requestStartTimeStamp);
+				}
+
+				HTTPRequest waitingRequest = requestBuffer
+						.takeContinueExpectation();
+				if (waitingRequest != null) {
+					dispatcher.expectContinue(waitingRequest, connection,
+							System.currentTimeMillis());
+				}
+				connection.readProgress(requestBuffer);
+			}
+		} catch (IOException e) {
+			// Client went away, or the connection was closed while idle
 		}
+
+		// A request cut off part way will never be finished
+		requestBuffer.discard();
+		responseHandler.inputFinished(connection);
 	}
 
 	public Server getServer() {
@@ -0,0 +1,262 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import protocol.Protocol;
+import request.HTTPRequest;
+import request.HTTPRequestFactory;
+
+/**
+ * One thread of the Selector connection model. Serves any number of
+ * non-blocking client channels: reads and frames their requests, hands
+ * complete requests to the RequestDispatcher (the same pipeline used by
+ * ConnectionHandler) and writes the responses back once the ResponseHandler
+ * has produced them.
+ *
+ * Every channel operation happens on the reactor's own thread. Other threads
+ * only queue work for it and wake up the selector.
+ */
+public class ConnectionReactor implements Runnable {
+	private Server server;
+	private Selector selector;
+	private RequestDispatcher dispatcher;
+	private HTTPRequestFactory requestFactory;
+
+	private Queue<ChannelConnection> newConnections = new ConcurrentLinkedQueue<ChannelConnection>();
+	private Queue<ChannelConnection> writeRequests = new ConcurrentLinkedQueue<ChannelConnection>();
+
+	// Only ever used on the reactor thread
+	private ByteBuffer readBuffer = ByteBuffer
+			.allocateDirect(Protocol.CHUNK_LENGTH);
+
+	private volatile boolean stopped = false;
+
+	public ConnectionReactor(Server server, RequestDispatcher dispatcher,
+			HTTPRequestFactory requestFactory) throws IOException {
+		this.server = server;
+		this.dispatcher = dispatcher;
+		this.requestFactory = requestFactory;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Takes ownership of a freshly accepted channel. Safe to call from any
+	 * thread.
+	 *
+	 * @param channel
+	 * @return the connection the channel is served as
+	 * @throws IOException
+	 */
+	public ChannelConnection register(SocketChannel channel)
+			throws IOException {
+		ChannelConnection connection = new ChannelConnection(channel, this);
+		server.connectionOpened(connection);
+		try {
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			connection.close();
+			channel.close();
+			throw e;
+		}
+
+		newConnections.add(connection);
+		selector.wakeup();
+		return connection;
+	}
+
+	/**
+	 * Asks the reactor to write whatever the connection has queued, and to
+	 * close it afterwards if the connection has been closed.
+	 *
+	 * @param connection
+	 */
+	void requestWrite(ChannelConnection connection) {
+		writeRequests.add(connection);
+		selector.wakeup();
+	}
+
+	public void stop() {
+		stopped = true;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				break;
+			}
+
+			registerNewConnections();
+			serviceWriteRequests();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				ChannelConnection connection = (ChannelConnection) key
+						.attachment();
+				try {
+					if (key.isValid() && key.isReadable()) {
+						read(connection);
+					}
+					if (key.isValid() && key.isWritable()) {
+						write(connection);
+					}
+				} catch (IOException e) {
+					abort(connection);
+				}
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			abort((ChannelConnection) key.attachment());
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// Shutting down anyway
+		}
+	}
+
+	private void registerNewConnections() {
+		ChannelConnection connection;
+		while ((connection = newConnections.poll()) != null) {
+			if (connection.isAborted()) {
+				abort(connection);
+				continue;
+			}
+			try {
+				connection.setKey(connection.getChannel().register(selector,
+						SelectionKey.OP_READ, connection));
+			} catch (IOException e) {
+				abort(connection);
+			}
+		}
+	}
+
+	private void serviceWriteRequests() {
+		ChannelConnection connection;
+		while ((connection = writeRequests.poll()) != null) {
+			SelectionKey key = connection.getKey();
+			if (key == null || !key.isValid()) {
+				continue;
+			}
+			try {
+				write(connection);
+			} catch (IOException e) {
+				abort(connection);
+			}
+		}
+	}
+
+	private void read(ChannelConnection connection) throws IOException {
+		SelectionKey key = connection.getKey();
+
+		readBuffer.clear();
+		int read = connection.getChannel().read(readBuffer);
+		if (read < 0) {
+			// Client is done sending requests
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			if (connection.hasOutstandingResponses()) {
+				dispatcher.getResponseHandler().inputFinished(connection);
+			} else {
+				abort(connection);
+			}
+			return;
+		}
+		connection.markActive();
+		readBuffer.flip();
+		connection.getRequestBuffer().append(readBuffer);
+
+		// Everything the client has pipelined so far is submitted together
+		List<HTTPRequest> requests = requestFactory.createRequests(
+				connection.getSocket(), connection.getRequestBuffer());
+		if (!requests.isEmpty()) {
+			dispatcher.getResponseHandler().addClientToServed(connection);
+			dispatcher.dispatch(requests, connection,
+					System.currentTimeMillis());
+		}
+
+		HTTPRequest waitingRequest = connection.getRequestBuffer()
+				.takeContinueExpectation();
+		if (waitingRequest != null) {
+			dispatcher.getResponseHandler().addClientToServed(connection);
+			dispatcher.expectContinue(waitingRequest, connection,
+					System.currentTimeMillis());
+		}
+		connection.readProgress(connection.getRequestBuffer());
+
+		if (connection.isInputShutdown()) {
+			// Last request on this connection - the ResponseHandler closes it
+			// once the response is written
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
+	private void write(ChannelConnection connection) throws IOException {
+		if (connection.isAborted()) {
+			abort(connection);
+			return;
+		}
+		SelectionKey key = connection.getKey();
+		Queue<ByteBuffer> pending = connection.getPendingWrites();
+
+		// Gather everything queued into one write
+		while (!pending.isEmpty()) {
+			ByteBuffer[] queued = pending.toArray(new ByteBuffer[0]);
+			if (connection.getChannel().write(queued) > 0
+					|| !connection.isWriting()) {
+				// Only time without progress counts against the deadline
+				connection.writeStarted();
+			}
+
+			ByteBuffer head;
+			while ((head = pending.peek()) != null && !head.hasRemaining()) {
+				pending.poll();
+			}
+			if (queued[queued.length - 1].hasRemaining()) {
+				break; // Socket buffer is full, wait until it is writable
+			}
+		}
+
+		if (!pending.isEmpty()) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			return;
+		}
+
+		connection.writeFinished();
+		if (connection.isClosed()) {
+			abort(connection);
+		} else {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void abort(ChannelConnection connection) {
+		connection.close();
+
+		SelectionKey key = connection.getKey();
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			connection.getChannel().close();
+		} catch (IOException e) {
+			// Nothing left to do for this client anyway
+		}
+		connection.getPendingWrites().clear();
+		connection.getRequestBuffer().discard();
+	}
+}
@@ -0,0 +1,93 @@
+package server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Closes persistent connections that have sat idle between requests for
+ * longer than the keep-alive timeout, and holds slow clients to the server's
+ * {@link ConnectionDeadlines}: a request that takes too long to arrive is
+ * answered with 408 Request Timeout, a write that stalls too long on a client
+ * that isn't reading closes the connection.
+ *
+ * One thread serves every connection: it wakes up a few times per timeout
+ * period and sweeps the registered connections, so an idle connection costs
+ * nothing but its entry in the set.
+ */
+public class IdleConnectionReaper implements Runnable,
+		ClientConnection.IConnectionClosedListener {
+	private static final long MINIMUM_SWEEP_MILLIS = 250;
+
+	private long idleTimeoutMillis;
+	private ConnectionDeadlines deadlines;
+	private long sweepMillis;
+	private Set<ClientConnection> connections;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param idleTimeoutMillis
+	 *            0 to leave idle connections open
+	 * @param deadlines
+	 */
+	public IdleConnectionReaper(long idleTimeoutMillis,
+			ConnectionDeadlines deadlines) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.deadlines = deadlines;
+
+		long shortest = deadlines.getShortestMillis();
+		if (idleTimeoutMillis > 0 && (shortest == 0 || idleTimeoutMillis < shortest)) {
+			shortest = idleTimeoutMillis;
+		}
+		this.sweepMillis = Math.max(MINIMUM_SWEEP_MILLIS, shortest / 4);
+		this.connections = Collections
+				.newSetFromMap(new ConcurrentHashMap<ClientConnection, Boolean>());
+	}
+
+	public void watch(ClientConnection connection) {
+		connections.add(connection);
+		connection.registerClosedListener(this);
+	}
+
+	@Override
+	public void connectionClosed(ClientConnection connection) {
+		connections.remove(connection);
+	}
+
+	public int getWatchedCount() {
+		return connections.size();
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			try {
+				Thread.sleep(sweepMillis);
+			} catch (InterruptedException e) {
+				stopped = true;
+				continue;
+			}
+
+			long now = System.currentTimeMillis();
+			long cutoff = now - idleTimeoutMillis;
+			for (ClientConnection connection : connections) {
+				// Closing also removes it from the set through
+				// connectionClosed
+				if (connection.isWriteOverdue(now, deadlines)) {
+					// Whatever it is still owed would never drain
+					connection.abort();
+				} else if (connection.isReadOverdue(now, deadlines)) {
+					connection.readTimedOut();
+				} else if (idleTimeoutMillis > 0
+						&& connection.isIdleSince(cutoff)) {
+					connection.close();
+				}
+			}
+		}
+	}
+}
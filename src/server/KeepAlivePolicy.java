@@ -0,0 +1,85 @@
+package server;
+
+import protocol.Protocol;
+import request.HTTPRequest;
+import configuration.ServerConfiguration;
+import configuration.ServerOptions;
+
+/**
+ * Decides how long, and for how many requests, a client's connection is kept
+ * open between requests (HTTP persistent connections).
+ */
+public class KeepAlivePolicy {
+	public static final int DEFAULT_TIMEOUT_SECONDS = 5;
+	public static final int DEFAULT_MAX_REQUESTS = 100;
+
+	private static final String HTTP_1_0 = "HTTP/1.0";
+
+	private int timeoutSeconds;
+	private int maxRequests;
+
+	public KeepAlivePolicy(int timeoutSeconds, int maxRequests) {
+		this.timeoutSeconds = timeoutSeconds;
+		this.maxRequests = maxRequests;
+	}
+
+	public static KeepAlivePolicy fromConfiguration(
+			ServerConfiguration configuration) {
+		return new KeepAlivePolicy(configuration.getIntegerConfigurationOption(
+				ServerOptions.KeepAliveTimeout, DEFAULT_TIMEOUT_SECONDS),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.MaxKeepAliveRequests,
+						DEFAULT_MAX_REQUESTS));
+	}
+
+	public boolean isEnabled() {
+		return timeoutSeconds > 0 && maxRequests > 0;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutSeconds * 1000L;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * @return value for the Keep-Alive response header
+	 */
+	public String getKeepAliveHeader() {
+		return String.format("timeout=%d, max=%d", timeoutSeconds, maxRequests);
+	}
+
+	/**
+	 * HTTP/1.1 connections are persistent unless the client sends
+	 * "Connection: close". HTTP/1.0 clients have to ask for it with
+	 * "Connection: keep-alive". Anything unparseable is never persistent.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public static boolean requestsPersistentConnection(HTTPRequest request) {
+		String version = request.getVersion();
+		if (version == null) {
+			return false;
+		}
+
+		String connection = request.getHeader(Protocol.CONNECTION);
+		if (HTTP_1_0.equalsIgnoreCase(version)) {
+			return connection != null
+					&& hasToken(connection, Protocol.OPEN);
+		}
+		return connection == null
+				|| !hasToken(connection, Protocol.CLOSE);
+	}
+
+	private static boolean hasToken(String headerValue, String token) {
+		for (String part : headerValue.split(",")) {
+			if (part.trim().equalsIgnoreCase(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
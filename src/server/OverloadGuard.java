@@ -0,0 +1,235 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import response.ResponseHandler;
+import configuration.ServerConfiguration;
+import configuration.ServerOptions;
+
+/**
+ * Keeps the server from taking on more than it can serve. Every accepted
+ * connection has to be admitted before a ConnectionHandler or reactor gets
+ * it, and holds one of a fixed number of permits until it is closed.
+ *
+ * When the server is full (too many connections, or too many request tasks
+ * waiting for a thread) a new client is either answered right away with a
+ * pre-encoded 503 Service Unavailable, or the accept loop waits until there
+ * is room again and the kernel's backlog absorbs the burst.
+ *
+ * A single client address (or subnet) can also be capped at a number of open
+ * connections. A client over its cap is always answered with 503 right away -
+ * one client's excess must not pause accepting for everyone else.
+ */
+public class OverloadGuard implements ClientConnection.IConnectionClosedListener {
+	public static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+	private static final long PAUSE_CHECK_MILLIS = 100;
+
+	private Semaphore connectionPermits;
+	private AddressConnectionCounter addressCounter;
+	private int maxQueuedTasks;
+	private boolean pauseWhenFull;
+	private int retryAfterSeconds;
+	private byte[] serviceUnavailableResponse;
+
+	/**
+	 * @param maxConnections
+	 *            0 or less for unlimited
+	 * @param maxQueuedTasks
+	 *            0 or less for unlimited
+	 * @param pauseWhenFull
+	 *            stop accepting instead of rejecting
+	 * @param retryAfterSeconds
+	 */
+	public OverloadGuard(int maxConnections, int maxQueuedTasks,
+			boolean pauseWhenFull, int retryAfterSeconds) {
+		this(maxConnections, maxQueuedTasks, pauseWhenFull, retryAfterSeconds,
+				null);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            0 or less for unlimited
+	 * @param maxQueuedTasks
+	 *            0 or less for unlimited
+	 * @param pauseWhenFull
+	 *            stop accepting instead of rejecting
+	 * @param retryAfterSeconds
+	 * @param addressCounter
+	 *            caps connections per client address and subnet, null for
+	 *            no caps
+	 */
+	public OverloadGuard(int maxConnections, int maxQueuedTasks,
+			boolean pauseWhenFull, int retryAfterSeconds,
+			AddressConnectionCounter addressCounter) {
+		this.connectionPermits = maxConnections > 0 ? new Semaphore(
+				maxConnections) : null;
+		this.addressCounter = addressCounter != null
+				&& addressCounter.isEnabled() ? addressCounter : null;
+		this.maxQueuedTasks = maxQueuedTasks;
+		this.pauseWhenFull = pauseWhenFull;
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.serviceUnavailableResponse = (Protocol.VERSION + Protocol.SPACE
+				+ HttpStatusCode.SERVICE_UNAVAILABLE.getStatusCode()
+				+ Protocol.SPACE
+				+ HttpStatusCode.SERVICE_UNAVAILABLE.getStatusMessage()
+				+ Protocol.CRLF + Protocol.RETRY_AFTER + Protocol.SEPERATOR
+				+ Protocol.SPACE + retryAfterSeconds + Protocol.CRLF
+				+ Protocol.CONTENT_LENGTH + Protocol.SEPERATOR
+				+ Protocol.SPACE + "0" + Protocol.CRLF + Protocol.CONNECTION
+				+ Protocol.SEPERATOR + Protocol.SPACE + Protocol.CLOSE
+				+ Protocol.CRLF + Protocol.CRLF).getBytes();
+	}
+
+	public static OverloadGuard fromConfiguration(
+			ServerConfiguration configuration) {
+		return new OverloadGuard(configuration.getIntegerConfigurationOption(
+				ServerOptions.MaxConnections, 0),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.MaxQueuedTasks, 0),
+				ServerOptions.PauseOverloadPolicy.equalsIgnoreCase(configuration
+						.getConfigurationOption(ServerOptions.OverloadPolicy)),
+				configuration.getIntegerConfigurationOption(
+						ServerOptions.RetryAfter, DEFAULT_RETRY_AFTER_SECONDS),
+				new AddressConnectionCounter(
+						configuration.getIntegerConfigurationOption(
+								ServerOptions.MaxConnectionsPerAddress, 0),
+						configuration.getIntegerConfigurationOption(
+								ServerOptions.MaxConnectionsPerSubnet, 0),
+						configuration.getIntegerConfigurationOption(
+								ServerOptions.IPv4SubnetPrefix,
+								AddressConnectionCounter.DEFAULT_IPV4_SUBNET_PREFIX),
+						configuration.getIntegerConfigurationOption(
+								ServerOptions.IPv6SubnetPrefix,
+								AddressConnectionCounter.DEFAULT_IPV6_SUBNET_PREFIX)));
+	}
+
+	/**
+	 * Decides whether a freshly accepted client is served. A rejected client
+	 * has already been answered and closed.
+	 *
+	 * When pausing, blocks the accept loop until there is room or the server
+	 * is stopped.
+	 *
+	 * @param client
+	 * @param responseHandler
+	 *            whose task queue is checked
+	 * @param server
+	 *            checked for being stopped while pausing
+	 * @return true if the client is admitted, and holds a permit until its
+	 *         connection is closed
+	 */
+	public boolean admit(Socket client, ResponseHandler responseHandler,
+			Server server) {
+		InetAddress address = client.getInetAddress();
+		if (addressCounter != null && !addressCounter.tryAcquire(address)) {
+			reject(client);
+			return false;
+		}
+
+		if (admitWhenRoom(client, responseHandler, server)) {
+			return true;
+		}
+		if (addressCounter != null) {
+			addressCounter.release(address);
+		}
+		return false;
+	}
+
+	private boolean admitWhenRoom(Socket client,
+			ResponseHandler responseHandler, Server server) {
+		if (pauseWhenFull) {
+			try {
+				while (!server.isStopping()) {
+					if (isTaskQueueFull(responseHandler)) {
+						Thread.sleep(PAUSE_CHECK_MILLIS);
+					} else if (connectionPermits == null
+							|| connectionPermits.tryAcquire(PAUSE_CHECK_MILLIS,
+									TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			closeQuietly(client);
+			return false;
+		}
+
+		if (!isTaskQueueFull(responseHandler)
+				&& (connectionPermits == null || connectionPermits.tryAcquire())) {
+			return true;
+		}
+		reject(client);
+		return false;
+	}
+
+	/**
+	 * The connection's permit is given back once it is closed.
+	 *
+	 * @param connection
+	 *            of an admitted client
+	 */
+	public void track(ClientConnection connection) {
+		connection.registerClosedListener(this);
+	}
+
+	@Override
+	public void connectionClosed(ClientConnection connection) {
+		if (connectionPermits != null) {
+			connectionPermits.release();
+		}
+		if (addressCounter != null) {
+			// Still known after the socket is closed
+			addressCounter.release(connection.getSocket().getInetAddress());
+		}
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	/**
+	 * @return connections that may still be admitted, -1 for unlimited
+	 */
+	public int getAvailableConnections() {
+		return connectionPermits != null ? connectionPermits
+				.availablePermits() : -1;
+	}
+
+	/**
+	 * @param responseHandler
+	 * @return true if no more request tasks should be queued on it
+	 */
+	public boolean isTaskQueueFull(ResponseHandler responseHandler) {
+		return maxQueuedTasks > 0 && responseHandler != null
+				&& responseHandler.getQueuedTaskCount() >= maxQueuedTasks;
+	}
+
+	private void reject(Socket client) {
+		try {
+			OutputStream out = client.getOutputStream();
+			out.write(serviceUnavailableResponse);
+			out.flush();
+			client.shutdownOutput();
+		} catch (IOException e) {
+			// Nobody left to tell
+		}
+		closeQuietly(client);
+	}
+
+	private void closeQuietly(Socket client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			// Already gone
+		}
+	}
+}
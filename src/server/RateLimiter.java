@@ -0,0 +1,197 @@
+package server;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events per key (a client's address, say) over a sliding window of
+ * time, and tells whether a key is over its limit. Counts are kept in a
+ * count-min sketch, so memory is fixed however many clients show up: keys
+ * that share a counter in every row are counted together, which can only
+ * overestimate. Lock-free - checking a key is a few atomic reads and
+ * increments.
+ *
+ * The window slides by weighting the previous fixed window's count by how
+ * much of it still overlaps the sliding one. Events counted while a window
+ * is being cleared for reuse may be lost; the limit is approximate anyway.
+ */
+public class RateLimiter {
+	public static final int DEFAULT_DEPTH = 4;
+	public static final int DEFAULT_WIDTH = 4096;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long windowMillis;
+	private int depth;
+	private int widthMask;
+
+	// Indexed by the parity of the fixed window they count
+	private AtomicIntegerArray[] windows = new AtomicIntegerArray[2];
+	private AtomicLong currentWindow = new AtomicLong();
+
+	public RateLimiter(long windowMillis) {
+		this(windowMillis, DEFAULT_DEPTH, DEFAULT_WIDTH);
+	}
+
+	/**
+	 * @param windowMillis
+	 * @param depth
+	 *            number of hash rows, each lowers the odds of overcounting
+	 * @param width
+	 *            counters per row, rounded up to a power of two
+	 */
+	public RateLimiter(long windowMillis, int depth, int width) {
+		if (windowMillis <= 0 || depth <= 0 || width <= 0) {
+			throw new IllegalArgumentException(
+					"RateLimiter needs a positive window, depth and width");
+		}
+		this.windowMillis = windowMillis;
+		this.depth = depth;
+		int roundedWidth = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+		this.widthMask = roundedWidth - 1;
+		for (int i = 0; i < windows.length; i++) {
+			windows[i] = new AtomicIntegerArray(depth * roundedWidth);
+		}
+	}
+
+	/**
+	 * Counts one event for the address unless it already reached the limit.
+	 *
+	 * @param address
+	 * @param limit
+	 *            events allowed per window, 0 or less for no limit
+	 * @return true if the event is within the limit
+	 */
+	public boolean tryAcquire(InetAddress address, int limit) {
+		return tryAcquire(address.getAddress(), limit,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * Same as {@link #tryAcquire(InetAddress, int)}, for the address combined
+	 * with a scope (a route, say) that is limited on its own.
+	 *
+	 * @param address
+	 * @param scope
+	 * @param limit
+	 * @return true if the event is within the limit
+	 */
+	public boolean tryAcquire(InetAddress address, String scope, int limit) {
+		byte[] addressBytes = address.getAddress();
+		byte[] scopeBytes = scope.getBytes(UTF_8);
+		byte[] key = new byte[addressBytes.length + scopeBytes.length];
+		System.arraycopy(addressBytes, 0, key, 0, addressBytes.length);
+		System.arraycopy(scopeBytes, 0, key, addressBytes.length,
+				scopeBytes.length);
+		return tryAcquire(key, limit, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param key
+	 * @param limit
+	 *            events allowed per window, 0 or less for no limit
+	 * @param now
+	 *            current time in milliseconds
+	 * @return true if the event is within the limit, in which case it is
+	 *         counted
+	 */
+	public boolean tryAcquire(byte[] key, int limit, long now) {
+		if (limit <= 0) {
+			return true;
+		}
+		long hash = hash(key);
+		long window = advance(now);
+		if (estimate(hash, window, now) >= limit) {
+			return false;
+		}
+
+		AtomicIntegerArray counters = windows[(int) (window & 1)];
+		for (int row = 0; row < depth; row++) {
+			counters.incrementAndGet(index(hash, row));
+		}
+		return true;
+	}
+
+	/**
+	 * @param key
+	 * @param now
+	 * @return events counted for the key over the window ending now, never
+	 *         less than the real number
+	 */
+	public int estimate(byte[] key, long now) {
+		long hash = hash(key);
+		return estimate(hash, advance(now), now);
+	}
+
+	private int estimate(long hash, long window, long now) {
+		int current = minimum(windows[(int) (window & 1)], hash);
+		int previous = minimum(windows[(int) ((window - 1) & 1)], hash);
+		long elapsed = Math.max(0, now - window * windowMillis);
+		double overlap = Math.max(0, windowMillis - elapsed)
+				/ (double) windowMillis;
+		return current + (int) Math.ceil(previous * overlap);
+	}
+
+	private int minimum(AtomicIntegerArray counters, long hash) {
+		int minimum = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			minimum = Math.min(minimum, counters.get(index(hash, row)));
+		}
+		return minimum;
+	}
+
+	/**
+	 * Moves on to the fixed window that contains now, clearing the counters
+	 * it reuses. Only the thread that moves it on clears them.
+	 *
+	 * @param now
+	 * @return the current fixed window
+	 */
+	private long advance(long now) {
+		long window = now / windowMillis;
+		while (true) {
+			long seen = currentWindow.get();
+			if (window <= seen) {
+				return seen;
+			}
+			if (currentWindow.compareAndSet(seen, window)) {
+				clear(windows[(int) (window & 1)]);
+				if (window - seen > 1) {
+					// Both are older than the previous window
+					clear(windows[(int) ((window - 1) & 1)]);
+				}
+				return window;
+			}
+		}
+	}
+
+	private static void clear(AtomicIntegerArray counters) {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, 0);
+		}
+	}
+
+	private int index(long hash, int row) {
+		// Each row's hash is derived from the two halves of one 64 bit hash
+		int combined = (int) hash + row * (int) (hash >>> 32);
+		return row * (widthMask + 1) + (combined & widthMask);
+	}
+
+	private static long hash(byte[] key) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : key) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		// FNV's low bits mix poorly on short keys like addresses
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,220 @@
+package server;
+
+import interfaces.IResourceRoute;
+import interfaces.IResourceStrategy;
+import interfaces.RequestTaskBase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import request.HTTPRequest;
+import response.ResponseHandler;
+import strategy.MethodNotAllowedStrategy;
+import strategy.ResourceStrategyFinder;
+import strategy.TooManyRequestsStrategy;
+import configuration.ResourceStrategyRoute;
+import configuration.ResourceStrategyRouteOptions;
+
+/**
+ * Turns a parsed HTTPRequest into a RequestTaskBase through the configured
+ * IResourceStrategy and hands it to the ResponseHandler for the client that
+ * sent it. Shared by every way the server has of reading requests off the
+ * network.
+ * 
+ * A client over the RateLimit of the route it asks for is answered with 429
+ * Too Many Requests instead, and the connection is closed after.
+ * 
+ * A client waiting for 100 Continue before it sends a body is only told to go
+ * ahead if the request has a route that takes its method; otherwise it gets
+ * the final 404 or 405 right away, without the body ever being sent.
+ */
+public class RequestDispatcher {
+	private static final int RATE_LIMITED_RETRY_AFTER_SECONDS = 1;
+
+	private static final byte[] CONTINUE_RESPONSE = (Protocol.VERSION
+			+ Protocol.SPACE + HttpStatusCode.CONTINUE.getStatusCode()
+			+ Protocol.SPACE + HttpStatusCode.CONTINUE.getStatusMessage()
+			+ Protocol.CRLF + Protocol.CRLF).getBytes();
+
+	private ResponseHandler responseHandler;
+	private ResourceStrategyFinder resourceStrategyMapper;
+	private RateLimiter requestRateLimiter;
+
+	public RequestDispatcher(ResponseHandler responseHandler,
+			ResourceStrategyFinder resourceMapper) {
+		this(responseHandler, resourceMapper, null);
+	}
+
+	/**
+	 * @param responseHandler
+	 * @param resourceMapper
+	 * @param requestRateLimiter
+	 *            counts requests per client and route, null to ignore route
+	 *            rate limits
+	 */
+	public RequestDispatcher(ResponseHandler responseHandler,
+			ResourceStrategyFinder resourceMapper,
+			RateLimiter requestRateLimiter) {
+		this.responseHandler = responseHandler;
+		this.resourceStrategyMapper = resourceMapper;
+		this.requestRateLimiter = requestRateLimiter;
+	}
+
+	public ResponseHandler getResponseHandler() {
+		return responseHandler;
+	}
+
+	/**
+	 * @param incomingRequest
+	 * @param connection
+	 *            must already be served by the ResponseHandler. Decides
+	 *            whether the connection is kept open after this request.
+	 * @param requestStartTimeStamp
+	 *            when the request arrived
+	 */
+	public void dispatch(HTTPRequest incomingRequest,
+			ClientConnection connection, long requestStartTimeStamp) {
+		dispatch(Collections.singletonList(incomingRequest), connection,
+				requestStartTimeStamp);
+	}
+
+	/**
+	 * Dispatches requests pipelined on one connection as a single batch, so
+	 * they are evaluated in parallel while their responses keep the order of
+	 * the list. Requests following one that ends the connection are dropped.
+	 * 
+	 * @param incomingRequests
+	 *            in the order the client sent them
+	 * @param connection
+	 *            must already be served by the ResponseHandler
+	 * @param requestStartTimeStamp
+	 *            when the requests arrived
+	 */
+	public void dispatch(List<HTTPRequest> incomingRequests,
+			ClientConnection connection, long requestStartTimeStamp) {
+		List<RequestTaskBase> requestTasks = new ArrayList<RequestTaskBase>(
+				incomingRequests.size());
+		for (HTTPRequest incomingRequest : incomingRequests) {
+			if (connection.isInputShutdown()) {
+				break;
+			}
+			requestTasks.add(prepareTask(incomingRequest, connection,
+					requestStartTimeStamp));
+		}
+
+		if (!requestTasks.isEmpty()) {
+			responseHandler.enqueueRequestTasksForClient(requestTasks,
+					connection.getSocket());
+		}
+	}
+
+	/**
+	 * Answers a client that sent Expect: 100-continue and is waiting before
+	 * it sends the body. Requests that can't succeed are answered for good and
+	 * end the connection.
+	 * 
+	 * @param waitingRequest
+	 *            with its headers, but not its body
+	 * @param connection
+	 *            must already be served by the ResponseHandler
+	 * @param requestStartTimeStamp
+	 * @return true if the client may send the body
+	 */
+	public boolean expectContinue(HTTPRequest waitingRequest,
+			ClientConnection connection, long requestStartTimeStamp) {
+		IResourceRoute requestRoute = resourceStrategyMapper
+				.findRouteForRequest(waitingRequest);
+
+		if (requestRoute == ResourceStrategyRoute.None) {
+			IResourceRoute pathRoute = resourceStrategyMapper
+					.findRouteForPath(waitingRequest);
+			IResourceStrategy rejection = pathRoute == ResourceStrategyRoute.None ? resourceStrategyMapper
+					.getStrategyForResourceRoute(requestRoute)
+					: new MethodNotAllowedStrategy();
+
+			RequestTaskBase rejectedTask = rejection.prepareEvaluation(
+					waitingRequest, pathRoute);
+			rejectedTask.setStartTime(requestStartTimeStamp);
+			rejectedTask.setKeepAlive(null);
+			connection.requestReceived(false);
+			responseHandler.enqueueRequestTaskForClient(rejectedTask,
+					connection.getSocket());
+			return false;
+		}
+
+		// Only when nothing else is being written, or it would end up in
+		// the middle of another response. The client sends the body on its
+		// own after a while anyway.
+		if (!connection.hasOutstandingResponses() && !connection.isWriting()) {
+			try {
+				OutputStream out = connection.getOutputStream();
+				out.write(CONTINUE_RESPONSE);
+				out.flush();
+			} catch (IOException e) {
+				connection.close();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private RequestTaskBase prepareTask(HTTPRequest incomingRequest,
+			ClientConnection connection, long requestStartTimeStamp) {
+		IResourceRoute requestRoute = resourceStrategyMapper
+				.findRouteForRequest(incomingRequest);
+		incomingRequest.setRoute(requestRoute);
+
+		if (isOverRateLimit(requestRoute, connection)) {
+			RequestTaskBase limitedTask = new TooManyRequestsStrategy(
+					RATE_LIMITED_RETRY_AFTER_SECONDS).prepareEvaluation(
+					incomingRequest, requestRoute);
+			limitedTask.setStartTime(requestStartTimeStamp);
+			limitedTask.setKeepAlive(null);
+			connection.requestReceived(false);
+			return limitedTask;
+		}
+
+		IResourceStrategy strategyForRequest = resourceStrategyMapper
+				.getStrategyForResourceRoute(requestRoute);
+
+		RequestTaskBase requestTask = strategyForRequest.prepareEvaluation(
+				incomingRequest, requestRoute);
+		requestTask.setStartTime(requestStartTimeStamp);
+
+		boolean persistenceRequested = KeepAlivePolicy
+				.requestsPersistentConnection(incomingRequest)
+				&& !"false"
+						.equalsIgnoreCase(requestRoute
+								.getStrategyOption(ResourceStrategyRouteOptions.AllowPersistentConnections));
+		if (connection.requestReceived(persistenceRequested)) {
+			requestTask.setKeepAlive(connection.getKeepAlivePolicy()
+					.getKeepAliveHeader());
+		}
+		return requestTask;
+	}
+
+	private boolean isOverRateLimit(IResourceRoute route,
+			ClientConnection connection) {
+		if (requestRateLimiter == null) {
+			return false;
+		}
+		String limit = route
+				.getStrategyOption(ResourceStrategyRouteOptions.RateLimit);
+		if (limit == null) {
+			return false;
+		}
+		try {
+			// Routes on different hosts may share a match, but not a limit
+			return !requestRateLimiter.tryAcquire(connection.getSocket()
+					.getInetAddress(), ResourceStrategyRoute.scopeOf(route),
+					Integer.parseInt(limit.trim()));
+		} catch (NumberFormatException e) {
+			return false; // Not limited then
+		}
+	}
+}
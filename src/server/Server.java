@@ -24,29 +24,43 @@ package server;
 import gui.WebServer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import request.HTTPRequestFactory;
 import response.ResponseHandler;
+import strategy.Bulkhead;
+import strategy.FileUploadStrategy;
 import strategy.RequestDurationCache;
 import strategy.ResourceStrategyFinder;
-
-import com.thoughtworks.xstream.XStream;
+import strategy.VirtualThreads;
 
 import configuration.InvalidConfigurationException;
 import configuration.ResourceStrategyConfiguration;
 import configuration.ResourceStrategyRouteOptions;
 import configuration.ServerConfiguration;
+import configuration.ServerOptions;
 import configuration.ServletMonitor;
 import configuration.ServletMonitor.IInitialParseCompleteListener;
 
@@ -57,18 +71,70 @@ import configuration.ServletMonitor.IInitialParseCompleteListener;
  * @author Chandan R. Rupakheti (rupakhet@rose-hulman.edu)
  */
 public class Server implements Runnable {
+	/**
+	 * StandardSocketOptions.SO_REUSEPORT, only there on JDK 9 and later.
+	 */
+	private static final SocketOption<Boolean> REUSE_PORT = findReusePortOption();
+
+	public static final int DEFAULT_SHUTDOWN_GRACE_SECONDS = 10;
+	private static final long DRAIN_POLL_MILLIS = 50;
+
+	public static final int DEFAULT_CONNECTION_RATE_LIMIT = 100;
+	private static final long RATE_LIMIT_WINDOW_MILLIS = 1000;
+
 	private String rootDirectory;
 	private String configurationFile;
 	private int port;
-	private boolean stop;
+	private volatile boolean stop;
 	private ServerSocket welcomeSocket;
+	private List<ServerSocket> listeners = new CopyOnWriteArrayList<ServerSocket>();
+	private AtomicLong acceptedConnections = new AtomicLong();
+	private AtomicBoolean draining = new AtomicBoolean();
+
+	/**
+	 * Every admitted connection until it is closed, so a stopping server can
+	 * find the ones it still owes responses to.
+	 */
+	private Set<ClientConnection> openConnections = Collections
+			.newSetFromMap(new ConcurrentHashMap<ClientConnection, Boolean>());
+	private ClientConnection.IConnectionClosedListener openConnectionRemover = new ClientConnection.IConnectionClosedListener() {
+		@Override
+		public void connectionClosed(ClientConnection connection) {
+			openConnections.remove(connection);
+		}
+	};
+
+	private boolean useSelector;
+	private ThreadFactory handlerThreads;
 
 	private String blacklistFile;
-	public ArrayList<String> blacklist;
-	private Timer blacklistTimer;
-	private HashMap<String, Integer> blacklistCounts;
-	private int blacklistMaxCount = 100;
-	private int blacklistResetFrequency = 1000;
+	private AddressBlacklist blacklist;
+	private BlacklistWriter blacklistWriter;
+	private long blacklistMillis;
+
+	/**
+	 * Connections each client address opened over the last second; a client
+	 * opening too many is blacklisted.
+	 */
+	private RateLimiter connectionRateLimiter;
+	private int connectionRateLimit;
+
+	/**
+	 * Requests each client address made to each route over the last second,
+	 * for routes with a RateLimit option.
+	 */
+	private RateLimiter requestRateLimiter;
+
+	/**
+	 * Shared by every connection, it holds nothing but the request limits.
+	 */
+	private HTTPRequestFactory requestFactory;
+
+	/**
+	 * Shared by every connection; the strategies it hands out are attached to
+	 * the routes.
+	 */
+	private ResourceStrategyFinder resourceStrategyFinder;
 
 	private long connections;
 	private long serviceTime;
@@ -77,16 +143,76 @@ public class Server implements Runnable {
 
 	private ServerConfiguration configuration;
 	private ServletMonitor monitor;
+	private Thread monitorThread;
 	private ResourceStrategyConfiguration resourcesConfiguration;
 
 	private ResponseHandler sharedResponseHandler;
 
+	private List<ConnectionReactor> reactors;
+	private AtomicInteger nextReactor = new AtomicInteger();
+
+	private KeepAlivePolicy keepAlivePolicy;
+	private IdleConnectionReaper idleConnectionReaper;
+	private OverloadGuard overloadGuard;
+
 	private RequestDurationCache requestDurationEstimator;
 
 	public RequestDurationCache getRequestDurationEstimator() {
 		return requestDurationEstimator;
 	}
 
+	public KeepAlivePolicy getKeepAlivePolicy() {
+		return keepAlivePolicy;
+	}
+
+	public IdleConnectionReaper getIdleConnectionReaper() {
+		return idleConnectionReaper;
+	}
+
+	public ServerConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	public OverloadGuard getOverloadGuard() {
+		return overloadGuard;
+	}
+
+	/**
+	 * @return the bulkheads request tasks run in, with how saturated each
+	 *         is. Empty until the first client is served.
+	 */
+	public List<Bulkhead> getBulkheads() {
+		if (sharedResponseHandler == null) {
+			return Collections.<Bulkhead> emptyList();
+		}
+		return sharedResponseHandler.getBulkheads();
+	}
+
+	public RateLimiter getRequestRateLimiter() {
+		return requestRateLimiter;
+	}
+
+	/**
+	 * Called for every admitted client once its ClientConnection exists,
+	 * whichever connection model reads from it.
+	 * 
+	 * @param connection
+	 */
+	void connectionOpened(ClientConnection connection) {
+		connection.setKeepAlivePolicy(getKeepAlivePolicy());
+		openConnections.add(connection);
+		connection.registerClosedListener(openConnectionRemover);
+		if (connection.isClosed()) {
+			openConnections.remove(connection);
+		}
+		if (idleConnectionReaper != null) {
+			idleConnectionReaper.watch(connection);
+		}
+		if (overloadGuard != null) {
+			overloadGuard.track(connection);
+		}
+	}
+
 	public Server() {
 		// Don't do anything... probably shouldn't use this one unless you're
 		// testing
@@ -96,7 +222,6 @@ public class Server implements Runnable {
 	 * @param rootDirectory
 	 * @param port
 	 */
-	@SuppressWarnings("unchecked")
 	public Server(String rootDirectory, final String configFolder, int port,
 			WebServer window) throws InvalidConfigurationException {
 		this.rootDirectory = rootDirectory;
@@ -109,11 +234,13 @@ public class Server implements Runnable {
 		this.connections = 0;
 		this.serviceTime = 0;
 		this.window = window;
-		this.blacklistTimer = new Timer();
-		this.blacklistCounts = new HashMap<String, Integer>();
+		this.connectionRateLimiter = new RateLimiter(RATE_LIMIT_WINDOW_MILLIS);
+		this.requestRateLimiter = new RateLimiter(RATE_LIMIT_WINDOW_MILLIS);
 
 		resourcesConfiguration = new ResourceStrategyConfiguration();
 		configuration = new ServerConfiguration(resourcesConfiguration);
+		// Built in, so routes.xml can use it before any plugin jar is loaded
+		configuration.addPlugin(FileUploadStrategy.plugin());
 		monitor = new ServletMonitor(new IInitialParseCompleteListener() {
 			@Override
 			public void pluginsParsed() {
@@ -126,13 +253,22 @@ public class Server implements Runnable {
 			}
 		});
 		monitor.registerAddedListener(configuration);
-		(new Thread(monitor)).start();
+		monitorThread = new Thread(monitor, "ServletMonitor");
+		monitorThread.start();
 
 		File config = new File(this.blacklistFile);
-		XStream streamer = new XStream();
-
-		Object result = streamer.fromXML(config);
-		blacklist = (ArrayList<String>) result;
+		blacklist = BlacklistWriter.load(config);
+		blacklistWriter = new BlacklistWriter(blacklist, config);
+		Thread blacklistWriterThread = new Thread(blacklistWriter,
+				"BlacklistWriter");
+		blacklistWriterThread.setDaemon(true);
+		blacklistWriterThread.start();
+
+		File serverOptions = new File(configFolder + File.separatorChar
+				+ "server.xml");
+		if (serverOptions.exists()) {
+			configuration.parseServerOptions(serverOptions);
+		}
 
 		// Sets a default root directory as picked by user - servlets specific
 		// can be set in server config xml
@@ -144,20 +280,6 @@ public class Server implements Runnable {
 
 		// CONSIDER utilizing a Map that has a maximum size and/or expiration
 		requestDurationEstimator = new RequestDurationCache();
-
-		this.blacklistTimer.scheduleAtFixedRate(new TimerTask() {
-			public void run() {
-				Iterator<String> keySetIterator = blacklistCounts.keySet()
-						.iterator();
-
-				while (keySetIterator.hasNext()) {
-					String key = keySetIterator.next();
-					if (blacklistCounts.get(key) > 0) {
-						blacklistCounts.put(key, 0);
-					}
-				}
-			}
-		}, this.blacklistResetFrequency, this.blacklistResetFrequency);
 	}
 
 	/**
@@ -223,89 +345,324 @@ public class Server implements Runnable {
 	}
 
 	/**
-	 * The entry method for the main server thread that accepts incoming TCP
-	 * connection request and creates a {@link ConnectionHandler} for the
-	 * request.
+	 * The entry method for the main server thread. Opens the listening
+	 * socket(s) and runs the {@link Acceptor}s that accept incoming TCP
+	 * connection requests, until the server is stopped.
 	 */
 	public void run() {
 		try {
-			this.welcomeSocket = new ServerSocket(port);
+			useSelector = ServerOptions.SelectorConnectionModel
+					.equalsIgnoreCase(configuration
+							.getConfigurationOption(ServerOptions.ConnectionModel));
+			handlerThreads = ServerOptions.VirtualThreadModel
+					.equalsIgnoreCase(configuration
+							.getConfigurationOption(ServerOptions.ThreadModel)) ? VirtualThreads
+					.newFactory("ConnectionHandler-") : Executors
+					.defaultThreadFactory();
+
+			connectionRateLimit = configuration.getIntegerConfigurationOption(
+					ServerOptions.ConnectionRateLimit,
+					DEFAULT_CONNECTION_RATE_LIMIT);
+			blacklistMillis = 1000L * configuration
+					.getIntegerConfigurationOption(
+							ServerOptions.BlacklistDuration, 0);
+			requestFactory = HTTPRequestFactory
+					.fromConfiguration(configuration);
+			resourceStrategyFinder = new ResourceStrategyFinder(configuration);
+
+			int acceptorCount = Math.max(1, configuration
+					.getIntegerConfigurationOption(
+							ServerOptions.AcceptorThreads, 1));
+			boolean reusePort = acceptorCount > 1
+					&& !"false".equalsIgnoreCase(configuration
+							.getConfigurationOption(ServerOptions.ReusePort));
+			if (reusePort && REUSE_PORT == null) {
+				Logger.getGlobal().log(Level.INFO,
+						"SO_REUSEPORT is not available, acceptors share one listener");
+				reusePort = false;
+			}
 
-			// Now keep welcoming new connections until stop flag is set to true
-			while (true) {
-				// Listen for incoming socket connection
-				// This method block until somebody makes a request
-				Socket connectionSocket = this.welcomeSocket.accept();
-
-				String ip = connectionSocket.getInetAddress().toString();
-				if (this.blacklist.contains(ip)) {
-					connectionSocket.close();
-					continue;
-				}
+			ensureResponseHandler();
+			if (useSelector) {
+				startReactors();
+			}
 
-				if (this.blacklistCounts.containsKey(ip)) {
-					if (this.blacklistCounts.get(ip) > blacklistMaxCount) {
-						this.updateBlacklist(ip);
-					} else {
-						int currentCount = this.blacklistCounts.get(ip);
-						this.blacklistCounts.put(ip, currentCount + 1);
-					}
-				} else {
-					this.blacklistCounts.put(ip, 1);
+			List<Thread> acceptors = new ArrayList<Thread>();
+			for (int i = 0; i < acceptorCount; i++) {
+				if (i == 0 || reusePort) {
+					// The reactors need the socket's channel
+					listeners.add(openListener(useSelector || reusePort,
+							reusePort));
 				}
+				Thread acceptor = new Thread(new Acceptor(this,
+						listeners.get(listeners.size() - 1)), "Acceptor-" + i);
+				acceptor.start();
+				acceptors.add(acceptor);
+			}
+			this.welcomeSocket = listeners.get(0);
 
-				// Come out of the loop if the stop flag is set
-				if (this.stop)
-					break;
+			// Now keep welcoming new connections until stop flag is set to true
+			// The reactors keep serving the open connections while the server
+			// drains
+			for (Thread acceptor : acceptors) {
+				acceptor.join();
+			}
+			closeListeners();
+		} catch (Exception e) {
+			closeListeners();
+			stopReactors();
+			window.showSocketException(e);
+		}
+	}
 
-				if (sharedResponseHandler == null) {
-					sharedResponseHandler = new ResponseHandler(configuration,
-							this);
-					new Thread(sharedResponseHandler).start();
-				}
+	private ServerSocket openListener(boolean useChannel, boolean reusePort)
+			throws IOException {
+		if (!useChannel) {
+			return new ServerSocket(port);
+		}
+
+		// accept() stays blocking, the accepted channels are handed off to
+		// the reactors
+		ServerSocketChannel welcomeChannel = ServerSocketChannel.open();
+		if (reusePort) {
+			welcomeChannel.setOption(REUSE_PORT, true);
+		}
+		welcomeChannel.socket().bind(new InetSocketAddress(port));
+		return welcomeChannel.socket();
+	}
+
+	private void closeListeners() {
+		for (ServerSocket listener : listeners) {
+			try {
+				listener.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+	}
+
+	/**
+	 * Called by an Acceptor for every connection it accepts. Safe to call
+	 * from any number of acceptor threads at once.
+	 * 
+	 * @param connectionSocket
+	 * @throws IOException
+	 */
+	void serveAcceptedConnection(Socket connectionSocket) throws IOException {
+		acceptedConnections.incrementAndGet();
+
+		InetAddress address = connectionSocket.getInetAddress();
+		if (this.blacklist.contains(address)) {
+			connectionSocket.close();
+			return;
+		}
+
+		if (!connectionRateLimiter.tryAcquire(address, connectionRateLimit)) {
+			this.updateBlacklist(address);
+		}
+
+		// Don't take on anything new if the stop flag is set
+		if (this.stop) {
+			connectionSocket.close();
+			return;
+		}
 
-				HTTPRequestFactory connectionRequestFactory = new HTTPRequestFactory();
-				ResourceStrategyFinder connectionResourceMapper = new ResourceStrategyFinder(
-						configuration);
+		if (!overloadGuard.admit(connectionSocket, sharedResponseHandler, this)) {
+			return;
+		}
+
+		if (useSelector) {
+			ConnectionReactor reactor = reactors.get((nextReactor
+					.getAndIncrement() & Integer.MAX_VALUE)
+					% reactors.size());
+			reactor.register(connectionSocket.getChannel());
+			return;
+		}
 
-				ConnectionHandler handler = new ConnectionHandler(this,
-						sharedResponseHandler, connectionRequestFactory,
-						connectionResourceMapper);
+		ConnectionHandler handler = new ConnectionHandler(this,
+				sharedResponseHandler, requestFactory, resourceStrategyFinder);
 
-				handler.serverClientSocket(connectionSocket);
+		handler.serverClientSocket(connectionSocket);
 
-				// Create a handler for this incoming connection and start the
-				// handler in a new thread
-				// ConnectionHandler handler = new ConnectionHandler(this,
-				// connectionSocket);
-				new Thread(handler).start();
+		// Create a handler for this incoming connection and start the
+		// handler in a new thread
+		handlerThreads.newThread(handler).start();
+	}
 
+	/**
+	 * An acceptor's listener failed for some other reason than the server
+	 * stopping. The server stops accepting altogether.
+	 * 
+	 * @param e
+	 */
+	void acceptFailed(Exception e) {
+		stop();
+		window.showSocketException(e);
+	}
+
+	/**
+	 * @return number of connections accepted so far, including the ones that
+	 *         were turned away
+	 */
+	public long getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	private void ensureResponseHandler() {
+		if (sharedResponseHandler == null) {
+			sharedResponseHandler = new ResponseHandler(configuration, this);
+			new Thread(sharedResponseHandler).start();
+
+			overloadGuard = OverloadGuard.fromConfiguration(configuration);
+			keepAlivePolicy = KeepAlivePolicy.fromConfiguration(configuration);
+			ConnectionDeadlines deadlines = ConnectionDeadlines
+					.fromConfiguration(configuration);
+			if (keepAlivePolicy.isEnabled() || deadlines.isEnabled()) {
+				idleConnectionReaper = new IdleConnectionReaper(
+						keepAlivePolicy.isEnabled() ? keepAlivePolicy
+								.getTimeoutMillis() : 0, deadlines);
+				Thread reaperThread = new Thread(idleConnectionReaper,
+						"IdleConnectionReaper");
+				reaperThread.setDaemon(true);
+				reaperThread.start();
 			}
-			this.welcomeSocket.close();
-		} catch (Exception e) {
-			window.showSocketException(e);
 		}
 	}
 
+	private void startReactors() throws IOException {
+		ensureResponseHandler();
+
+		int reactorCount = configuration.getIntegerConfigurationOption(
+				ServerOptions.SelectorThreads, Runtime.getRuntime()
+						.availableProcessors());
+		reactors = new ArrayList<ConnectionReactor>();
+		for (int i = 0; i < Math.max(1, reactorCount); i++) {
+			ConnectionReactor reactor = new ConnectionReactor(this,
+					new RequestDispatcher(sharedResponseHandler,
+							resourceStrategyFinder,
+							requestRateLimiter),
+					requestFactory);
+			reactors.add(reactor);
+
+			Thread reactorThread = new Thread(reactor, "ConnectionReactor-"
+					+ i);
+			reactorThread.setDaemon(true);
+			reactorThread.start();
+		}
+	}
+
+	private void stopReactors() {
+		if (reactors == null) {
+			return;
+		}
+		for (ConnectionReactor reactor : reactors) {
+			reactor.stop();
+		}
+		reactors = null;
+	}
+
 	/**
-	 * Stops the server from listening further.
+	 * Stops the server from listening further. Requests already read are
+	 * still answered, for up to the configured grace period, on a thread of
+	 * its own; see {@link #drainAndStop(long)}.
 	 */
 	public synchronized void stop() {
 		if (this.stop)
 			return;
 
+		stopAccepting();
+
+		final long graceMillis = 1000L * (configuration != null ? configuration
+				.getIntegerConfigurationOption(
+						ServerOptions.ShutdownGracePeriod,
+						DEFAULT_SHUTDOWN_GRACE_SECONDS)
+				: DEFAULT_SHUTDOWN_GRACE_SECONDS);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainAndStop(graceMillis);
+			}
+		}, "ServerShutdown").start();
+	}
+
+	private synchronized void stopAccepting() {
 		// Set the stop flag to be true
 		this.stop = true;
-		try {
-			// This will force welcomeSocket to come out of the blocked accept()
-			// method
-			// in the main loop of the start() method
-			Socket socket = new Socket(InetAddress.getLocalHost(), port);
 
-			// We do not have any other job for this socket so just close it
-			socket.close();
-		} catch (Exception e) {
+		// This will force every acceptor to come out of the blocked accept()
+		// method
+		closeListeners();
+	}
+
+	/**
+	 * Stops accepting, then stops reading from every open connection and
+	 * waits for the responses already owed to be written. Whatever is still
+	 * owed once graceMillis have passed is abandoned and its connection
+	 * closed. Finally the threads serving the connections are stopped.
+	 * 
+	 * Blocks until all of that is done.
+	 * 
+	 * @param graceMillis
+	 * @return how many requests were drained and abandoned, null if the server
+	 *         is already being drained by another call
+	 */
+	public ShutdownReport drainAndStop(long graceMillis) {
+		stopAccepting();
+		if (!draining.compareAndSet(false, true)) {
+			return null;
+		}
+
+		long writtenBefore = sharedResponseHandler != null ? sharedResponseHandler
+				.getResponsesWritten() : 0;
+
+		// Each connection is closed by whoever serves it once it is owed
+		// nothing more
+		for (ClientConnection connection : openConnections) {
+			connection.stopReading();
+		}
+
+		long deadline = System.currentTimeMillis() + Math.max(0, graceMillis);
+		while (!openConnections.isEmpty()
+				&& System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(DRAIN_POLL_MILLIS);
+			} catch (InterruptedException e) {
+				break; // Give up on the rest
+			}
+		}
+
+		long abandoned = 0;
+		for (ClientConnection connection : openConnections) {
+			abandoned += connection.getOutstandingResponses();
+			connection.close();
+		}
+		long drained = sharedResponseHandler != null ? sharedResponseHandler
+				.getResponsesWritten() - writtenBefore : 0;
+
+		if (sharedResponseHandler != null) {
+			sharedResponseHandler.stop();
+		}
+		if (idleConnectionReaper != null) {
+			idleConnectionReaper.stop();
+		}
+		stopReactors();
+		if (monitorThread != null) {
+			monitorThread.interrupt();
 		}
+		if (blacklistWriter != null) {
+			blacklistWriter.stop();
+		}
+
+		ShutdownReport report = new ShutdownReport(drained, abandoned);
+		Logger.getGlobal().log(Level.INFO, "Server stopped: " + report);
+		return report;
+	}
+
+	/**
+	 * @return true once {@link #stop()} has been called
+	 */
+	public boolean isStopping() {
+		return this.stop;
 	}
 
 	/**
@@ -319,19 +676,31 @@ public class Server implements Runnable {
 		return true;
 	}
 
-	public void updateBlacklist(String badIP) {
-		this.blacklist.add(badIP);
-		File blacklistConfig = new File(blacklistFile);
-		XStream streamer = new XStream();
+	/**
+	 * Blacklists a client, for the configured BlacklistDuration or for good.
+	 * The file is saved later, off the calling thread.
+	 * 
+	 * @param badAddress
+	 */
+	public void updateBlacklist(InetAddress badAddress) {
+		long expiresAt = blacklistMillis > 0 ? System.currentTimeMillis()
+				+ blacklistMillis : AddressBlacklist.PERMANENT;
+		if (blacklist.add(badAddress, expiresAt)) {
+			blacklistWriter.changed();
+		}
+	}
+
+	public AddressBlacklist getBlacklist() {
+		return blacklist;
+	}
 
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> findReusePortOption() {
 		try {
-			blacklistConfig.createNewFile();
-			FileOutputStream out = new FileOutputStream(blacklistConfig);
-			streamer.toXML(this.blacklist, out);
-			out.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return (SocketOption<Boolean>) StandardSocketOptions.class
+					.getField("SO_REUSEPORT").get(null);
+		} catch (ReflectiveOperationException unsupported) {
+			return null;
 		}
 	}
 }
@@ -0,0 +1,34 @@
+package server;
+
+/**
+ * What became of the requests a stopping server still had in flight.
+ */
+public class ShutdownReport {
+	private long drained;
+	private long abandoned;
+
+	/**
+	 * @param drained
+	 *            responses written after the server stopped accepting
+	 * @param abandoned
+	 *            responses still owed when the grace period ran out
+	 */
+	public ShutdownReport(long drained, long abandoned) {
+		this.drained = drained;
+		this.abandoned = abandoned;
+	}
+
+	public long getDrained() {
+		return drained;
+	}
+
+	public long getAbandoned() {
+		return abandoned;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d requests drained, %d abandoned", drained,
+				abandoned);
+	}
+}
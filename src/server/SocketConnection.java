@@ -0,0 +1,62 @@
+package server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * ClientConnection for a plain blocking Socket, as served by a
+ * ConnectionHandler. Writes go straight to the socket; each one is timed so a
+ * write blocked on a client that stopped reading can be noticed (see
+ * {@link ConnectionDeadlines}) and undone by closing the socket.
+ */
+public class SocketConnection extends ClientConnection {
+	private OutputStream outStream;
+
+	public SocketConnection(Socket socket) throws IOException {
+		super(socket);
+		outStream = new TimedOutputStream(socket.getOutputStream());
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outStream;
+	}
+
+	@Override
+	protected void closeConnection() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing left to do for this client anyway
+		}
+	}
+
+	private class TimedOutputStream extends FilterOutputStream {
+
+		public TimedOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			writeStarted();
+			try {
+				out.write(b);
+			} finally {
+				writeFinished();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			writeStarted();
+			try {
+				out.write(b, off, len);
+			} finally {
+				writeFinished();
+			}
+		}
+	}
+}
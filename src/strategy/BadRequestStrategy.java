@@ -35,6 +35,7 @@ import interfaces.RequestTaskBase;
 import protocol.HttpResponseFactory;
 import protocol.HttpStatusCode;
 import protocol.Protocol;
+import request.MalformedHTTPRequest;
 
 /**
  * 
@@ -68,8 +69,13 @@ public class BadRequestStrategy extends ResourceStrategyBase {
 		 */
 		@Override
 		public HttpResponseBase getResponse() {
-			return HttpResponseFactory.createGenericErrorResponse(
-					HttpStatusCode.BAD_REQUEST, Protocol.CLOSE);
+			HttpStatusCode status = HttpStatusCode.BAD_REQUEST;
+			if (getRequest() instanceof MalformedHTTPRequest) {
+				// e.g. too large to be read at all
+				status = ((MalformedHTTPRequest) getRequest()).getStatus();
+			}
+			return HttpResponseFactory.createGenericErrorResponse(status,
+					Protocol.CLOSE);
 		}
 	}
 }
@@ -0,0 +1,173 @@
+package strategy;
+
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Threads and a bounded queue of their own for the request tasks of one
+ * route, or of all the routes without one. A task only ever waits for its own
+ * bulkhead's threads, so a slow route fills up its own queue and is answered
+ * with 503 while the other routes carry on.
+ *
+ * Keeps count of the tasks it turns away, and logs when it becomes saturated
+ * and when it has room again.
+ */
+public class Bulkhead implements IRequestTaskExecutor {
+	private final String name;
+	private final CancellableThreadPoolExecutor executor;
+	private volatile int maxQueuedTasks;
+	private final AtomicLong rejectedTasks = new AtomicLong();
+	private final AtomicBoolean saturated = new AtomicBoolean();
+
+	// The route the sizes were last read from
+	volatile IResourceRoute route;
+
+	/**
+	 * @param name
+	 *            shown in metrics and log messages
+	 * @param threads
+	 *            kept when idle
+	 * @param maxThreads
+	 * @param maxQueuedTasks
+	 *            0 or less for unlimited
+	 * @param keepAliveTime
+	 *            of threads over the kept ones
+	 * @param unit
+	 * @param watchdog
+	 *            cancels tasks that run too long, may be null
+	 */
+	public Bulkhead(String name, int threads, int maxThreads,
+			int maxQueuedTasks, long keepAliveTime, TimeUnit unit,
+			RequestTaskWatchdog watchdog) {
+		this.name = name;
+		this.maxQueuedTasks = maxQueuedTasks;
+		executor = new CancellableThreadPoolExecutor(threads, Math.max(
+				threads, maxThreads), keepAliveTime, unit,
+				new PriorityBlockingQueue<Runnable>(), watchdog);
+	}
+
+	/**
+	 * Checks there is room for one more task. A task that is turned away is
+	 * counted, and should be answered without being submitted.
+	 *
+	 * @return true if a task may be submitted
+	 */
+	public boolean tryAdmit() {
+		int limit = maxQueuedTasks;
+		if (limit <= 0 || executor.getQueue().size() < limit) {
+			if (saturated.compareAndSet(true, false)) {
+				Logger.getGlobal().log(Level.INFO,
+						"Bulkhead has room again: " + this);
+			}
+			return true;
+		}
+		rejectedTasks.incrementAndGet();
+		if (saturated.compareAndSet(false, true)) {
+			Logger.getGlobal().log(Level.WARNING,
+					"Bulkhead saturated, turning requests away: " + this);
+		}
+		return false;
+	}
+
+	@Override
+	public FutureRequestTask<RequestTaskBase, Void> submit(RequestTaskBase task) {
+		return executor.submit(task);
+	}
+
+	@Override
+	public int getQueuedTaskCount() {
+		return executor.getQueuedTaskCount();
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Changes the sizes, e.g. when the routes are reloaded. Tasks already
+	 * queued stay queued.
+	 *
+	 * @param threads
+	 * @param maxThreads
+	 * @param maxQueuedTasks
+	 *            0 or less for unlimited
+	 */
+	public void resize(int threads, int maxThreads, int maxQueuedTasks) {
+		int most = Math.max(threads, maxThreads);
+		// The core size may never be over the maximum, even in between
+		if (most >= executor.getCorePoolSize()) {
+			executor.setMaximumPoolSize(most);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(most);
+		}
+		this.maxQueuedTasks = maxQueuedTasks;
+	}
+
+	/**
+	 * Lets even the kept threads end once they have been idle for the keep
+	 * alive time, for a bulkhead that may go unused.
+	 */
+	void releaseIdleThreads() {
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return threads running a task right now
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public int getMaxThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return 0 or less for unlimited
+	 */
+	public int getMaxQueuedTasks() {
+		return maxQueuedTasks;
+	}
+
+	public long getCompletedTaskCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * @return tasks turned away for a full queue so far
+	 */
+	public long getRejectedTaskCount() {
+		return rejectedTasks.get();
+	}
+
+	/**
+	 * @return true if the last task to try was turned away
+	 */
+	public boolean isSaturated() {
+		return saturated.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s: %d of %d threads busy, %d of %s tasks queued, %d completed, %d rejected",
+				name, getActiveCount(), getMaxThreads(), getQueuedTaskCount(),
+				maxQueuedTasks > 0 ? String.valueOf(maxQueuedTasks)
+						: "unlimited", getCompletedTaskCount(),
+				getRejectedTaskCount());
+	}
+}
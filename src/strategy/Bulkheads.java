@@ -0,0 +1,146 @@
+package strategy;
+
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import request.HTTPRequest;
+import configuration.ResourceStrategyRoute;
+import configuration.ResourceStrategyRouteOptions;
+
+/**
+ * The Bulkheads request tasks run in: one for each route with a MaxThreads
+ * option, made the first time the route is asked for, and a shared one for
+ * every other task.
+ *
+ * A route's bulkhead is known by the route's match (and hosts), so when the
+ * routes are reloaded it is resized to the new options rather than started
+ * over. Its threads end when they have been idle for a while, so the
+ * bulkhead of a route that is gone costs nothing.
+ */
+public class Bulkheads {
+	private static final long ROUTE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final Bulkhead shared;
+	private final RequestTaskWatchdog watchdog;
+	private final ConcurrentMap<String, Bulkhead> byRoute = new ConcurrentHashMap<String, Bulkhead>();
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param shared
+	 *            for tasks of routes without threads of their own
+	 * @param watchdog
+	 *            given to the routes' bulkheads, may be null
+	 */
+	public Bulkheads(Bulkhead shared, RequestTaskWatchdog watchdog) {
+		this.shared = shared;
+		this.watchdog = watchdog;
+	}
+
+	public Bulkhead getShared() {
+		return shared;
+	}
+
+	/**
+	 * @param task
+	 * @return the bulkhead for the route the task's request was dispatched
+	 *         to, the shared one if it has none
+	 */
+	public Bulkhead forTask(RequestTaskBase task) {
+		IHttpRequest request = task.getRequest();
+		return forRoute(request instanceof HTTPRequest ? ((HTTPRequest) request)
+				.getRoute() : null);
+	}
+
+	/**
+	 * @param route
+	 *            may be null
+	 * @return the route's own bulkhead, the shared one if the route doesn't
+	 *         ask for threads of its own
+	 */
+	public Bulkhead forRoute(IResourceRoute route) {
+		if (route == null || shutdown) {
+			return shared;
+		}
+		String threadsOption = route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxThreads);
+		if (threadsOption == null) {
+			return shared;
+		}
+		String name = ResourceStrategyRoute.scopeOf(route);
+		Bulkhead bulkhead = byRoute.get(name);
+		if (bulkhead != null && bulkhead.route == route) {
+			return bulkhead;
+		}
+
+		int threads = parse(threadsOption);
+		if (threads <= 0) {
+			return shared;
+		}
+		int maxQueuedTasks = parse(route
+				.getStrategyOption(ResourceStrategyRouteOptions.MaxQueuedTasks));
+		synchronized (byRoute) {
+			if (shutdown) {
+				return shared;
+			}
+			bulkhead = byRoute.get(name);
+			if (bulkhead == null) {
+				bulkhead = new Bulkhead(name, threads, threads, maxQueuedTasks,
+						ROUTE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						watchdog);
+				bulkhead.releaseIdleThreads();
+				byRoute.put(name, bulkhead);
+				Logger.getGlobal().log(Level.INFO,
+						"Started bulkhead " + bulkhead);
+			} else if (bulkhead.getMaxThreads() != threads
+					|| bulkhead.getMaxQueuedTasks() != maxQueuedTasks) {
+				bulkhead.resize(threads, threads, maxQueuedTasks);
+			}
+			bulkhead.route = route;
+		}
+		return bulkhead;
+	}
+
+	/**
+	 * @return the shared bulkhead followed by the routes', by name
+	 */
+	public List<Bulkhead> getBulkheads() {
+		List<Bulkhead> bulkheads = new ArrayList<Bulkhead>();
+		bulkheads.add(shared);
+		bulkheads.addAll(new TreeMap<String, Bulkhead>(byRoute).values());
+		return bulkheads;
+	}
+
+	/**
+	 * Already submitted tasks are still run; new ones are rejected.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		shared.shutdown();
+		synchronized (byRoute) {
+			for (Bulkhead bulkhead : byRoute.values()) {
+				bulkhead.shutdown();
+			}
+		}
+	}
+
+	private static int parse(String option) {
+		if (option == null) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(option.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -7,7 +7,8 @@ import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-public class CancellableThreadPoolExecutor extends ThreadPoolExecutor {
+public class CancellableThreadPoolExecutor extends ThreadPoolExecutor implements
+		IRequestTaskExecutor {
 
 	private RequestTaskWatchdog watchdog;
 
@@ -43,9 +44,15 @@ public class CancellableThreadPoolExecutor extends ThreadPoolExecutor {
 		return new FutureRequestTask<RequestTaskBase, T>(runnable, value);
 	}
 
+	@Override
 	@SuppressWarnings("unchecked")
 	public FutureRequestTask<RequestTaskBase, Void> submit(RequestTaskBase task) {
 		return (FutureRequestTask<RequestTaskBase, Void>) super.submit(task);
 	}
 
+	@Override
+	public int getQueuedTaskCount() {
+		return getQueue().size();
+	}
+
 }
@@ -0,0 +1,120 @@
+package strategy;
+
+import interfaces.HttpResponseBase;
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import protocol.HttpResponseFactory;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import configuration.PluginData;
+import configuration.ResourceStrategyRouteOptions;
+import configuration.ServletData;
+
+/**
+ * Stores the body of a PUT or POST as the file the path names, under the
+ * route's RootDirectory. The body is handed over with
+ * {@link IHttpRequest#saveBody(File)}, so a large upload that spilled to
+ * disk while it arrived is renamed into place rather than copied, and the
+ * file never shows up half written.
+ */
+public class FileUploadStrategy extends ResourceStrategyBase {
+	/**
+	 * Name to use as the plugin of a route in routes.xml
+	 */
+	public static final String PLUGIN_NAME = "upload";
+
+	/**
+	 * @return the plugin the server registers so routes can use this
+	 *         strategy without a jar of their own
+	 */
+	public static PluginData plugin() {
+		ServletData servlet = new ServletData(
+				FileUploadStrategy.class.getName(), "", Arrays.asList(
+						Protocol.PUT, Protocol.POST));
+		return new PluginData(PLUGIN_NAME, null, Arrays.asList(servlet));
+	}
+
+	@Override
+	public RequestTaskBase prepareEvaluation(IHttpRequest request,
+			IResourceRoute fromRoute) {
+		return new FileUploadTask(request, fromRoute);
+	}
+
+	private class FileUploadTask extends RequestTaskBase {
+		private IResourceRoute route;
+		private HttpStatusCode status;
+
+		public FileUploadTask(IHttpRequest request, IResourceRoute route) {
+			super(request);
+			this.route = route;
+		}
+
+		@Override
+		public void run() {
+			File target = resolveTarget();
+			if (target == null) {
+				status = HttpStatusCode.BAD_REQUEST;
+			} else {
+				boolean existed = target.exists();
+				try {
+					getRequest().saveBody(target);
+					status = existed ? HttpStatusCode.OK
+							: HttpStatusCode.CREATED;
+				} catch (IOException e) {
+					Logger.getGlobal().log(Level.WARNING,
+							"Failed to store upload as " + target, e);
+					status = HttpStatusCode.INTERNAL_ERROR;
+				}
+			}
+			completed = true;
+
+			super.run();
+		}
+
+		@Override
+		public HttpResponseBase getResponse() {
+			return HttpResponseFactory.createGenericSuccessfulResponse(status,
+					Protocol.CLOSE);
+		}
+
+		/**
+		 * @return the file under the root directory named by the rest of the
+		 *         path after the route, null if it names nothing that may be
+		 *         written
+		 */
+		private File resolveTarget() {
+			String rootDirectory = route
+					.getStrategyOption(ResourceStrategyRouteOptions.RootDirectoy);
+			String path = getRequest().getPath();
+			String routeMatch = route.getRouteMatch();
+			if (rootDirectory == null || path == null
+					|| !path.startsWith(routeMatch)) {
+				return null;
+			}
+			String relative = path.substring(routeMatch.length());
+			if (relative.isEmpty() || relative.endsWith("/")) {
+				return null;
+			}
+
+			try {
+				File root = new File(rootDirectory).getCanonicalFile();
+				File target = new File(root, relative).getCanonicalFile();
+				if (!target.getPath().startsWith(
+						root.getPath() + File.separator)) {
+					return null;
+				}
+				return target;
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	}
+}
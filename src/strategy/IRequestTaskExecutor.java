@@ -0,0 +1,27 @@
+package strategy;
+
+import interfaces.RequestTaskBase;
+
+/**
+ * Runs the RequestTaskBase instances the ResponseHandler is given. The
+ * returned FutureRequestTask is what the ResponseHandler queues per client and
+ * what the RequestTaskWatchdog cancels when a task takes too long.
+ */
+public interface IRequestTaskExecutor {
+
+	public FutureRequestTask<RequestTaskBase, Void> submit(RequestTaskBase task);
+
+	/**
+	 * Used to bound the work the server takes on.
+	 * 
+	 * @return number of submitted tasks still waiting for a thread. An
+	 *         executor that never makes a task wait counts the unfinished
+	 *         ones instead.
+	 */
+	public int getQueuedTaskCount();
+
+	/**
+	 * Already submitted tasks are still run; new ones are rejected.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,61 @@
+package strategy;
+
+import interfaces.HttpResponseBase;
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+
+import java.util.List;
+
+import protocol.HttpResponseFactory;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+
+/**
+ * Answers a request for a path whose route doesn't take the request's method,
+ * listing the methods it does take. The task is complete as soon as it runs,
+ * so it never needs a thread of its own.
+ */
+public class MethodNotAllowedStrategy extends ResourceStrategyBase {
+
+	@Override
+	public RequestTaskBase prepareEvaluation(IHttpRequest request,
+			IResourceRoute fromRoute) {
+		return new MethodNotAllowedTask(request, fromRoute);
+	}
+
+	private class MethodNotAllowedTask extends RequestTaskBase {
+		private IResourceRoute route;
+
+		public MethodNotAllowedTask(IHttpRequest request, IResourceRoute route) {
+			super(request);
+			this.route = route;
+		}
+
+		@Override
+		public void run() {
+			completed = true;
+
+			super.run();
+		}
+
+		@Override
+		public HttpResponseBase getResponse() {
+			HttpResponseBase response = HttpResponseFactory
+					.createGenericErrorResponse(
+							HttpStatusCode.METHOD_NOT_ALLOWED, Protocol.CLOSE);
+			List<String> methods = route != null ? route.getMethods() : null;
+			if (methods != null) {
+				StringBuilder allow = new StringBuilder();
+				for (String method : methods) {
+					if (allow.length() > 0) {
+						allow.append(", ");
+					}
+					allow.append(method.toUpperCase());
+				}
+				response.putHeader(Protocol.ALLOW, allow.toString());
+			}
+			return response;
+		}
+	}
+}
@@ -14,7 +14,9 @@ public class RequestDurationCache {
 	 * 
 	 * Requests are considered unique based on their method and path. Body
 	 * content, query strings, and originator are not considered in this
-	 * comparison. They are important, but ignored here.
+	 * comparison. They are important, but ignored here. Requests routed by a
+	 * route with parameters go by the route's template instead of the path,
+	 * so /users/1/ and /users/2/ count as the same resource.
 	 * 
 	 * @author dylans
 	 *
@@ -34,7 +36,9 @@ public class RequestDurationCache {
 			if (request != null) {
 				method = (request.getMethod() != null ? request.getMethod()
 						: "").toLowerCase();
-				path = (request.getPath() != null ? request.getPath() : "")
+				String template = request.getRouteTemplate();
+				path = (template != null ? template
+						: request.getPath() != null ? request.getPath() : "")
 						.toLowerCase();
 			}
 		}
@@ -173,11 +177,14 @@ public class RequestDurationCache {
 		}
 
 		RequestKey key = new RequestKey(request);
-		if (!cache.containsKey(key)) {
-			cache.put(key, new RequestStatistics());
-		}
+		// Responses to different clients are written on different threads
+		synchronized (cache) {
+			if (!cache.containsKey(key)) {
+				cache.put(key, new RequestStatistics());
+			}
 
-		cache.get(key).appendStats(successful, executionTime);
+			cache.get(key).appendStats(successful, executionTime);
+		}
 	}
 
 }
@@ -25,7 +25,7 @@ public class RequestTaskWatchdog implements Runnable {
 	public static final int MAX_EXECUTION_SECONDS = 2;
 	public static final int CHECK_DELAY_SECONDS = 1;
 
-	private boolean stopped = false;
+	private volatile boolean stopped = false;
 	private List<ITaskEndedObserver> murderObservers = new ArrayList<ITaskEndedObserver>();
 	private Map<FutureRequestTask<RequestTaskBase, Void>, Data> monitoredTasks;
 
@@ -50,7 +50,6 @@ public class RequestTaskWatchdog implements Runnable {
 		murderObservers.add(observer);
 	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void run() {
 		while (!stopped) {
@@ -69,23 +68,18 @@ public class RequestTaskWatchdog implements Runnable {
 				long killIfStartedBefore = now
 						- TimeUnit.MILLISECONDS.convert(MAX_EXECUTION_SECONDS,
 								TimeUnit.SECONDS);
+				List<FutureRequestTask<RequestTaskBase, Void>> finished = new ArrayList<FutureRequestTask<RequestTaskBase, Void>>();
 				for (Entry<FutureRequestTask<RequestTaskBase, Void>, Data> entry : monitoredTasks
 						.entrySet()) {
 					long timestamp = entry.getValue().startTime;
-					if (timestamp < killIfStartedBefore) {
+					if (entry.getKey().isDone()) {
+						// Only waiting for its response to be written, and
+						// its thread may be running another task by now
+						finished.add(entry.getKey());
+					} else if (timestamp < killIfStartedBefore) {
 						// Taking too long - needs to die
 						entry.getKey().cancel(true);
-						/*
-						 * This is dangerous and creates a potential problem. We
-						 * can assume that plugins are not dependent on one
-						 * another, and won't lock any resources needed by each
-						 * other.
-						 * 
-						 * Forcing the thread to stop is the only way to enforce
-						 * the interrupted state on the thread, because the
-						 * plugin developer might not.
-						 */
-						entry.getValue().runThread.stop();
+						forceStop(entry.getValue().runThread);
 
 						killedSet.add(entry);
 					}
@@ -94,6 +88,9 @@ public class RequestTaskWatchdog implements Runnable {
 				for (Entry<FutureRequestTask<RequestTaskBase, Void>, Data> entry : killedSet) {
 					monitoredTasks.remove(entry.getKey());
 				}
+				for (FutureRequestTask<RequestTaskBase, Void> task : finished) {
+					monitoredTasks.remove(task);
+				}
 			}
 
 			for (Entry<FutureRequestTask<RequestTaskBase, Void>, Data> entry : killedSet) {
@@ -102,6 +99,29 @@ public class RequestTaskWatchdog implements Runnable {
 		}
 	}
 
+	/**
+	 * The cancel above only interrupts the thread. The client is answered with
+	 * an error either way; this is about getting the thread back.
+	 * 
+	 * A virtual thread is cheap, so one that ignores the interrupt is simply
+	 * abandoned - its result is never written. Pool threads are scarce, and
+	 * used to be forced to stop, because the plugin developer might not honor
+	 * the interrupt. We can assume that plugins are not dependent on one
+	 * another, and won't lock any resources needed by each other. Newer JDKs
+	 * no longer allow it, in which case the pool thread is abandoned too.
+	 */
+	@SuppressWarnings("deprecation")
+	private void forceStop(Thread runThread) {
+		if (runThread == null || VirtualThreads.isVirtual(runThread)) {
+			return;
+		}
+		try {
+			runThread.stop();
+		} catch (UnsupportedOperationException notAllowed) {
+			// Left to finish on its own
+		}
+	}
+
 	private void alertObserversOfMurder(
 			FutureRequestTask<RequestTaskBase, Void> task) {
 		for (ITaskEndedObserver iTaskEndedObserver : murderObservers) {
@@ -31,11 +31,9 @@ package strategy;
 import interfaces.IResourceRoute;
 import interfaces.IResourceStrategy;
 
-import java.lang.reflect.Constructor;
-import java.util.HashMap;
-import java.util.Map;
-
+import protocol.Protocol;
 import request.HTTPRequest;
+import configuration.RoutingTable;
 import configuration.ServerConfiguration;
 
 /**
@@ -43,44 +41,54 @@ import configuration.ServerConfiguration;
  * incoming HTTPRequest. The finder parses any necessary information about the
  * HTTPRequest and the server's current configuration.
  * 
+ * Strategies are made when the configuration is loaded and attached to their
+ * routes, so finding one is a field read and the finder holds no state of its
+ * own; the server shares one between all its connections.
+ * 
  * @author Chandan R. Rupakheti (rupakhcr@clarkson.edu)
  */
 public class ResourceStrategyFinder {
 	private ServerConfiguration serverConfiguration;
 
-	private static Map<String, IResourceStrategy> CACHED_STRATEGIES = new HashMap<String, IResourceStrategy>();
+	private static final IResourceStrategy MISSING_STRATEGY = new InternalErrorStrategy();
 
 	public ResourceStrategyFinder(ServerConfiguration server) {
 		serverConfiguration = server;
 	}
 
 	public IResourceRoute findRouteForRequest(HTTPRequest request) {
-		return serverConfiguration.getManagedResourceConfiguration()
-				.findRouteForResourcePath(request.getPath(), request.getMethod());
+		return routingTableFor(request).find(
+				request.getHeader(Protocol.HOST), request.getPath(),
+				request.getMethod());
 	}
 
-	public IResourceStrategy getStrategyForResourceRoute(
-			IResourceRoute resourceRoute) {
-
-		Class<?> strategyClass = resourceRoute.getStrategyClass();
+	/**
+	 * @param request
+	 * @return the longest route for the request's path, whichever methods it
+	 *         takes. None if there is no route for the path at all.
+	 */
+	public IResourceRoute findRouteForPath(HTTPRequest request) {
+		return routingTableFor(request).find(
+				request.getHeader(Protocol.HOST), request.getPath(), null);
+	}
 
-		if (CACHED_STRATEGIES.containsKey(strategyClass.getName())) {
-			return CACHED_STRATEGIES.get(strategyClass.getName());
+	private RoutingTable routingTableFor(HTTPRequest request) {
+		RoutingTable routes = request.getRoutingTable();
+		if (routes == null) {
+			routes = serverConfiguration.getManagedResourceConfiguration()
+					.getRoutingTable();
 		}
+		return routes;
+	}
 
-		try {
-			Constructor<?> strategyCtor = strategyClass.getConstructor();
-			IResourceStrategy strategy = (IResourceStrategy) strategyCtor
-					.newInstance();
-			CACHED_STRATEGIES.put(strategyClass.getName(), strategy);
-			return strategy;
-
-		} catch (Exception e) {
-			/*
-			 * Lots of potential exceptions here. Java wants to make reflection
-			 * hard.
-			 */
-			return new InternalErrorStrategy();
-		}
+	/**
+	 * @param resourceRoute
+	 * @return the strategy attached to the route, InternalErrorStrategy if
+	 *         it has none
+	 */
+	public IResourceStrategy getStrategyForResourceRoute(
+			IResourceRoute resourceRoute) {
+		IResourceStrategy strategy = resourceRoute.getStrategy();
+		return strategy != null ? strategy : MISSING_STRATEGY;
 	}
 }
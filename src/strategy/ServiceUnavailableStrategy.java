@@ -0,0 +1,52 @@
+package strategy;
+
+import interfaces.HttpResponseBase;
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+import protocol.HttpResponseFactory;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+
+/**
+ * Answers a request the server is too busy to evaluate. The task is complete
+ * as soon as it runs, so it never needs a thread of its own.
+ */
+public class ServiceUnavailableStrategy extends ResourceStrategyBase {
+
+	private int retryAfterSeconds;
+
+	public ServiceUnavailableStrategy(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public RequestTaskBase prepareEvaluation(IHttpRequest request,
+			IResourceRoute fromRoute) {
+		return new ServiceUnavailableTask(request);
+	}
+
+	private class ServiceUnavailableTask extends RequestTaskBase {
+
+		public ServiceUnavailableTask(IHttpRequest request) {
+			super(request);
+		}
+
+		@Override
+		public void run() {
+			completed = true;
+
+			super.run();
+		}
+
+		@Override
+		public HttpResponseBase getResponse() {
+			HttpResponseBase response = HttpResponseFactory
+					.createGenericErrorResponse(
+							HttpStatusCode.SERVICE_UNAVAILABLE, Protocol.CLOSE);
+			response.putHeader(Protocol.RETRY_AFTER,
+					Integer.toString(retryAfterSeconds));
+			return response;
+		}
+	}
+}
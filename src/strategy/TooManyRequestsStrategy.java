@@ -0,0 +1,52 @@
+package strategy;
+
+import interfaces.HttpResponseBase;
+import interfaces.IHttpRequest;
+import interfaces.IResourceRoute;
+import interfaces.RequestTaskBase;
+import protocol.HttpResponseFactory;
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+
+/**
+ * Answers a request from a client that went over a route's rate limit. The
+ * task is complete as soon as it runs, so it never needs a thread of its own.
+ */
+public class TooManyRequestsStrategy extends ResourceStrategyBase {
+
+	private int retryAfterSeconds;
+
+	public TooManyRequestsStrategy(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public RequestTaskBase prepareEvaluation(IHttpRequest request,
+			IResourceRoute fromRoute) {
+		return new TooManyRequestsTask(request);
+	}
+
+	private class TooManyRequestsTask extends RequestTaskBase {
+
+		public TooManyRequestsTask(IHttpRequest request) {
+			super(request);
+		}
+
+		@Override
+		public void run() {
+			completed = true;
+
+			super.run();
+		}
+
+		@Override
+		public HttpResponseBase getResponse() {
+			HttpResponseBase response = HttpResponseFactory
+					.createGenericErrorResponse(
+							HttpStatusCode.TOO_MANY_REQUESTS, Protocol.CLOSE);
+			response.putHeader(Protocol.RETRY_AFTER,
+					Integer.toString(retryAfterSeconds));
+			return response;
+		}
+	}
+}
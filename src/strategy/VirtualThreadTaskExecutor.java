@@ -0,0 +1,61 @@
+package strategy;
+
+import interfaces.RequestTaskBase;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every task on its own thread, a virtual thread where the JDK has them.
+ * Nothing is queued: a task that blocks (on a database, say) only parks its
+ * own virtual thread instead of holding one of a handful of pool threads.
+ * Since nothing waits, tasks are not ordered by their estimated duration.
+ */
+public class VirtualThreadTaskExecutor implements IRequestTaskExecutor {
+	private ThreadFactory threadFactory;
+	private RequestTaskWatchdog watchdog;
+	private AtomicInteger unfinishedTasks = new AtomicInteger();
+
+	private volatile boolean shutdown = false;
+
+	public VirtualThreadTaskExecutor(RequestTaskWatchdog watchdog) {
+		this.watchdog = watchdog;
+		this.threadFactory = VirtualThreads.newFactory("RequestTask-");
+	}
+
+	@Override
+	public FutureRequestTask<RequestTaskBase, Void> submit(RequestTaskBase task) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+
+		final FutureRequestTask<RequestTaskBase, Void> future = new FutureRequestTask<RequestTaskBase, Void>(
+				task);
+		unfinishedTasks.incrementAndGet();
+		threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (watchdog != null) {
+						watchdog.watchTask(future, Thread.currentThread());
+					}
+					future.run();
+				} finally {
+					unfinishedTasks.decrementAndGet();
+				}
+			}
+		}).start();
+		return future;
+	}
+
+	@Override
+	public int getQueuedTaskCount() {
+		return unfinishedTasks.get();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+}
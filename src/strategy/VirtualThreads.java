@@ -0,0 +1,88 @@
+package strategy;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads (JDK 21+) without requiring them to compile or
+ * run the server. Looked up reflectively once; on an older JDK every factory
+ * falls back to ordinary platform threads.
+ */
+public class VirtualThreads {
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method IS_VIRTUAL;
+
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderFactory = null;
+		Method isVirtual = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			builderName = builder.getMethod("name", String.class, long.class);
+			builderFactory = builder.getMethod("factory");
+			isVirtual = Thread.class.getMethod("isVirtual");
+		} catch (ReflectiveOperationException unsupported) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_FACTORY = builderFactory;
+		IS_VIRTUAL = isVirtual;
+	}
+
+	private VirtualThreads() {
+	}
+
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param thread
+	 * @return true if thread is a virtual thread
+	 */
+	public static boolean isVirtual(Thread thread) {
+		if (!isSupported()) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param namePrefix
+	 *            threads are named namePrefix followed by a counter
+	 * @return a factory for virtual threads, or for platform threads if this
+	 *         JDK does not have them
+	 */
+	public static ThreadFactory newFactory(final String namePrefix) {
+		if (isSupported()) {
+			try {
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = BUILDER_NAME.invoke(builder, namePrefix, 0L);
+				return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+			} catch (ReflectiveOperationException e) {
+				Logger.getGlobal().log(Level.WARNING,
+						"Unable to create virtual threads", e);
+			}
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, namePrefix + count.getAndIncrement());
+			}
+		};
+	}
+}
@@ -0,0 +1,84 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.AddressBlacklist;
+
+public class AddressBlacklistTests {
+	private static final long NOW = 1000000;
+
+	@Test
+	public void testSingleAddress() throws UnknownHostException {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		assertTrue(blacklist.add("/127.0.0.1"));
+		assertFalse(blacklist.add("127.0.0.1"));
+
+		assertTrue(blacklist.contains(address("127.0.0.1")));
+		assertFalse(blacklist.contains(address("127.0.0.2")));
+	}
+
+	@Test
+	public void testIPv4Range() throws UnknownHostException {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		blacklist.add("10.1.0.0/16");
+
+		assertTrue(blacklist.contains(address("10.1.0.1")));
+		assertTrue(blacklist.contains(address("10.1.255.255")));
+		assertFalse(blacklist.contains(address("10.2.0.1")));
+	}
+
+	@Test
+	public void testIPv6Range() throws UnknownHostException {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		blacklist.add("2001:db8::/32");
+
+		assertTrue(blacklist.contains(address("2001:db8::1")));
+		assertFalse(blacklist.contains(address("2001:db9::1")));
+		assertFalse(blacklist.contains(address("32.1.13.184")));
+	}
+
+	@Test
+	public void testExpiry() throws UnknownHostException {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		blacklist.add(address("192.168.0.7"), NOW + 1000);
+
+		assertTrue(blacklist.contains(address("192.168.0.7"), NOW));
+		assertFalse(blacklist.contains(address("192.168.0.7"), NOW + 1000));
+
+		blacklist.removeExpired(NOW + 1000);
+		assertEquals(0, blacklist.size());
+	}
+
+	@Test
+	public void testEntriesRoundTrip() throws UnknownHostException {
+		AddressBlacklist blacklist = new AddressBlacklist();
+		blacklist.add("TestIP");
+		blacklist.add("172.16.5.9/12");
+		blacklist.add(address("192.168.0.7"), Long.MAX_VALUE - 1);
+
+		List<String> entries = blacklist.toEntries();
+		assertTrue(entries.contains("TestIP"));
+		assertTrue(entries.contains("172.16.0.0/12"));
+
+		AddressBlacklist reloaded = new AddressBlacklist();
+		for (String entry : entries) {
+			reloaded.add(entry);
+		}
+		assertEquals(3, reloaded.size());
+		assertTrue(reloaded.contains(address("172.31.0.1")));
+		assertTrue(reloaded.contains(address("192.168.0.7")));
+	}
+
+	private static InetAddress address(String literal)
+			throws UnknownHostException {
+		return InetAddress.getByName(literal);
+	}
+}
@@ -0,0 +1,71 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+import server.AddressConnectionCounter;
+
+public class AddressConnectionCounterTests {
+
+	@Test
+	public void testCapsAddress() throws UnknownHostException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(2, 0,
+				24, 64);
+		InetAddress client = address("10.0.0.1");
+
+		assertTrue(counter.tryAcquire(client));
+		assertTrue(counter.tryAcquire(client));
+		assertFalse(counter.tryAcquire(client));
+		assertTrue(counter.tryAcquire(address("10.0.0.2")));
+
+		counter.release(client);
+		assertTrue(counter.tryAcquire(client));
+	}
+
+	@Test
+	public void testCapsSubnet() throws UnknownHostException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(5, 2,
+				24, 64);
+
+		assertTrue(counter.tryAcquire(address("10.0.0.1")));
+		assertTrue(counter.tryAcquire(address("10.0.0.2")));
+		assertFalse(counter.tryAcquire(address("10.0.0.3")));
+		assertTrue(counter.tryAcquire(address("10.0.1.3")));
+
+		// The refused one isn't counted against its address
+		assertEquals(0, counter.getConnectionCount(address("10.0.0.3")));
+	}
+
+	@Test
+	public void testCapsIPv6Subnet() throws UnknownHostException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(0, 1,
+				24, 64);
+
+		assertTrue(counter.tryAcquire(address("2001:db8:0:1::1")));
+		assertFalse(counter.tryAcquire(address("2001:db8:0:1::2")));
+		assertTrue(counter.tryAcquire(address("2001:db8:0:2::1")));
+	}
+
+	@Test
+	public void testForgetsClosedClients() throws UnknownHostException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(3, 0,
+				24, 64);
+		for (int i = 0; i < 50; i++) {
+			InetAddress client = address("192.168.1." + i);
+			counter.tryAcquire(client);
+			counter.release(client);
+		}
+		assertEquals(0, counter.getTrackedAddressCount());
+	}
+
+	private static InetAddress address(String literal)
+			throws UnknownHostException {
+		return InetAddress.getByName(literal);
+	}
+}
@@ -0,0 +1,140 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import interfaces.RequestTaskBase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import strategy.Bulkhead;
+import strategy.Bulkheads;
+import strategy.RequestDurationCache;
+import configuration.ResourceStrategyRoute;
+import configuration.ResourceStrategyRouteOptions;
+
+public class BulkheadTests {
+
+	@Test
+	public void testRoutesWithMaxThreadsGetTheirOwn() {
+		Bulkheads bulkheads = new Bulkheads(shared(), null);
+		try {
+			ResourceStrategyRoute plain = route("/static/", null, null);
+			ResourceStrategyRoute slow = route("/dirops/", "3", "10");
+
+			assertSame(bulkheads.getShared(), bulkheads.forRoute(plain));
+			assertSame(bulkheads.getShared(), bulkheads.forRoute(null));
+			Bulkhead own = bulkheads.forRoute(slow);
+			assertNotSame(bulkheads.getShared(), own);
+			assertEquals("/dirops/", own.getName());
+			assertEquals(3, own.getMaxThreads());
+			assertEquals(10, own.getMaxQueuedTasks());
+			assertSame(own, bulkheads.forRoute(slow));
+			assertEquals(Arrays.asList(bulkheads.getShared(), own),
+					bulkheads.getBulkheads());
+		} finally {
+			bulkheads.shutdown();
+		}
+	}
+
+	@Test
+	public void testReloadedRouteResizesItsBulkhead() {
+		Bulkheads bulkheads = new Bulkheads(shared(), null);
+		try {
+			Bulkhead before = bulkheads.forRoute(route("/dirops/", "3", "10"));
+			Bulkhead after = bulkheads.forRoute(route("/dirops/", "1", "2"));
+
+			assertSame(before, after);
+			assertEquals(1, after.getMaxThreads());
+			assertEquals(2, after.getMaxQueuedTasks());
+		} finally {
+			bulkheads.shutdown();
+		}
+	}
+
+	@Test
+	public void testFullBulkheadTurnsTasksAway() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("/slow/", 1, 1, 1, 1,
+				TimeUnit.SECONDS, null);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		try {
+			assertTrue(bulkhead.tryAdmit());
+			bulkhead.submit(new BlockingTask(started, release));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertTrue(bulkhead.tryAdmit());
+			bulkhead.submit(new BlockingTask(null, release));
+
+			assertFalse(bulkhead.tryAdmit());
+			assertTrue(bulkhead.isSaturated());
+			assertEquals(1, bulkhead.getRejectedTaskCount());
+			assertEquals(1, bulkhead.getActiveCount());
+			assertEquals(1, bulkhead.getQueuedTaskCount());
+
+			release.countDown();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (bulkhead.getCompletedTaskCount() < 2
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(bulkhead.tryAdmit());
+			assertFalse(bulkhead.isSaturated());
+			assertEquals(2, bulkhead.getCompletedTaskCount());
+		} finally {
+			release.countDown();
+			bulkhead.shutdown();
+		}
+	}
+
+	private static Bulkhead shared() {
+		return new Bulkhead("shared", 1, 1, 0, 10, TimeUnit.MILLISECONDS, null);
+	}
+
+	private static ResourceStrategyRoute route(String match, String threads,
+			String queued) {
+		Map<String, String> options = new HashMap<String, String>();
+		if (threads != null) {
+			options.put(ResourceStrategyRouteOptions.MaxThreads, threads);
+		}
+		if (queued != null) {
+			options.put(ResourceStrategyRouteOptions.MaxQueuedTasks, queued);
+		}
+		return new ResourceStrategyRoute(Object.class, match,
+				Arrays.asList("GET"), options);
+	}
+
+	private static class BlockingTask extends RequestTaskBase {
+		private CountDownLatch started;
+		private CountDownLatch release;
+
+		public BlockingTask(CountDownLatch started, CountDownLatch release) {
+			super(new RequestCacheTests.FakeHttpRequest("GET", "/slow/"));
+			setServer(new RequestTaskQueueOrderingTests.FakeServer(
+					new RequestDurationCache()));
+			this.started = started;
+			this.release = release;
+		}
+
+		@Override
+		public void run() {
+			if (started != null) {
+				started.countDown();
+			}
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			completed = true;
+			super.run();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import request.HTTPRequestFactory;
+import response.ResponseHandler;
+import server.ConnectionHandler;
+import server.KeepAlivePolicy;
+import strategy.RequestDurationCache;
+import strategy.ResourceStrategyFinder;
+import configuration.ResourceStrategyConfiguration;
+import configuration.ResourceStrategyRoute;
+import configuration.ServerConfiguration;
+
+public class ConnectionHandlerTests {
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+	private static final byte[] REQUEST = "GET /a HTTP/1.1\r\nHost: x\r\n\r\n"
+			.getBytes(US_ASCII);
+
+	@Test
+	public void testServesRequestsInARowOnOneConnection() throws Exception {
+		RequestTaskQueueOrderingTests.FakeServer server = new RequestTaskQueueOrderingTests.FakeServer(
+				new RequestDurationCache()) {
+			@Override
+			public KeepAlivePolicy getKeepAlivePolicy() {
+				return new KeepAlivePolicy(5, 2);
+			}
+		};
+		ResponseHandler responseHandler = new ResponseHandler(null, server);
+		new Thread(responseHandler).start();
+		ResourceStrategyFinder finder = new ResourceStrategyFinder(
+				new ServerConfiguration(new ResourceStrategyConfiguration(
+						new ArrayList<ResourceStrategyRoute>())));
+
+		ServerSocket listener = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		Socket client = new Socket();
+		try {
+			client.connect(listener.getLocalSocketAddress());
+			ConnectionHandler handler = new ConnectionHandler(server,
+					responseHandler, new HTTPRequestFactory(), finder);
+			handler.serverClientSocket(listener.accept());
+			new Thread(handler).start();
+
+			client.setSoTimeout(5000);
+			OutputStream out = client.getOutputStream();
+			InputStream in = client.getInputStream();
+
+			out.write(REQUEST);
+			out.flush();
+			String first = readResponse(in);
+			assertTrue(first, first.startsWith("HTTP/1.1 404"));
+			assertTrue(first, first.contains("Connection: Keep-Alive"));
+
+			// The same connection takes the next one, the last it allows
+			out.write(REQUEST);
+			out.flush();
+			String second = readResponse(in);
+			assertTrue(second, second.startsWith("HTTP/1.1 404"));
+			assertTrue(second, second.contains("Connection: Close"));
+			assertEquals(-1, in.read());
+		} finally {
+			client.close();
+			listener.close();
+			responseHandler.stop();
+		}
+	}
+
+	/**
+	 * @return one response, read up to the end of its Content-Length body
+	 */
+	private static String readResponse(InputStream in) throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		while (!response.toString("US-ASCII").endsWith("\r\n\r\n")) {
+			int next = in.read();
+			if (next < 0) {
+				throw new IOException("Closed before the headers ended: "
+						+ response.toString("US-ASCII"));
+			}
+			response.write(next);
+		}
+		Matcher length = Pattern.compile("Content-Length: (\\d+)").matcher(
+				response.toString("US-ASCII"));
+		int bodyLeft = length.find() ? Integer.parseInt(length.group(1)) : 0;
+		while (bodyLeft-- > 0) {
+			response.write(in.read());
+		}
+		return response.toString("US-ASCII");
+	}
+}
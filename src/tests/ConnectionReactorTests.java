@@ -0,0 +1,73 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+import org.junit.Test;
+
+import server.ChannelConnection;
+import server.ConnectionDeadlines;
+import server.ConnectionReactor;
+import server.IdleConnectionReaper;
+import server.Server;
+
+public class ConnectionReactorTests {
+
+	@Test
+	public void testOverdueWriteToClientThatNeverReadsIsAborted()
+			throws Exception {
+		ConnectionReactor reactor = new ConnectionReactor(new Server(), null,
+				null);
+		Thread reactorThread = new Thread(reactor);
+		reactorThread.start();
+		IdleConnectionReaper reaper = new IdleConnectionReaper(0,
+				new ConnectionDeadlines(0, 0, 1));
+		Thread reaperThread = new Thread(reaper);
+		ServerSocketChannel listener = ServerSocketChannel.open();
+		Socket client = new Socket();
+		try {
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					0));
+			client.setReceiveBufferSize(4096);
+			client.connect(listener.getLocalAddress());
+			ChannelConnection connection = reactor.register(listener.accept());
+
+			// Far more than the socket buffers hold, and the client never
+			// reads any of it
+			OutputStream out = connection.getOutputStream();
+			out.write(new byte[16 * 1024 * 1024]);
+			out.flush();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!connection.isWriting()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(connection.isWriting());
+
+			reaper.watch(connection);
+			reaperThread.start();
+			deadline = System.currentTimeMillis() + 10000;
+			while (connection.getChannel().isOpen()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+
+			assertTrue(connection.isClosed());
+			assertFalse(connection.getChannel().isOpen());
+			assertEquals(0, reaper.getWatchedCount());
+		} finally {
+			reaper.stop();
+			reactor.stop();
+			client.close();
+			listener.close();
+			reactorThread.join(5000);
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import protocol.ProtocolException;
+import request.GETHTTPRequest;
+import request.HTTPRequest;
+import request.HTTPRequestBuffer;
+import request.HTTPRequestFactory;
+import request.HTTPRequestParser;
+import request.MalformedHTTPRequest;
+import request.RequestBody;
+import request.RequestLimits;
+import request.POSTHTTPRequest;
+
+public class HTTPRequestParserTests {
+	private static final String POST = "POST /tweeter/posts?user=jane%20doe&page=2 HTTP/1.1\r\n"
+			+ "host: localhost\r\n" + "CONTENT-LENGTH: 5\r\n" + "\r\n" + "12345";
+
+	@Test
+	public void testParsesByteAtATime() throws ProtocolException {
+		byte[] bytes = bytes(POST);
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		for (int i = 0; i < bytes.length; i++) {
+			assertFalse(parser.isComplete());
+			assertEquals(1, parser.parse(bytes, i, 1));
+		}
+		assertTrue(parser.isComplete());
+
+		HTTPRequest request = parser.takeRequest();
+		assertEquals(POSTHTTPRequest.class, request.getClass());
+		assertEquals("/tweeter/posts", request.getPath());
+		assertEquals(Protocol.VERSION, request.getVersion());
+		assertEquals("12345", request.getContent());
+		assertTrue(parser.isIdle());
+	}
+
+	@Test
+	public void testInternsHeaderNames() throws ProtocolException {
+		byte[] bytes = bytes(POST);
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		parser.parse(bytes, 0, bytes.length);
+		HTTPRequest request = parser.takeRequest();
+
+		assertEquals("localhost", request.getHeader(Protocol.HOST));
+		assertEquals("localhost", request.getHeader("HOST"));
+		assertEquals("5", request.getHeader(Protocol.CONTENT_LENGTH));
+		assertSame(Protocol.HOST, HTTPRequestParser.canonicalHeaderName("hOsT"));
+	}
+
+	@Test
+	public void testDecodesQueryString() throws ProtocolException {
+		byte[] bytes = bytes(POST);
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		parser.parse(bytes, 0, bytes.length);
+		HTTPRequest request = parser.takeRequest();
+
+		assertEquals("jane doe", request.getQueryString("user"));
+		assertEquals("2", request.getQueryString("page"));
+		assertNull(request.getQueryString("missing"));
+	}
+
+	@Test
+	public void testSplitsPipelinedRequests() {
+		String get = "GET /a HTTP/1.1\r\nHost: localhost\r\n\r\n";
+		byte[] bytes = bytes(get + POST + get);
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		HTTPRequestFactory factory = new HTTPRequestFactory();
+		Socket socket = new Socket();
+
+		// Split so that every request ends up across two reads
+		buffer.append(bytes, 0, 20);
+		List<HTTPRequest> first = factory.createRequests(socket, buffer);
+		buffer.append(bytes, 20, 60);
+		List<HTTPRequest> second = factory.createRequests(socket, buffer);
+		buffer.append(bytes, 80, bytes.length - 80);
+		List<HTTPRequest> third = factory.createRequests(socket, buffer);
+
+		assertEquals(0, first.size());
+		assertEquals(1, second.size());
+		assertEquals(GETHTTPRequest.class, second.get(0).getClass());
+		assertEquals(2, third.size());
+		assertEquals(POSTHTTPRequest.class, third.get(0).getClass());
+		assertEquals("12345", third.get(0).getContent());
+		assertEquals("/a", third.get(1).getPath());
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testDecodesChunkedBody() throws ProtocolException {
+		byte[] bytes = bytes("PUT /files/upload HTTP/1.1\r\n"
+				+ "Transfer-Encoding: chunked\r\n" + "\r\n" + "5;name=x\r\n"
+				+ "hello\r\n" + "7\r\n" + ", world\r\n" + "0\r\n"
+				+ "Content-MD5: abc\r\n" + "\r\n");
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket(), 4,
+				RequestLimits.DEFAULT);
+		for (int i = 0; i < bytes.length; i++) {
+			assertFalse(parser.isComplete());
+			parser.parse(bytes, i, 1);
+		}
+		assertTrue(parser.isComplete());
+
+		HTTPRequest request = parser.takeRequest();
+		assertEquals("hello, world", request.getContent());
+		assertEquals(12, request.getBodyLength());
+		assertEquals("12", request.getHeader(Protocol.CONTENT_LENGTH));
+		assertEquals("abc", request.getHeader("Content-MD5"));
+		assertNull(request.getHeader(Protocol.TRANSFER_ENCODING));
+		request.discardBody();
+	}
+
+	@Test
+	public void testDiscardDeletesPartlyReadBody() throws ProtocolException {
+		File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+		List<String> before = Arrays.asList(tempDirectory.list());
+		byte[] bytes = withBody("PUT /files/upload HTTP/1.1\r\n"
+				+ "Content-Length: 100\r\n\r\n", new byte[50]);
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket(), 4,
+				RequestLimits.DEFAULT);
+		parser.parse(bytes, 0, bytes.length);
+		assertTrue(parser.isReadingBody());
+
+		List<String> spilled = new ArrayList<String>(Arrays.asList(tempDirectory
+				.list()));
+		spilled.removeAll(before);
+		assertEquals(1, spilled.size());
+
+		parser.discard();
+		assertFalse(new File(tempDirectory, spilled.get(0)).exists());
+		assertTrue(parser.isIdle());
+	}
+
+	@Test
+	public void testRejectedPathDeletesSpilledBody() {
+		File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+		List<String> before = Arrays.asList(tempDirectory.list());
+		byte[] bytes = withBody("POST /../x HTTP/1.1\r\n", new byte[50]);
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		buffer.append(bytes, 0, bytes.length);
+
+		List<HTTPRequest> requests = new HTTPRequestFactory(4,
+				RequestLimits.DEFAULT).createRequests(new Socket(), buffer);
+		assertEquals(1, requests.size());
+		assertEquals(MalformedHTTPRequest.class, requests.get(0).getClass());
+
+		List<String> left = new ArrayList<String>(Arrays.asList(tempDirectory
+				.list()));
+		left.removeAll(before);
+		assertEquals(new ArrayList<String>(), left);
+	}
+
+	@Test
+	public void testRejectsChunkedWithContentLength() {
+		byte[] bytes = bytes("POST /a HTTP/1.1\r\nContent-Length: 3\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		buffer.append(bytes, 0, bytes.length);
+
+		List<HTTPRequest> requests = new HTTPRequestFactory().createRequests(
+				new Socket(), buffer);
+		assertEquals(MalformedHTTPRequest.class, requests.get(0).getClass());
+	}
+
+	@Test
+	public void testRejectsDeclaredBodyOverLimit() {
+		// Only the headers are sent - the body is never waited for
+		List<HTTPRequest> requests = parseWithLimits(new RequestLimits(0, 0,
+				10, null), "POST /a HTTP/1.1\r\nContent-Length: 11\r\n\r\n");
+		assertEquals(1, requests.size());
+		assertSame(HttpStatusCode.PAYLOAD_TOO_LARGE,
+				((MalformedHTTPRequest) requests.get(0)).getStatus());
+	}
+
+	@Test
+	public void testRejectsChunkedBodyOverLimit() {
+		List<HTTPRequest> requests = parseWithLimits(new RequestLimits(0, 0,
+				10, null), "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n"
+				+ "\r\n8\r\n12345678\r\n8\r\n12345678\r\n");
+		assertSame(HttpStatusCode.PAYLOAD_TOO_LARGE,
+				((MalformedHTTPRequest) requests.get(0)).getStatus());
+	}
+
+	@Test
+	public void testRejectsTooManyHeaders() {
+		List<HTTPRequest> requests = parseWithLimits(new RequestLimits(0, 2,
+				0, null), "GET /a HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n");
+		assertSame(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE,
+				((MalformedHTTPRequest) requests.get(0)).getStatus());
+	}
+
+	@Test
+	public void testRejectsOversizedRequestLine() {
+		List<HTTPRequest> tooLong = parseWithLimits(new RequestLimits(16, 0,
+				0, null), "GET /a/very/long/path");
+		assertSame(HttpStatusCode.URI_TOO_LONG,
+				((MalformedHTTPRequest) tooLong.get(0)).getStatus());
+
+		List<HTTPRequest> fits = parseWithLimits(new RequestLimits(64, 0, 0,
+				null), "GET /short HTTP/1.1\r\nHost: x\r\n\r\n");
+		assertEquals(GETHTTPRequest.class, fits.get(0).getClass());
+	}
+
+	@Test
+	public void testHandsOutContinueExpectationOnce() throws ProtocolException {
+		byte[] head = bytes("PUT /files/a HTTP/1.1\r\nExpect: 100-Continue\r\n"
+				+ "Content-Length: 3\r\n\r\n");
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		parser.parse(head, 0, head.length);
+
+		HTTPRequest waiting = parser.takeContinueExpectation();
+		assertEquals("/files/a", waiting.getPath());
+		assertNull(parser.takeContinueExpectation());
+
+		parser.parse(bytes("abc"), 0, 3);
+		assertSame(waiting, parser.takeRequest());
+	}
+
+	@Test
+	public void testRejectsUnknownMethod() {
+		byte[] bytes = bytes("BREW /pot HTTP/1.1\r\n\r\n");
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		buffer.append(bytes, 0, bytes.length);
+
+		List<HTTPRequest> requests = new HTTPRequestFactory().createRequests(
+				new Socket(), buffer);
+		assertEquals(1, requests.size());
+		assertEquals(MalformedHTTPRequest.class, requests.get(0).getClass());
+	}
+
+	@Test
+	public void testInflatesGzipBodyByteAtATime() throws ProtocolException,
+			IOException {
+		byte[] request = withBody("POST /a HTTP/1.1\r\nContent-Encoding: gzip\r\n",
+				gzip(bytes("{\"posts\": [1, 2, 3]}")));
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		for (int i = 0; i < request.length; i++) {
+			parser.parse(request, i, 1);
+		}
+		assertTrue(parser.isComplete());
+
+		HTTPRequest parsed = parser.takeRequest();
+		assertEquals("{\"posts\": [1, 2, 3]}", parsed.getContent());
+		assertEquals("20", parsed.getHeader(Protocol.CONTENT_LENGTH));
+		assertNull(parsed.getHeader(Protocol.CONTENT_ENCODING));
+	}
+
+	@Test
+	public void testInflatesChunkedDeflateBody() throws ProtocolException,
+			IOException {
+		byte[] deflated = deflate(bytes("hello, hello, hello"));
+		String head = "PUT /a HTTP/1.1\r\nContent-Encoding: deflate\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n"
+				+ Integer.toHexString(deflated.length) + "\r\n";
+		byte[] request = concat(bytes(head), deflated);
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		parser.parse(request, 0, request.length);
+		byte[] last = bytes("\r\n0\r\n\r\n");
+		parser.parse(last, 0, last.length);
+
+		assertTrue(parser.isComplete());
+		assertEquals("hello, hello, hello", parser.takeRequest().getContent());
+	}
+
+	@Test
+	public void testRejectsBodyInflatingOverLimit() throws IOException {
+		byte[] zeros = gzip(new byte[64 * 1024]);
+		List<HTTPRequest> requests = parseWithLimits(new RequestLimits(0, 0,
+				0, 1024, null), withBody(
+				"POST /a HTTP/1.1\r\nContent-Encoding: gzip\r\n", zeros));
+		assertSame(HttpStatusCode.PAYLOAD_TOO_LARGE,
+				((MalformedHTTPRequest) requests.get(0)).getStatus());
+	}
+
+	@Test
+	public void testRejectsTruncatedAndUnknownCodings() throws IOException {
+		byte[] gzipped = gzip(bytes("cut short"));
+		List<HTTPRequest> truncated = parseWithLimits(RequestLimits.DEFAULT,
+				withBody("POST /a HTTP/1.1\r\nContent-Encoding: gzip\r\n",
+						Arrays.copyOf(gzipped, gzipped.length - 4)));
+		assertSame(HttpStatusCode.BAD_REQUEST,
+				((MalformedHTTPRequest) truncated.get(0)).getStatus());
+
+		List<HTTPRequest> unknown = parseWithLimits(RequestLimits.DEFAULT,
+				withBody("POST /a HTTP/1.1\r\nContent-Encoding: br\r\n",
+						bytes("abc")));
+		assertSame(HttpStatusCode.UNSUPPORTED_MEDIA_TYPE,
+				((MalformedHTTPRequest) unknown.get(0)).getStatus());
+	}
+
+	private static byte[] withBody(String head, byte[] body) {
+		return concat(bytes(head + Protocol.CONTENT_LENGTH + ": "
+				+ body.length + "\r\n\r\n"), body);
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] both = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+		return both;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream deflate = new DeflaterOutputStream(out);
+		deflate.write(data);
+		deflate.close();
+		return out.toByteArray();
+	}
+
+	private static List<HTTPRequest> parseWithLimits(RequestLimits limits,
+			String text) {
+		return parseWithLimits(limits, bytes(text));
+	}
+
+	private static List<HTTPRequest> parseWithLimits(RequestLimits limits,
+			byte[] bytes) {
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		buffer.append(bytes, 0, bytes.length);
+		return new HTTPRequestFactory(RequestBody.DEFAULT_SPILL_THRESHOLD,
+				limits).createRequests(new Socket(), buffer);
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(Charset.forName("US-ASCII"));
+	}
+}
@@ -0,0 +1,138 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import request.MultipartReader;
+
+public class MultipartReaderTests {
+	private static final String BODY = "preamble\r\n"
+			+ "--XyZ\r\n"
+			+ "Content-Disposition: form-data; name=\"title\"\r\n"
+			+ "\r\n"
+			+ "Holiday\r\n"
+			+ "--XyZ\r\n"
+			+ "content-disposition: form-data; name=\"photo\"; filename=\"beach.jpg\"\r\n"
+			+ "Content-Type: image/jpeg\r\n" + "\r\n"
+			+ "\r\n--XyNot a boundary\r\n" + "--XyZ--\r\n" + "epilogue";
+
+	@Test
+	public void testReadsParts() throws IOException {
+		MultipartReader reader = new MultipartReader(new TrickleInputStream(
+				bytes(BODY)), "XyZ", 0, 0);
+
+		MultipartReader.Part title = reader.nextPart();
+		assertEquals("title", title.getName());
+		assertNull(title.getFilename());
+		assertEquals("Holiday", readAll(title.getInputStream()));
+
+		MultipartReader.Part photo = reader.nextPart();
+		assertEquals("photo", photo.getName());
+		assertEquals("beach.jpg", photo.getFilename());
+		assertEquals("image/jpeg", photo.getHeader("content-type"));
+		assertEquals("\r\n--XyNot a boundary",
+				readAll(photo.getInputStream()));
+
+		assertNull(reader.nextPart());
+	}
+
+	@Test
+	public void testSkipsUnreadParts() throws IOException {
+		MultipartReader reader = new MultipartReader(new ByteArrayInputStream(
+				bytes(BODY)), "XyZ", 0, 0);
+		reader.nextPart();
+		assertEquals("photo", reader.nextPart().getName());
+		assertNull(reader.nextPart());
+	}
+
+	@Test
+	public void testEnforcesPartLimit() throws IOException {
+		MultipartReader reader = new MultipartReader(new ByteArrayInputStream(
+				bytes(BODY)), "XyZ", 10, 0);
+		assertEquals("Holiday", readAll(reader.nextPart().getInputStream()));
+		try {
+			readAll(reader.nextPart().getInputStream());
+			fail("Part is over the limit");
+		} catch (MultipartReader.SizeLimitExceededException expected) {
+		}
+	}
+
+	@Test
+	public void testEnforcesTotalLimit() throws IOException {
+		MultipartReader reader = new MultipartReader(new ByteArrayInputStream(
+				bytes(BODY)), "XyZ", 0, 20);
+		readAll(reader.nextPart().getInputStream());
+		try {
+			readAll(reader.nextPart().getInputStream());
+			fail("Parts are over the limit together");
+		} catch (MultipartReader.SizeLimitExceededException expected) {
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsUnterminatedBody() throws IOException {
+		MultipartReader reader = new MultipartReader(new ByteArrayInputStream(
+				bytes("--XyZ\r\n\r\nno closing boundary")), "XyZ", 0, 0);
+		readAll(reader.nextPart().getInputStream());
+	}
+
+	@Test
+	public void testFilenameKeepsOnlyLastPathSegment() throws IOException {
+		assertEquals("server.xml", filenameOf("../../conf/server.xml"));
+		assertEquals("photo.jpg", filenameOf("C:\\Users\\jane\\photo.jpg"));
+		assertNull(filenameOf("uploads/.."));
+		assertNull(filenameOf(""));
+	}
+
+	@Test
+	public void testFindsBoundary() {
+		assertEquals("a b", MultipartReader
+				.getBoundary("multipart/form-data; boundary=\"a b\""));
+		assertNull(MultipartReader.getBoundary("text/plain; boundary=x"));
+	}
+
+	private static String filenameOf(String filename) throws IOException {
+		MultipartReader reader = new MultipartReader(new ByteArrayInputStream(
+				bytes("--XyZ\r\nContent-Disposition: form-data; name=\"f\"; filename=\""
+						+ filename + "\"\r\n\r\ncontent\r\n--XyZ--\r\n")),
+				"XyZ", 0, 0);
+		return reader.nextPart().getFilename();
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] chunk = new byte[3];
+		int read;
+		while ((read = in.read(chunk)) >= 0) {
+			out.write(chunk, 0, read);
+		}
+		return new String(out.toByteArray(), Charset.forName("US-ASCII"));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * Hands out a byte per read, like a slow client.
+	 */
+	private static class TrickleInputStream extends ByteArrayInputStream {
+		TrickleInputStream(byte[] bytes) {
+			super(bytes);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(1, len));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import response.ResponseHandler;
+import server.AddressConnectionCounter;
+import server.OverloadGuard;
+import server.SocketConnection;
+
+public class OverloadGuardTests {
+	private static final String SERVICE_UNAVAILABLE = "HTTP/1.1 503 Service Unavailable\r\n"
+			+ "Retry-After: 7\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "Connection: Close\r\n\r\n";
+
+	@Test
+	public void testConnectionOverLimitIsTurnedAway() throws IOException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(5, 0,
+				24, 64);
+		OverloadGuard guard = new OverloadGuard(1, 0, false, 7, counter);
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket listener = new ServerSocket(0, 50, loopback);
+		Socket admittedClient = new Socket();
+		Socket rejectedClient = new Socket();
+		try {
+			admittedClient.connect(listener.getLocalSocketAddress());
+			Socket admitted = listener.accept();
+			assertTrue(guard.admit(admitted, null, null));
+			assertEquals(0, guard.getAvailableConnections());
+			assertEquals(1, counter.getConnectionCount(loopback));
+
+			rejectedClient.connect(listener.getLocalSocketAddress());
+			Socket rejected = listener.accept();
+			assertFalse(guard.admit(rejected, null, null));
+			assertEquals(SERVICE_UNAVAILABLE, readUntilClosed(rejectedClient));
+			assertTrue(rejected.isClosed());
+			// Only the admitted one is counted
+			assertEquals(0, guard.getAvailableConnections());
+			assertEquals(1, counter.getConnectionCount(loopback));
+
+			SocketConnection connection = new SocketConnection(admitted);
+			guard.track(connection);
+			connection.close();
+			assertEquals(1, guard.getAvailableConnections());
+			assertEquals(0, counter.getConnectionCount(loopback));
+		} finally {
+			admittedClient.close();
+			rejectedClient.close();
+			listener.close();
+		}
+	}
+
+	@Test
+	public void testConnectionIsTurnedAwayWhileTaskQueueIsFull()
+			throws IOException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(5, 0,
+				24, 64);
+		OverloadGuard guard = new OverloadGuard(2, 1, false, 7, counter);
+		ResponseHandler busy = new ResponseHandler(null, null) {
+			@Override
+			public int getQueuedTaskCount() {
+				return 1;
+			}
+		};
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket listener = new ServerSocket(0, 50, loopback);
+		Socket client = new Socket();
+		try {
+			client.connect(listener.getLocalSocketAddress());
+			Socket rejected = listener.accept();
+			assertTrue(guard.isTaskQueueFull(busy));
+			assertFalse(guard.admit(rejected, busy, null));
+
+			assertEquals(SERVICE_UNAVAILABLE, readUntilClosed(client));
+			// Gave back what it took
+			assertEquals(2, guard.getAvailableConnections());
+			assertEquals(0, counter.getConnectionCount(loopback));
+		} finally {
+			client.close();
+			listener.close();
+			busy.stop();
+		}
+	}
+
+	@Test
+	public void testAddressOverLimitIsTurnedAway() throws IOException {
+		AddressConnectionCounter counter = new AddressConnectionCounter(1, 0,
+				24, 64);
+		OverloadGuard guard = new OverloadGuard(2, 0, false, 7, counter);
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket listener = new ServerSocket(0, 50, loopback);
+		Socket admittedClient = new Socket();
+		Socket rejectedClient = new Socket();
+		try {
+			admittedClient.connect(listener.getLocalSocketAddress());
+			assertTrue(guard.admit(listener.accept(), null, null));
+
+			rejectedClient.connect(listener.getLocalSocketAddress());
+			assertFalse(guard.admit(listener.accept(), null, null));
+			assertEquals(SERVICE_UNAVAILABLE, readUntilClosed(rejectedClient));
+			assertEquals(1, guard.getAvailableConnections());
+			assertEquals(1, counter.getConnectionCount(loopback));
+		} finally {
+			admittedClient.close();
+			rejectedClient.close();
+			listener.close();
+		}
+	}
+
+	private static String readUntilClosed(Socket client) throws IOException {
+		client.setSoTimeout(5000);
+		InputStream in = client.getInputStream();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int count;
+		while ((count = in.read(buffer)) >= 0) {
+			received.write(buffer, 0, count);
+		}
+		return received.toString("US-ASCII");
+	}
+}
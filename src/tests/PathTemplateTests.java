@@ -0,0 +1,71 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import protocol.ProtocolException;
+import request.HTTPRequest;
+import request.HTTPRequestParser;
+import configuration.PathTemplate;
+import configuration.ResourceStrategyRoute;
+
+public class PathTemplateTests {
+
+	@Test
+	public void testCapturesWholeSegments() {
+		PathTemplate template = PathTemplate
+				.compile("/rhitter/users/{id}/snippets/{snippet}/");
+		assertEquals("/rhitter/users/", template.getLiteralPrefix());
+		assertEquals(Arrays.asList("id", "snippet"),
+				template.getParameterNames());
+
+		Map<String, String> captured = template
+				.extract("/rhitter/users/jane%20doe/snippets/7/comments");
+		assertEquals("jane doe", captured.get("id"));
+		assertEquals("7", captured.get("snippet"));
+
+		assertNull(template.extract("/rhitter/users//snippets/7/"));
+		assertNull(template.extract("/rhitter/users/1/posts/7/"));
+		assertEquals(-1, template.match("/rhitter/users/1", 15));
+	}
+
+	@Test
+	public void testRejectsParametersInsideSegments() {
+		assertNull(PathTemplate.compile("/rhitter/users/"));
+		for (String bad : new String[] { "/users/{id}.json/",
+				"/users/x{id}/", "/users/{}/", "/users/{id}/{id}/",
+				"/users/{id" }) {
+			try {
+				PathTemplate.compile(bad);
+				fail("Should have rejected " + bad);
+			} catch (IllegalArgumentException e) {
+				// pass
+			}
+		}
+	}
+
+	@Test
+	public void testRequestExposesCaptures() throws ProtocolException {
+		byte[] bytes = "GET /rhitter/users/42/snippets HTTP/1.1\r\n\r\n"
+				.getBytes(Charset.forName("US-ASCII"));
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket());
+		parser.parse(bytes, 0, bytes.length);
+		HTTPRequest request = parser.takeRequest();
+		assertEquals(Collections.emptyMap(), request.getPathParameters());
+
+		request.setRoute(new ResourceStrategyRoute(Object.class,
+				"/rhitter/users/{id}/", Arrays.asList("GET"), Collections
+						.<String, String> emptyMap()));
+		assertEquals("42", request.getPathParameter("id"));
+		assertEquals("/rhitter/users/{id}/", request.getRouteTemplate());
+	}
+}
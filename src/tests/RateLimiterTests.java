@@ -0,0 +1,101 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import server.RateLimiter;
+import configuration.ResourceStrategyRoute;
+
+public class RateLimiterTests {
+	private static final long WINDOW = 1000;
+	private static final long START = 1000000 * WINDOW;
+
+	private static final byte[] CLIENT = { 10, 0, 0, 1 };
+	private static final byte[] OTHER_CLIENT = { 10, 0, 0, 2 };
+
+	@Test
+	public void testAllowsUpToLimit() {
+		RateLimiter limiter = new RateLimiter(WINDOW);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(limiter.tryAcquire(CLIENT, 5, START));
+		}
+		assertFalse(limiter.tryAcquire(CLIENT, 5, START));
+		assertEquals(5, limiter.estimate(CLIENT, START));
+	}
+
+	@Test
+	public void testClientsAreCountedApart() {
+		RateLimiter limiter = new RateLimiter(WINDOW);
+		for (int i = 0; i < 3; i++) {
+			limiter.tryAcquire(CLIENT, 3, START);
+		}
+		assertFalse(limiter.tryAcquire(CLIENT, 3, START));
+		assertTrue(limiter.tryAcquire(OTHER_CLIENT, 3, START));
+	}
+
+	@Test
+	public void testSameRouteOnOtherHostsIsLimitedApart()
+			throws UnknownHostException {
+		RateLimiter limiter = new RateLimiter(WINDOW);
+		InetAddress client = InetAddress.getByAddress(CLIENT);
+		Map<String, String> options = Collections.emptyMap();
+		ResourceStrategyRoute onA = new ResourceStrategyRoute(Object.class,
+				null, "/api/", Arrays.asList("GET"), options,
+				Arrays.asList("a.example.com"));
+		ResourceStrategyRoute onB = new ResourceStrategyRoute(Object.class,
+				null, "/api/", Arrays.asList("GET"), options,
+				Arrays.asList("b.example.com"));
+
+		assertTrue(limiter.tryAcquire(client,
+				ResourceStrategyRoute.scopeOf(onA), 1));
+		assertFalse(limiter.tryAcquire(client,
+				ResourceStrategyRoute.scopeOf(onA), 1));
+		assertTrue(limiter.tryAcquire(client,
+				ResourceStrategyRoute.scopeOf(onB), 1));
+	}
+
+	@Test
+	public void testNoLimit() {
+		RateLimiter limiter = new RateLimiter(WINDOW);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquire(CLIENT, 0, START));
+		}
+	}
+
+	@Test
+	public void testWindowSlides() {
+		RateLimiter limiter = new RateLimiter(WINDOW);
+		for (int i = 0; i < 10; i++) {
+			limiter.tryAcquire(CLIENT, 10, START);
+		}
+
+		// Half of the previous window still overlaps
+		assertEquals(5, limiter.estimate(CLIENT, START + WINDOW + WINDOW / 2));
+		assertTrue(limiter.tryAcquire(CLIENT, 10, START + WINDOW + WINDOW / 2));
+
+		// Nothing left of it two windows later
+		assertEquals(0, limiter.estimate(CLIENT, START + 3 * WINDOW));
+	}
+
+	@Test
+	public void testNeverUndercounts() {
+		// Tiny sketch, so keys have to share counters
+		RateLimiter limiter = new RateLimiter(WINDOW, 2, 8);
+		for (int i = 0; i < 100; i++) {
+			limiter.tryAcquire(new byte[] { 10, 0, 0, (byte) i }, 1000, START);
+		}
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.estimate(new byte[] { 10, 0, 0, (byte) i },
+					START) >= 1);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import protocol.ProtocolException;
+import request.HTTPRequest;
+import request.HTTPRequestParser;
+import request.RequestBody;
+import request.RequestLimits;
+
+public class RequestBodyTests {
+
+	@Test
+	public void testKeepsSmallBodyInMemory() throws IOException {
+		RequestBody body = new RequestBody(5, 16);
+		body.write(bytes("12345"), 0, 5);
+		body.finish();
+
+		assertTrue(body.isInMemory());
+		assertEquals("12345", readAll(body.openStream()));
+	}
+
+	@Test
+	public void testSpillsLargeBodyToFile() throws IOException {
+		RequestBody body = new RequestBody(-1, 4);
+		body.write(bytes("abc"), 0, 3);
+		assertTrue(body.isInMemory());
+		body.write(bytes("defgh"), 0, 5);
+		body.finish();
+
+		assertFalse(body.isInMemory());
+		assertEquals(8, body.getLength());
+		assertEquals("abcdefgh", readAll(body.openStream()));
+		assertEquals("abcdefgh", body.decode(Charset.forName("US-ASCII")));
+		body.discard();
+	}
+
+	@Test
+	public void testStreamsBinaryBody() throws ProtocolException, IOException {
+		byte[] head = bytes("PUT /files/blob HTTP/1.1\r\nContent-Length: 4\r\n\r\n");
+		byte[] request = new byte[head.length + 4];
+		System.arraycopy(head, 0, request, 0, head.length);
+		request[head.length] = (byte) 0xff;
+		request[head.length + 3] = (byte) 0x80;
+
+		HTTPRequestParser parser = new HTTPRequestParser(new Socket(), 2,
+				RequestLimits.DEFAULT);
+		parser.parse(request, 0, request.length);
+		HTTPRequest parsed = parser.takeRequest();
+
+		InputStream in = parsed.getBody();
+		assertEquals(0xff, in.read());
+		assertEquals(0, in.read());
+		assertEquals(0, in.read());
+		assertEquals(0x80, in.read());
+		assertEquals(-1, in.read());
+		in.close();
+		parsed.discardBody();
+	}
+
+	@Test
+	public void testMovesSpilledBodyIntoPlace() throws IOException {
+		File directory = createTempDirectory();
+		File target = new File(directory, "upload.txt");
+		RequestBody body = new RequestBody(-1, 2);
+		body.write(bytes("spilled"), 0, 7);
+		body.moveTo(target);
+		body.discard();
+
+		assertEquals("spilled", readAll(new FileInputStream(target)));
+		assertEquals(1, directory.list().length);
+		target.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testReplacesFileWithBodyInMemory() throws IOException {
+		File directory = createTempDirectory();
+		File target = new File(directory, "upload.txt");
+		RequestBody first = new RequestBody(-1, 16);
+		first.write(bytes("first version"), 0, 13);
+		first.moveTo(target);
+		RequestBody second = new RequestBody(-1, 16);
+		second.write(bytes("second"), 0, 6);
+		second.moveTo(target);
+		second.discard();
+
+		assertTrue(second.isInMemory());
+		assertEquals("second", readAll(new FileInputStream(target)));
+		assertEquals(1, directory.list().length);
+		target.delete();
+		directory.delete();
+	}
+
+	private static File createTempDirectory() throws IOException {
+		File directory = File.createTempFile("sws-upload", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		in.close();
+		return new String(out.toByteArray(), Charset.forName("US-ASCII"));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(Charset.forName("US-ASCII"));
+	}
+}
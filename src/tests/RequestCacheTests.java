@@ -5,6 +5,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import interfaces.IHttpRequest;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.Map;
 
 import org.junit.Test;
@@ -75,10 +79,27 @@ public class RequestCacheTests {
 		assertEquals(3, estimate, TEST_DELTA);
 	}
 
+	@Test
+	public void testRequestCacheKeysByRouteTemplate() {
+		RequestDurationCache test = new RequestDurationCache();
+		test.requestCompleted(4, true, new FakeHttpRequest("GET",
+				"/rhitter/users/1/", "/rhitter/users/{id}/"));
+		test.requestCompleted(2, true, new FakeHttpRequest("GET",
+				"/rhitter/users/2/", "/rhitter/users/{id}/"));
+
+		double estimate = test.estimateExecutionTimeForRequest(new FakeHttpRequest(
+				"GET", "/rhitter/users/3/", "/rhitter/users/{id}/"));
+		assertEquals(3, estimate, TEST_DELTA);
+		estimate = test.estimateExecutionTimeForRequest(new FakeHttpRequest(
+				"GET", "/rhitter/users/3/"));
+		assertEquals(-1, estimate, TEST_DELTA);
+	}
+
 	public static class FakeHttpRequest implements IHttpRequest {
 
 		private String method = "";
 		private String path = "";
+		private String routeTemplate;
 
 		public FakeHttpRequest(String method, String path) {
 
@@ -86,6 +107,12 @@ public class RequestCacheTests {
 			this.path = path;
 		}
 
+		public FakeHttpRequest(String method, String path,
+				String routeTemplate) {
+			this(method, path);
+			this.routeTemplate = routeTemplate;
+		}
+
 		@Override
 		public String getMethod() {
 			return method;
@@ -120,6 +147,35 @@ public class RequestCacheTests {
 			throw new UnsupportedOperationException();
 		}
 
+		@Override
+		public InputStream getBody() throws IOException {
+			return null;
+		}
+
+		@Override
+		public int getBodyLength() {
+			return 0;
+		}
+
+		@Override
+		public void saveBody(File target) throws IOException {
+		}
+
+		@Override
+		public String getRouteTemplate() {
+			return routeTemplate;
+		}
+
+		@Override
+		public Map<String, String> getPathParameters() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String getPathParameter(String name) {
+			return null;
+		}
+
 		@Override
 		public void readHeadersAndBody() throws Exception {
 			// TODO Auto-generated method stub
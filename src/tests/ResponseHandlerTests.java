@@ -0,0 +1,336 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import interfaces.HttpResponseBase;
+import interfaces.IHttpRequest;
+import interfaces.RequestTaskBase;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import protocol.HttpStatusCode;
+import protocol.Protocol;
+import request.HTTPRequest;
+import request.HTTPRequestBuffer;
+import request.HTTPRequestFactory;
+import response.ResponseHandler;
+import server.OverloadGuard;
+import server.SocketConnection;
+import strategy.RequestDurationCache;
+import strategy.RequestTaskWatchdog;
+import configuration.ResourceStrategyRoute;
+import configuration.ResourceStrategyRouteOptions;
+
+public class ResponseHandlerTests {
+
+	@Test
+	public void testClientThatNeverReadsDoesNotHoldUpOthers()
+			throws Exception {
+		RequestTaskQueueOrderingTests.FakeServer server = new RequestTaskQueueOrderingTests.FakeServer(
+				new RequestDurationCache());
+		ResponseHandler handler = new ResponseHandler(null, server);
+		new Thread(handler).start();
+
+		ServerSocket listener = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		Socket slowClient = new Socket();
+		Socket fastClient = new Socket();
+		try {
+			slowClient.setReceiveBufferSize(4096);
+			slowClient.connect(listener.getLocalSocketAddress());
+			Socket slowSide = listener.accept();
+			fastClient.connect(listener.getLocalSocketAddress());
+			Socket fastSide = listener.accept();
+			handler.addClientToServed(new SocketConnection(slowSide));
+			handler.addClientToServed(new SocketConnection(fastSide));
+
+			// Far more than the socket buffers hold, and never read
+			handler.enqueueRequestTaskForClient(
+					new FixedResponseTask(16 * 1024 * 1024, server), slowSide);
+			Thread.sleep(200);
+			handler.enqueueRequestTaskForClient(new FixedResponseTask(10,
+					server), fastSide);
+
+			fastClient.setSoTimeout(5000);
+			InputStream in = fastClient.getInputStream();
+			byte[] statusLine = new byte[12];
+			int read = 0;
+			while (read < statusLine.length) {
+				int count = in.read(statusLine, read, statusLine.length - read);
+				if (count < 0) {
+					break;
+				}
+				read += count;
+			}
+			assertTrue(new String(statusLine, 0, read, "US-ASCII")
+					.startsWith("HTTP/1.1 200"));
+		} finally {
+			slowClient.close();
+			fastClient.close();
+			listener.close();
+			handler.stop();
+		}
+	}
+
+	@Test
+	public void testPipelinedResponsesAreWrittenInRequestOrder()
+			throws Exception {
+		RequestTaskQueueOrderingTests.FakeServer server = new RequestTaskQueueOrderingTests.FakeServer(
+				new RequestDurationCache());
+		ResponseHandler handler = new ResponseHandler(null, server);
+		new Thread(handler).start();
+
+		ServerSocket listener = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		Socket client = new Socket();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			client.connect(listener.getLocalSocketAddress());
+			Socket serverSide = listener.accept();
+			handler.addClientToServed(new SocketConnection(serverSide));
+
+			FixedResponseTask first = new FixedResponseTask(1, server, release);
+			first.setKeepAlive("timeout=5");
+			FixedResponseTask second = new FixedResponseTask(2, server);
+			handler.enqueueRequestTasksForClient(
+					Arrays.<RequestTaskBase> asList(first, second), serverSide);
+
+			// The second finishes first, and waits for the first
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!second.isComplete()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(second.isComplete());
+			Thread.sleep(100);
+			assertEquals(0, client.getInputStream().available());
+			release.countDown();
+
+			client.setSoTimeout(5000);
+			assertEquals("1 2 ", findAll("Content-Length: (\\d+)",
+					readUntilClosed(client)));
+		} finally {
+			release.countDown();
+			client.close();
+			listener.close();
+			handler.stop();
+		}
+	}
+
+	@Test
+	public void testTaskOverItsBulkheadsQueueIsAnsweredWith503()
+			throws Exception {
+		RequestTaskQueueOrderingTests.FakeServer server = new RequestTaskQueueOrderingTests.FakeServer(
+				new RequestDurationCache());
+		ResponseHandler handler = new ResponseHandler(null, server);
+		new Thread(handler).start();
+
+		Map<String, String> options = new HashMap<String, String>();
+		options.put(ResourceStrategyRouteOptions.MaxThreads, "1");
+		options.put(ResourceStrategyRouteOptions.MaxQueuedTasks, "1");
+		ResourceStrategyRoute slow = new ResourceStrategyRoute(Object.class,
+				"/slow/", Arrays.asList("GET"), options);
+
+		ServerSocket listener = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		Socket client = new Socket();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			client.connect(listener.getLocalSocketAddress());
+			Socket serverSide = listener.accept();
+			handler.addClientToServed(new SocketConnection(serverSide));
+
+			// One running, one queued, and no room for the third
+			FixedResponseTask running = new FixedResponseTask(
+					slowRequest(serverSide, slow), 1, server, release);
+			running.setKeepAlive("timeout=5");
+			FixedResponseTask queued = new FixedResponseTask(slowRequest(
+					serverSide, slow), 2, server, null);
+			queued.setKeepAlive("timeout=5");
+			FixedResponseTask turnedAway = new FixedResponseTask(
+					slowRequest(serverSide, slow), 3, server, null);
+			handler.enqueueRequestTasksForClient(
+					Arrays.<RequestTaskBase> asList(running, queued,
+							turnedAway), serverSide);
+			assertEquals(1, handler.getBulkheads().get(1)
+					.getRejectedTaskCount());
+			release.countDown();
+
+			client.setSoTimeout(5000);
+			String received = readUntilClosed(client);
+			assertEquals("200 200 503 ", findAll("HTTP/1\\.1 (\\d{3})",
+					received));
+			assertTrue(received.contains(Protocol.RETRY_AFTER + ": "
+					+ OverloadGuard.DEFAULT_RETRY_AFTER_SECONDS));
+		} finally {
+			release.countDown();
+			client.close();
+			listener.close();
+			handler.stop();
+		}
+	}
+
+	@Test
+	public void testKilledRequestIsAnsweredBeforeThosePipelinedBehindIt()
+			throws Exception {
+		RequestTaskQueueOrderingTests.FakeServer server = new RequestTaskQueueOrderingTests.FakeServer(
+				new RequestDurationCache());
+		ResponseHandler handler = new ResponseHandler(null, server);
+		new Thread(handler).start();
+
+		ServerSocket listener = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		Socket client = new Socket();
+		try {
+			client.connect(listener.getLocalSocketAddress());
+			Socket serverSide = listener.accept();
+			handler.addClientToServed(new SocketConnection(serverSide));
+
+			FixedResponseTask second = new FixedResponseTask(2, server);
+			second.setKeepAlive("timeout=5");
+			FixedResponseTask third = new FixedResponseTask(3, server);
+			third.setKeepAlive("timeout=5");
+			handler.enqueueRequestTasksForClient(Arrays.<RequestTaskBase> asList(
+					new HangingTask(server), second, third), serverSide);
+
+			// The watchdog kills the first well before this
+			client.setSoTimeout((RequestTaskWatchdog.MAX_EXECUTION_SECONDS
+					+ RequestTaskWatchdog.CHECK_DELAY_SECONDS + 5) * 1000);
+			// Nothing answered ahead of the killed request, and the
+			// connection is closed after its 500
+			assertEquals("500 ",
+					findAll("HTTP/1\\.1 (\\d{3})", readUntilClosed(client)));
+		} finally {
+			client.close();
+			listener.close();
+			handler.stop();
+		}
+	}
+
+	private static HTTPRequest slowRequest(Socket socket,
+			ResourceStrategyRoute route) {
+		byte[] bytes = "GET /slow/ HTTP/1.1\r\nHost: x\r\n\r\n"
+				.getBytes(Charset.forName("US-ASCII"));
+		HTTPRequestBuffer buffer = new HTTPRequestBuffer();
+		buffer.append(bytes, 0, bytes.length);
+		HTTPRequest request = new HTTPRequestFactory().createRequests(socket,
+				buffer).get(0);
+		request.setRoute(route);
+		return request;
+	}
+
+	private static String readUntilClosed(Socket client) throws IOException {
+		InputStream in = client.getInputStream();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int count;
+		while ((count = in.read(buffer)) >= 0) {
+			received.write(buffer, 0, count);
+		}
+		return received.toString("US-ASCII");
+	}
+
+	/**
+	 * @return the first group of each match, in order, each followed by a
+	 *         space
+	 */
+	private static String findAll(String regex, String text) {
+		StringBuilder found = new StringBuilder();
+		Matcher matcher = Pattern.compile(regex).matcher(text);
+		while (matcher.find()) {
+			found.append(matcher.group(1)).append(' ');
+		}
+		return found.toString();
+	}
+
+	private static class FixedResponseTask extends RequestTaskBase {
+		private final int length;
+		private final CountDownLatch release;
+
+		public FixedResponseTask(int length,
+				RequestTaskQueueOrderingTests.FakeServer server) {
+			this(length, server, null);
+		}
+
+		/**
+		 * @param release
+		 *            waited for before the task completes, may be null
+		 */
+		public FixedResponseTask(int length,
+				RequestTaskQueueOrderingTests.FakeServer server,
+				CountDownLatch release) {
+			this(new RequestCacheTests.FakeHttpRequest("GET", "/"), length,
+					server, release);
+		}
+
+		public FixedResponseTask(IHttpRequest request, int length,
+				RequestTaskQueueOrderingTests.FakeServer server,
+				CountDownLatch release) {
+			super(request);
+			setServer(server);
+			this.length = length;
+			this.release = release;
+		}
+
+		@Override
+		public void run() {
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			completed = true;
+			super.run();
+		}
+
+		@Override
+		public HttpResponseBase getResponse() {
+			HttpResponseBase response = new HttpResponseBase(Protocol.VERSION,
+					HttpStatusCode.OK, null) {
+				@Override
+				protected void writeContent(BufferedOutputStream outStream)
+						throws IOException {
+					outStream.write(new byte[length]);
+				}
+			};
+			response.putHeader(Protocol.CONTENT_LENGTH, String.valueOf(length));
+			return response;
+		}
+	}
+
+	private static class HangingTask extends RequestTaskBase {
+
+		public HangingTask(RequestTaskQueueOrderingTests.FakeServer server) {
+			super(new RequestCacheTests.FakeHttpRequest("GET", "/"));
+			setServer(server);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Thread.sleep(60 * 1000);
+			} catch (InterruptedException killed) {
+				return;
+			}
+			completed = true;
+			super.run();
+		}
+	}
+}
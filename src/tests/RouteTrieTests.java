@@ -0,0 +1,88 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import configuration.ResourceStrategyRoute;
+import configuration.RouteTrie;
+
+public class RouteTrieTests {
+
+	@Test
+	public void testPicksLongestMatch() {
+		ResourceStrategyRoute all = route("/", "GET");
+		ResourceStrategyRoute files = route("/files/", "GET");
+		ResourceStrategyRoute images = route("/files/images/", "GET");
+		RouteTrie trie = new RouteTrie(Arrays.asList(all, images, files));
+
+		assertSame(images, trie.find("/files/images/cat.png", "GET"));
+		assertSame(files, trie.find("/files/imag", "GET"));
+		assertSame(files, trie.find("/files/", "GET"));
+		assertSame(all, trie.find("/fil", "GET"));
+		assertEquals(3, trie.size());
+	}
+
+	@Test
+	public void testSkipsRoutesNotTakingMethod() {
+		ResourceStrategyRoute reads = route("/posts/", "GET");
+		ResourceStrategyRoute writes = route("/posts/", "POST", "put");
+		ResourceStrategyRoute drafts = route("/posts/drafts/", "DELETE");
+		RouteTrie trie = new RouteTrie(Arrays.asList(reads, writes, drafts));
+
+		assertSame(reads, trie.find("/posts/drafts/1", "GET"));
+		assertSame(writes, trie.find("/posts/drafts/1", "PUT"));
+		assertSame(writes, trie.find("/posts/1", "post"));
+		assertSame(drafts, trie.find("/posts/drafts/1", "DELETE"));
+		assertSame(ResourceStrategyRoute.None, trie.find("/posts/1", "DELETE"));
+		assertSame(drafts, trie.find("/posts/drafts/1"));
+	}
+
+	@Test
+	public void testMatchesUnknownMethodsByName() {
+		ResourceStrategyRoute dav = route("/dav/", "PROPFIND");
+		ResourceStrategyRoute other = route("/dav/", "MKCOL");
+		RouteTrie trie = new RouteTrie(Arrays.asList(dav, other));
+
+		assertSame(dav, trie.find("/dav/a", "PROPFIND"));
+		assertSame(other, trie.find("/dav/a", "MKCOL"));
+		assertSame(ResourceStrategyRoute.None, trie.find("/dav/a", "LOCK"));
+	}
+
+	@Test
+	public void testSplitsSharedPrefixes() {
+		ResourceStrategyRoute tweets = route("/tweeter/", "GET");
+		ResourceStrategyRoute tweaks = route("/tweaks/", "GET");
+		ResourceStrategyRoute tw = route("/tw", "GET");
+		RouteTrie trie = new RouteTrie(Arrays.asList(tweets, tweaks, tw));
+
+		assertSame(tweets, trie.find("/tweeter/1", "GET"));
+		assertSame(tweaks, trie.find("/tweaks/1", "GET"));
+		assertSame(tw, trie.find("/tweet", "GET"));
+		assertSame(ResourceStrategyRoute.None, trie.find("/t", "GET"));
+		assertSame(ResourceStrategyRoute.INVALID, trie.find(null, "GET"));
+	}
+
+	@Test
+	public void testMatchesTemplatesAfterTheirPrefix() {
+		ResourceStrategyRoute users = route("/users/", "POST");
+		ResourceStrategyRoute user = route("/users/{id}/", "GET");
+		ResourceStrategyRoute me = route("/users/me/", "GET");
+		ResourceStrategyRoute posts = route("/users/{id}/posts/", "GET");
+		RouteTrie trie = new RouteTrie(Arrays.asList(users, user, me, posts));
+
+		assertSame(user, trie.find("/users/42/", "GET"));
+		assertSame(me, trie.find("/users/me/", "GET"));
+		assertSame(posts, trie.find("/users/me/posts/1", "GET"));
+		assertSame(ResourceStrategyRoute.None, trie.find("/users/42", "GET"));
+	}
+
+	private static ResourceStrategyRoute route(String match, String... methods) {
+		return new ResourceStrategyRoute(Object.class, match,
+				Arrays.asList(methods), Collections.<String, String> emptyMap());
+	}
+}
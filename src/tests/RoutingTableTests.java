@@ -0,0 +1,153 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import configuration.ResourceStrategyConfiguration;
+import configuration.ResourceStrategyRoute;
+import configuration.RoutingTable;
+
+public class RoutingTableTests {
+
+	@Test
+	public void testSnapshotOutlivesReload() {
+		ResourceStrategyRoute old = route("/files/");
+		ResourceStrategyRoute replacement = route("/files/");
+		List<ResourceStrategyRoute> routes = new ArrayList<ResourceStrategyRoute>(
+				Arrays.asList(old));
+		ReloadableConfiguration configuration = new ReloadableConfiguration(
+				routes);
+		routes.clear();
+
+		RoutingTable before = configuration.getRoutingTable();
+		configuration.reload(Arrays.asList(replacement));
+		configuration.addRoute(route("/images/"));
+		RoutingTable after = configuration.getRoutingTable();
+
+		assertSame(old, before.find("/files/a", "GET"));
+		assertEquals(1, before.getRoutes().size());
+		assertSame(replacement, after.find("/files/a", "GET"));
+		assertEquals(2, after.getRoutes().size());
+		assertEquals(before.getVersion() + 2, after.getVersion());
+	}
+
+	@Test
+	public void testLookupsNeverMissDuringReloads() throws InterruptedException {
+		final ReloadableConfiguration configuration = new ReloadableConfiguration(
+				Arrays.asList(route("/files/")));
+		final AtomicInteger misses = new AtomicInteger();
+		final long end = System.currentTimeMillis() + 200;
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (System.currentTimeMillis() < end) {
+					if (configuration.findRouteForResourcePath("/files/a",
+							"GET") == ResourceStrategyRoute.None) {
+						misses.incrementAndGet();
+					}
+				}
+			}
+		};
+		reader.start();
+		int reloads = 0;
+		while (System.currentTimeMillis() < end) {
+			configuration.reload(Arrays.asList(route("/other/"),
+					route("/files/")));
+			configuration.addRoute(route("/more/"));
+			reloads++;
+		}
+		reader.join();
+
+		assertTrue(reloads > 0);
+		assertEquals(0, misses.get());
+	}
+
+	@Test
+	public void testRoutesScopedToHosts() {
+		ResourceStrategyRoute shared = route("/static/");
+		ResourceStrategyRoute blog = route("/", "blog.example.com");
+		ResourceStrategyRoute shop = route("/", "shop.example.com");
+		ResourceStrategyRoute anyOrg = route("/", "*.example.org");
+		ResourceStrategyRoute api = route("/api/", "api.example.org");
+		RoutingTable table = new RoutingTable(1, Arrays.asList(shared, blog,
+				shop, anyOrg, api));
+
+		assertTrue(table.isHostScoped());
+		assertSame(blog, table.find("blog.example.com", "/posts/1", "GET"));
+		assertSame(shop, table.find("Shop.Example.COM:8080", "/cart", "GET"));
+		assertSame(shared, table.find("blog.example.com.", "/static/a.css",
+				"GET"));
+		assertSame(anyOrg, table.find("www.example.org", "/", "GET"));
+		assertSame(anyOrg, table.find("a.b.example.org", "/", "GET"));
+		assertSame(api, table.find("api.example.org", "/api/users", "GET"));
+		// The host's own routes come on top of the domain's
+		assertSame(anyOrg, table.find("api.example.org", "/other", "GET"));
+		// Not a host under the domain
+		assertSame(ResourceStrategyRoute.None,
+				table.find("example.org", "/", "GET"));
+		assertSame(ResourceStrategyRoute.None,
+				table.find("other.net", "/", "GET"));
+		assertSame(shared, table.find(null, "/static/a.css", null));
+		assertSame(ResourceStrategyRoute.None, table.find("/posts/1"));
+	}
+
+	@Test
+	public void testDomainDoesNotCoverHostOfSameName() {
+		ResourceStrategyRoute anyOrg = route("/", "*.example.org");
+		ResourceStrategyRoute home = route("/home/", "example.org");
+		RoutingTable table = new RoutingTable(1, Arrays.asList(anyOrg, home));
+
+		assertSame(home, table.find("example.org", "/home/a", "GET"));
+		assertSame(ResourceStrategyRoute.None,
+				table.find("example.org", "/other", "GET"));
+		assertSame(anyOrg, table.find("www.example.org", "/home/a", "GET"));
+	}
+
+	@Test
+	public void testUnscopedRoutesIgnoreHost() {
+		ResourceStrategyRoute files = route("/files/");
+		RoutingTable table = new RoutingTable(1, Arrays.asList(files));
+
+		assertFalse(table.isHostScoped());
+		assertSame(files, table.find("anything.example.com", "/files/a",
+				"GET"));
+	}
+
+	@Test
+	public void testNormalizeHost() {
+		assertEquals("example.com", RoutingTable.normalizeHost("Example.COM"));
+		assertEquals("example.com",
+				RoutingTable.normalizeHost(" example.com.:8080 "));
+		assertEquals("[::1]", RoutingTable.normalizeHost("[::1]:8080"));
+		assertEquals("*.example.org",
+				RoutingTable.normalizeHost("*.Example.org"));
+	}
+
+	private static ResourceStrategyRoute route(String match, String... hosts) {
+		return new ResourceStrategyRoute(Object.class, null, match,
+				Arrays.asList("GET"), Collections.<String, String> emptyMap(),
+				hosts.length == 0 ? null : Arrays.asList(hosts));
+	}
+
+	private static class ReloadableConfiguration extends
+			ResourceStrategyConfiguration {
+		public ReloadableConfiguration(List<ResourceStrategyRoute> routes) {
+			super(routes);
+		}
+
+		public void reload(List<ResourceStrategyRoute> routes) {
+			setNewRoutes(routes);
+		}
+	}
+}
@@ -2,6 +2,8 @@ package tests;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import interfaces.IHttpRequest;
 import interfaces.IResourceRoute;
@@ -168,9 +170,83 @@ public class ServerConfigurationParsingTests {
 		assertEquals(testRoute.getStrategyClass(), TestServlet.class);
 	}
 
+	@Test
+	public void testServerAttachesStrategyInstancesToRoutes()
+			throws InvalidConfigurationException {
+		File testConfig = new File(TEST_FILE_PATH);
+		ServerConfiguration tester = new ServerConfiguration(
+				new TestRouteConfig());
+
+		List<ServletData> myServlets = new ArrayList<ServletData>();
+		myServlets.add(new ServletData(StatelessServlet.class.getName(),
+				"fancyservlet", Arrays.asList(new String[] { "GET" })));
+		tester.addPlugin(new PluginData("myplugin", null, myServlets));
+
+		tester.parseConfiguration(testConfig);
+		IResourceRoute first = tester.getManagedResourceConfiguration()
+				.findRouteForResourcePath("/path/to/myplugin/fancyservlet/",
+						"GET");
+		tester.parseConfiguration(testConfig);
+		IResourceRoute reloaded = tester.getManagedResourceConfiguration()
+				.findRouteForResourcePath("/path/to/myplugin/fancyservlet/",
+						"GET");
+
+		assertTrue(first.getStrategy() instanceof StatelessServlet);
+		assertTrue(reloaded.getStrategy() instanceof StatelessServlet);
+		assertNotSame(first.getStrategy(), reloaded.getStrategy());
+	}
+
+	@Test
+	public void testServerScopesRoutesToHosts() throws Exception {
+		File hostConfig = new File(TEST_FILE_PATH + ".hosts");
+		FileOutputStream out = new FileOutputStream(hostConfig);
+		out.write(("<routes>\n" + "  <route>\n"
+				+ "    <plugin>myplugin</plugin>\n"
+				+ "    <path>/blog/</path>\n" + "    <options/>\n"
+				+ "    <hosts>\n" + "      <string>Blog.Example.com</string>\n"
+				+ "      <string>*.example.org</string>\n"
+				+ "    </hosts>\n" + "  </route>\n" + "</routes>\n")
+				.getBytes("UTF-8"));
+		out.close();
+
+		ServerConfiguration tester = new ServerConfiguration(
+				new TestRouteConfig());
+		List<ServletData> myServlets = new ArrayList<ServletData>();
+		myServlets.add(new ServletData(StatelessServlet.class.getName(), "",
+				Arrays.asList(new String[] { "GET" })));
+		tester.addPlugin(new PluginData("myplugin", null, myServlets));
+
+		try {
+			tester.parseConfiguration(hostConfig);
+		} finally {
+			hostConfig.delete();
+		}
+		ResourceStrategyConfiguration routes = tester
+				.getManagedResourceConfiguration();
+
+		assertEquals(StatelessServlet.class, routes.findRouteForResourcePath(
+				"blog.example.com:8080", "/blog/a", "GET").getStrategyClass());
+		assertEquals(StatelessServlet.class, routes.findRouteForResourcePath(
+				"www.example.org", "/blog/a", "GET").getStrategyClass());
+		assertEquals(ResourceStrategyRoute.None,
+				routes.findRouteForResourcePath("other.example.com", "/blog/a",
+						"GET"));
+		assertEquals(ResourceStrategyRoute.None,
+				routes.findRouteForResourcePath("/blog/a", "GET"));
+	}
+
+	public static class StatelessServlet implements IResourceStrategy {
+
+		@Override
+		public RequestTaskBase prepareEvaluation(IHttpRequest request,
+				IResourceRoute fromRoute) {
+			return null;
+		}
+	}
+
 	public class TestRouteConfig extends ResourceStrategyConfiguration {
 		public List<ResourceStrategyRoute> getRoutes() {
-			return this.activeRoutes;
+			return getRoutingTable().getRoutes();
 		}
 	}
 